@@ -0,0 +1,195 @@
+package tex61;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** A list of documents to be formatted concurrently in one process.
+ *  Documents are formatted by a shared FormatEngine on a fixed pool of
+ *  threads.
+ *  @author Greg
+ */
+class Batch {
+
+    /** A new, empty Batch that formats up to JOBS documents at once with
+     *  ENGINE.  MAPPED, CHARSET, and NIO are as for Main's --mmap,
+     *  --charset, and --nio options (CHARSET may be null). */
+    Batch(int jobs, FormatEngine engine, boolean mapped, Charset charset,
+          boolean nio) {
+        _jobs = jobs;
+        _engine = engine;
+        _mapped = mapped;
+        _charset = charset;
+        _nio = nio;
+    }
+
+    /** Add the document INPUT, to be formatted into OUTPUT. */
+    void add(File input, File output) {
+        _inputs.add(input);
+        _outputs.add(output);
+    }
+
+    /** Add the documents listed in MANIFEST, one per line as an input file
+     *  name followed by white space and an output file name.  Blank lines
+     *  and lines starting with # are ignored. */
+    void addManifest(File manifest) throws IOException {
+        BufferedReader lines = new BufferedReader(new FileReader(manifest));
+        try {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] names = line.split("\\s+");
+                if (names.length != 2) {
+                    throw FormatException.error("bad manifest line: %s",
+                                                line);
+                }
+                add(new File(names[0]), new File(names[1]));
+            }
+        } finally {
+            lines.close();
+        }
+    }
+
+    /** Add each file in directory DIR, to be formatted into the file of
+     *  the same name in directory OUTDIR. */
+    void addDirectory(File dir, File outdir) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("cannot list directory " + dir);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isFile()) {
+                add(file, new File(outdir, file.getName()));
+            }
+        }
+    }
+
+    /** Format all documents, reporting the errors in each to ERR and the
+     *  status of each, followed by a summary, to OUT.  Returns the total
+     *  number of errors. */
+    int run(PrintStream out, PrintStream err) {
+        ExecutorService pool = Executors.newFixedThreadPool(_jobs);
+        List<Future<FormatResult>> results =
+            new ArrayList<Future<FormatResult>>();
+        for (int i = 0; i < _inputs.size(); i += 1) {
+            results.add(pool.submit(new Job(_inputs.get(i),
+                                            _outputs.get(i))));
+        }
+        pool.shutdown();
+
+        int totalErrors, failures;
+        totalErrors = failures = 0;
+        for (int i = 0; i < results.size(); i += 1) {
+            FormatResult result;
+            try {
+                result = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                result = failure(String.valueOf(e.getCause()));
+            }
+            for (String msg : result.errors()) {
+                err.println(_inputs.get(i) + ": " + msg);
+            }
+            totalErrors += result.errorCount();
+            if (!result.succeeded()) {
+                failures += 1;
+            }
+            out.printf("%s: %s%n", _inputs.get(i), status(result));
+        }
+        out.printf("%d documents, %d with errors, %d error(s)%n",
+                   results.size(), failures, totalErrors);
+        return totalErrors;
+    }
+
+    /** Returns the sum of the statistics of the documents formatted so
+     *  far. */
+    FormatStats stats() {
+        return _engine.stats();
+    }
+
+    /** Returns a description of RESULT. */
+    private static String status(FormatResult result) {
+        if (result.failed()) {
+            return String.format("failed (%d error(s))",
+                                 result.errorCount());
+        } else if (!result.succeeded()) {
+            return String.format("%d error(s)", result.errorCount());
+        } else {
+            return "ok";
+        }
+    }
+
+    /** Returns the result of a document that could not be formatted
+     *  because of the error MSG. */
+    private static FormatResult failure(String msg) {
+        ErrorLog log = new ErrorLog(null);
+        log.fail(msg);
+        return new FormatResult(log);
+    }
+
+    /** The formatting of one document. */
+    private class Job implements Callable<FormatResult> {
+
+        /** Format INPUT into OUTPUT. */
+        Job(File input, File output) {
+            _input = input;
+            _output = output;
+        }
+
+        @Override
+        public FormatResult call() {
+            try (Reader input = Main.openInput(_input, _mapped, _charset);
+                 Writer output = Main.openOutput(_output, _nio)) {
+                return _engine.format(input, output);
+            } catch (IOException e) {
+                return failure(e.getMessage());
+            }
+        }
+
+        /** The input file. */
+        private final File _input;
+        /** The output file. */
+        private final File _output;
+    }
+
+    /** Maximum number of documents formatted at once. */
+    private final int _jobs;
+
+    /** Formats each document. */
+    private final FormatEngine _engine;
+
+    /** True iff input files are mapped into memory. */
+    private final boolean _mapped;
+
+    /** Charset of the input files, or null for the default. */
+    private final Charset _charset;
+
+    /** True iff output files are written by ChannelWriters. */
+    private final boolean _nio;
+
+    /** Input files, in order. */
+    private final List<File> _inputs = new ArrayList<File>();
+
+    /** Output files, corresponding to _inputs. */
+    private final List<File> _outputs = new ArrayList<File>();
+
+}
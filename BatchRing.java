@@ -0,0 +1,173 @@
+package tex61;
+
+/** A bounded ring of batches, all allocated when it is created, through
+ *  which one thread (the producer) passes work to another (the
+ *  consumer), which the ring starts when the first batch is claimed.
+ *  The producer fills the batch returned by claim and hands it on with
+ *  publish; the consumer is given each published batch in turn by
+ *  consume, after which the batch may be claimed again.  A producer that
+ *  gets ahead of its consumer waits in claim until a batch is free, so
+ *  that at most all of the batches are ever in use.
+ *
+ *  If consume throws an exception, the consumer stops, and the
+ *  exception is thrown to the producer whenever it would wait for the
+ *  consumer, until the ring is cancelled.
+ *  @author Greg
+ */
+abstract class BatchRing<T> {
+
+    /** A new ring of BATCHES, whose consumer thread is named NAME. */
+    BatchRing(T[] batches, String name) {
+        _batches = batches;
+        _name = name;
+    }
+
+    /** Process BATCH, the next one published, on the consumer thread. */
+    abstract void consume(T batch);
+
+    /** Returns the batch to be filled next, waiting until the consumer
+     *  is done with it, and starting the consumer if it has not been
+     *  started. */
+    synchronized T claim() {
+        if (_consumer == null) {
+            _consumer = new Thread(_name) {
+                @Override
+                public void run() {
+                    consumeAll();
+                }
+            };
+            _consumer.setDaemon(true);
+            _consumer.start();
+        }
+        while (_published - _consumed == _batches.length) {
+            await();
+        }
+        return _batches[(int) (_published % _batches.length)];
+    }
+
+    /** Pass the batch returned by the last claim to the consumer. */
+    synchronized void publish() {
+        _published += 1;
+        notifyAll();
+    }
+
+    /** Wait until the consumer has processed every batch published. */
+    synchronized void drain() {
+        while (_consumed < _published) {
+            await();
+        }
+    }
+
+    /** Wait until the consumer has processed every batch published, and
+     *  stop it.  The next claim starts a new consumer. */
+    void finish() {
+        Thread consumer;
+        synchronized (this) {
+            drain();
+            consumer = _consumer;
+            _stopping = true;
+            notifyAll();
+        }
+        join(consumer);
+    }
+
+    /** Stop the consumer, discarding any batches published but not yet
+     *  processed, and any failure. */
+    void cancel() {
+        Thread consumer;
+        synchronized (this) {
+            consumer = _consumer;
+            _stopping = true;
+            notifyAll();
+        }
+        join(consumer);
+        synchronized (this) {
+            _published = _consumed = 0;
+            _failure = null;
+        }
+    }
+
+    /** Process batches as they are published, until stopped. */
+    private void consumeAll() {
+        while (true) {
+            T batch;
+            synchronized (this) {
+                while (_consumed == _published && !_stopping) {
+                    await();
+                }
+                if (_stopping) {
+                    return;
+                }
+                batch = _batches[(int) (_consumed % _batches.length)];
+            }
+            try {
+                consume(batch);
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    _failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            synchronized (this) {
+                _consumed += 1;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Wait for a notification, first throwing the consumer's failure,
+     *  if it has failed. */
+    private void await() {
+        if (_failure instanceof Error) {
+            throw (Error) _failure;
+        } else if (_failure != null) {
+            throw (RuntimeException) _failure;
+        }
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FormatException("interrupted");
+        }
+    }
+
+    /** Wait for CONSUMER, if not null, to end, and note that there is no
+     *  consumer. */
+    private void join(Thread consumer) {
+        if (consumer != null) {
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FormatException("interrupted");
+            }
+        }
+        synchronized (this) {
+            _consumer = null;
+            _stopping = false;
+        }
+    }
+
+    /** The batches. */
+    private final T[] _batches;
+
+    /** The name of the consumer thread. */
+    private final String _name;
+
+    /** The consumer thread, or null if it has not been started. */
+    private Thread _consumer;
+
+    /** The number of batches published. */
+    private long _published;
+
+    /** The number of batches the consumer has processed. */
+    private long _consumed;
+
+    /** True iff the consumer is to stop. */
+    private boolean _stopping;
+
+    /** What the consumer threw, or null if it has not failed. */
+    private Throwable _failure;
+
+}
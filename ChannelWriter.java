@@ -0,0 +1,315 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+
+/** A Writer that encodes its text with a given Charset and writes the
+ *  bytes to a channel.  Text is collected into chunks of a fixed number
+ *  of characters, each of which is encoded into its own direct
+ *  ByteBuffer, on an Executor if one is given.  Chunks are written in
+ *  order, as many at once as have been encoded, by gathering writes.
+ *  Chunks and their buffers are reused, and at most MAX_PENDING of them
+ *  are waiting to be written at any time.
+ *
+ *  The bytes written are those an OutputStreamWriter would write: text
+ *  that cannot be encoded is replaced.  For charsets that encode
+ *  differently in pieces (such as UTF-16, which starts with a byte-order
+ *  mark), chunks are encoded one at a time, in order, with one encoder.
+ *  Only one thread may use a ChannelWriter at a time.
+ *  @author Greg
+ */
+class ChannelWriter extends Writer {
+
+    /** Default number of characters in a chunk. */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    /** Maximum number of chunks encoded or being encoded but not yet
+     *  written. */
+    static final int MAX_PENDING = 8;
+
+    /** A new ChannelWriter that encodes text with CHARSET and writes it
+     *  to CHANNEL, encoding chunks on POOL, if it is not null. */
+    ChannelWriter(GatheringByteChannel channel, Charset charset,
+                  Executor pool) {
+        this(channel, charset, pool, CHUNK_SIZE);
+    }
+
+    /** A new ChannelWriter that encodes text with CHARSET and writes it
+     *  to CHANNEL, encoding chunks of CHUNKSIZE (at least 2) characters
+     *  on POOL, if it is not null. */
+    ChannelWriter(GatheringByteChannel channel, Charset charset,
+                  Executor pool, int chunkSize) {
+        _channel = channel;
+        _charset = charset;
+        _chunkSize = chunkSize;
+        if (independent(charset)) {
+            _pool = pool;
+            _encoder = null;
+        } else {
+            _pool = null;
+            _encoder = encoder(charset);
+        }
+        _chunk = new Chunk();
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _chunkSize - _chunk.len);
+            System.arraycopy(cbuf, off, _chunk.chars, _chunk.len, n);
+            _chunk.len += n;
+            off += n;
+            len -= n;
+            if (_chunk.len == _chunkSize) {
+                submit(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, _chunkSize - _chunk.len);
+            str.getChars(off, off + n, _chunk.chars, _chunk.len);
+            _chunk.len += n;
+            off += n;
+            len -= n;
+            if (_chunk.len == _chunkSize) {
+                submit(false);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        _chunk.chars[_chunk.len] = (char) c;
+        _chunk.len += 1;
+        if (_chunk.len == _chunkSize) {
+            submit(false);
+        }
+    }
+
+    /** Write all text so far, except for a trailing high surrogate, which
+     *  is held until the character after it is written. */
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        if (_chunk.len > 0) {
+            submit(false);
+        }
+        drain(_pending.size());
+    }
+
+    /** Write all text so far, and close the channel. */
+    @Override
+    public void close() throws IOException {
+        if (_channel.isOpen()) {
+            try {
+                submit(true);
+                drain(_pending.size());
+            } finally {
+                _channel.close();
+            }
+        }
+    }
+
+    /** Start encoding the current chunk, and start a new one.  Unless
+     *  LAST, a trailing high surrogate is moved to the new chunk, so as
+     *  to be encoded with the low surrogate that follows it.  Then write
+     *  the chunks that have been encoded, waiting for the first if too
+     *  many are pending. */
+    private void submit(boolean last) throws IOException {
+        checkOpen();
+        Chunk chunk = _chunk;
+        chunk.last = last;
+        _chunk = _free.isEmpty() ? new Chunk() : _free.pop();
+        if (!last && Character.isHighSurrogate(chunk.chars[chunk.len - 1])) {
+            chunk.len -= 1;
+            _chunk.chars[0] = chunk.chars[chunk.len];
+            _chunk.len = 1;
+        }
+        _pending.add(chunk);
+        if (_pool == null) {
+            chunk.run();
+        } else {
+            _pool.execute(chunk);
+        }
+        drain(_pending.size() >= MAX_PENDING ? 1 : 0);
+    }
+
+    /** Write the pending chunks that have been encoded, in order, having
+     *  first waited for the first N to be encoded.  Return their chunks
+     *  to _free. */
+    private void drain(int n) throws IOException {
+        int k = 0;
+        for (Chunk chunk : _pending) {
+            if (k >= n && !chunk.isDone()) {
+                break;
+            }
+            _gather[k] = chunk.await();
+            k += 1;
+        }
+        if (k == 0) {
+            return;
+        }
+        long remaining = 0;
+        for (int i = 0; i < k; i += 1) {
+            remaining += _gather[i].remaining();
+        }
+        while (remaining > 0) {
+            remaining -= _channel.write(_gather, 0, k);
+        }
+        for (int i = 0; i < k; i += 1) {
+            _gather[i] = null;
+            Chunk chunk = _pending.poll();
+            chunk.len = 0;
+            _free.push(chunk);
+        }
+    }
+
+    /** Throw an IOException if I have been closed. */
+    private void checkOpen() throws IOException {
+        if (!_channel.isOpen()) {
+            throw new IOException("stream closed");
+        }
+    }
+
+    /** Returns a new encoder for CHARSET that replaces text it cannot
+     *  encode, as an OutputStreamWriter does. */
+    private static CharsetEncoder encoder(Charset charset) {
+        return charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /** Returns true iff text in CHARSET may be encoded in pieces, each by
+     *  a fresh encoder, with the same result as when encoded whole. */
+    private static boolean independent(Charset charset) {
+        try {
+            ByteBuffer whole = encoder(charset).encode(CharBuffer.wrap("a\n"));
+            ByteBuffer first = encoder(charset).encode(CharBuffer.wrap("a"));
+            ByteBuffer rest = encoder(charset).encode(CharBuffer.wrap("\n"));
+            if (whole.remaining() != first.remaining() + rest.remaining()) {
+                return false;
+            }
+            whole.limit(first.remaining());
+            return whole.equals(first);
+        } catch (CharacterCodingException e) {
+            return false;
+        }
+    }
+
+    /** A chunk of text and its encoding. */
+    private class Chunk implements Runnable {
+
+        /** A new, empty Chunk. */
+        Chunk() {
+            CharsetEncoder enc = _encoder == null ? encoder(_charset)
+                : _encoder;
+            chars = new char[_chunkSize];
+            bytes = ByteBuffer.allocateDirect(
+                (int) Math.ceil(enc.maxBytesPerChar() * (_chunkSize + 1)));
+            encoder = _encoder == null ? enc : null;
+        }
+
+        /** Encode CHARS into BYTES, and mark me done.  A shared encoder
+         *  leaves a high surrogate at the end of CHARS unencoded, but
+         *  since submit has moved any that might be followed by a low
+         *  surrogate to the next chunk, it is malformed and is
+         *  replaced. */
+        @Override
+        public void run() {
+            CharsetEncoder enc = encoder == null ? _encoder : encoder;
+            CharBuffer in = CharBuffer.wrap(chars, 0, len);
+            bytes.clear();
+            if (encoder != null) {
+                enc.reset();
+                enc.encode(in, bytes, true);
+                enc.flush(bytes);
+            } else {
+                enc.encode(in, bytes, last);
+                if (last) {
+                    enc.flush(bytes);
+                } else if (in.hasRemaining()) {
+                    bytes.put(enc.replacement());
+                }
+            }
+            bytes.flip();
+            synchronized (this) {
+                done = true;
+                notifyAll();
+            }
+        }
+
+        /** Returns true iff I have been encoded. */
+        synchronized boolean isDone() {
+            return done;
+        }
+
+        /** Wait until I have been encoded, and return my bytes, after
+         *  which I am no longer done. */
+        synchronized ByteBuffer await() throws IOException {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted");
+                }
+            }
+            done = false;
+            return bytes;
+        }
+
+        /** The text. */
+        final char[] chars;
+        /** The number of characters of text in CHARS. */
+        int len;
+        /** True iff this is the last chunk. */
+        boolean last;
+        /** The encoded text, when done. */
+        final ByteBuffer bytes;
+        /** My own encoder, or null if I use _encoder. */
+        final CharsetEncoder encoder;
+        /** True iff BYTES holds the encoded text. */
+        private boolean done;
+    }
+
+    /** Where bytes are written. */
+    private final GatheringByteChannel _channel;
+
+    /** The charset of the bytes. */
+    private final Charset _charset;
+
+    /** The number of characters in a chunk. */
+    private final int _chunkSize;
+
+    /** Where chunks are encoded, or null if they are encoded as they are
+     *  submitted. */
+    private final Executor _pool;
+
+    /** The encoder shared by all chunks, which are encoded in order, or
+     *  null if each chunk has its own. */
+    private final CharsetEncoder _encoder;
+
+    /** The chunk to which text is being added. */
+    private Chunk _chunk;
+
+    /** Chunks submitted but not yet written, in order. */
+    private final ArrayDeque<Chunk> _pending = new ArrayDeque<Chunk>();
+
+    /** Chunks that may be reused. */
+    private final ArrayDeque<Chunk> _free = new ArrayDeque<Chunk>();
+
+    /** Buffers of the chunks being written. */
+    private final ByteBuffer[] _gather = new ByteBuffer[MAX_PENDING + 1];
+
+}
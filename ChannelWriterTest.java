@@ -0,0 +1,86 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of ChannelWriters.
+ *  @author Greg
+ */
+public class ChannelWriterTest {
+
+    private String randomText(long seed, int len) {
+        Random rand = new Random(seed);
+        String chars = "ab \n\f\u00e9\u4e2d\ud83d\ude00\ud83d";
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < len; i += 1) {
+            text.append(chars.charAt(rand.nextInt(chars.length())));
+        }
+        return text.toString();
+    }
+
+    /** Write TEXT to a ChannelWriter in pieces of up to PIECE characters,
+     *  flushing now and then, and return the bytes written. */
+    private byte[] writeAll(String text, Charset charset,
+                            ForkJoinPool pool, int chunk, int piece)
+        throws IOException {
+        File file = File.createTempFile("tex61", ".out");
+        file.deleteOnExit();
+        Writer out = new ChannelWriter(
+            FileChannel.open(file.toPath(), StandardOpenOption.WRITE),
+            charset, pool, chunk);
+        Random rand = new Random(piece);
+        for (int i = 0; i < text.length(); ) {
+            int n = Math.min(text.length() - i, 1 + rand.nextInt(piece));
+            switch (rand.nextInt(4)) {
+            case 0:
+                out.write(text.charAt(i));
+                n = 1;
+                break;
+            case 1:
+                out.write(text.toCharArray(), i, n);
+                break;
+            case 2:
+                out.flush();
+                out.write(text, i, n);
+                break;
+            default:
+                out.write(text, i, n);
+                break;
+            }
+            i += n;
+        }
+        out.close();
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void testEncoding() throws IOException {
+        String text = randomText(61, 5000);
+        for (Charset charset : new Charset[] {
+                StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1,
+                StandardCharsets.UTF_16 }) {
+            byte[] expected = text.getBytes(charset);
+            for (int chunk : new int[] { 2, 7, 1000, 1 << 16 }) {
+                for (ForkJoinPool pool : new ForkJoinPool[] {
+                        null, ForkJoinPool.commonPool() }) {
+                    assertTrue(Arrays.equals(expected,
+                                             writeAll(text, charset, pool,
+                                                      chunk, 50)));
+                }
+            }
+        }
+    }
+
+}
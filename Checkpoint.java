@@ -0,0 +1,157 @@
+package tex61;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** The state of a Controller between two paragraphs of the main text,
+ *  from which formatting may continue without formatting the text
+ *  before it again.  A Checkpoint holds the number of characters of
+ *  input consumed and a hash of them, the page and output line reached,
+ *  the formatting state of the Controller and its assemblers (see
+ *  Controller.checkpoint), and the lines of endnotes formatted since the
+ *  previous Checkpoint.
+ *  @author Greg
+ */
+class Checkpoint {
+
+    /** Hash of no characters. */
+    static final long HASH_SEED = 0xcbf29ce484222325L;
+
+    /** Returns the hash of characters whose hash is H followed by the LEN
+     *  characters starting at BUF[OFF]. */
+    static long hash(long h, char[] buf, int off, int len) {
+        for (int i = off; i < off + len; i += 1) {
+            h = (h ^ buf[i]) * HASH_PRIME;
+        }
+        return h;
+    }
+
+    /** A new Checkpoint after the first OFFSET characters of input, whose
+     *  hash is HASH, on page PAGE (numbering from 1, or 0 before the
+     *  first line) after LINES lines of output.  STATE is the formatting
+     *  state, and ENDNOTES the lines of endnotes since the previous
+     *  Checkpoint. */
+    Checkpoint(long offset, long hash, int page, long lines, byte[] state,
+               List<String> endnotes) {
+        _offset = offset;
+        _hash = hash;
+        _page = page;
+        _lines = lines;
+        _state = state;
+        _endnotes = endnotes;
+    }
+
+    /** Returns the number of characters of input before me. */
+    long offset() {
+        return _offset;
+    }
+
+    /** Returns the hash of the characters of input before me. */
+    long hash() {
+        return _hash;
+    }
+
+    /** Returns the number of the page I am on. */
+    int page() {
+        return _page;
+    }
+
+    /** Returns the number of lines of output before me. */
+    long lines() {
+        return _lines;
+    }
+
+    /** Returns the formatting state. */
+    byte[] state() {
+        return _state;
+    }
+
+    /** Returns the lines of endnotes formatted since the previous
+     *  Checkpoint. */
+    List<String> endnotes() {
+        return _endnotes;
+    }
+
+    /** Write me to OUT, in the form read by read. */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(_offset);
+        out.writeLong(_hash);
+        out.writeInt(_page);
+        out.writeLong(_lines);
+        out.writeInt(_state.length);
+        out.write(_state);
+        out.writeInt(_endnotes.size());
+        for (String line : _endnotes) {
+            writeLine(out, line);
+        }
+    }
+
+    /** Returns a Checkpoint read from IN, as written by write. */
+    static Checkpoint read(DataInput in) throws IOException {
+        long offset = in.readLong();
+        long hash = in.readLong();
+        int page = in.readInt();
+        long lines = in.readLong();
+        byte[] state = new byte[in.readInt()];
+        in.readFully(state);
+        int n = in.readInt();
+        List<String> endnotes = new ArrayList<String>(n);
+        for (int i = 0; i < n; i += 1) {
+            endnotes.add(readLine(in));
+        }
+        return new Checkpoint(offset, hash, page, lines, state, endnotes);
+    }
+
+    /** Write LINE to OUT: its length, followed by a byte for each
+     *  character if all are Latin-1, and otherwise its complement,
+     *  followed by the characters. */
+    private static void writeLine(DataOutput out, String line)
+        throws IOException {
+        int len = line.length();
+        for (int i = 0; i < len; i += 1) {
+            if (line.charAt(i) > 0xff) {
+                out.writeInt(~len);
+                out.writeChars(line);
+                return;
+            }
+        }
+        out.writeInt(len);
+        out.writeBytes(line);
+    }
+
+    /** Returns a line read from IN, as written by writeLine. */
+    private static String readLine(DataInput in) throws IOException {
+        int len = in.readInt();
+        char[] chars = new char[len < 0 ? ~len : len];
+        for (int i = 0; i < chars.length; i += 1) {
+            chars[i] = len < 0 ? in.readChar()
+                : (char) in.readUnsignedByte();
+        }
+        return new String(chars);
+    }
+
+    /** Multiplier of the hash of input (that of 64-bit FNV-1a). */
+    private static final long HASH_PRIME = 0x100000001b3L;
+
+    /** The number of characters of input before me. */
+    private final long _offset;
+
+    /** The hash of the input before me. */
+    private final long _hash;
+
+    /** The page I am on. */
+    private final int _page;
+
+    /** The number of lines of output before me. */
+    private final long _lines;
+
+    /** The formatting state. */
+    private final byte[] _state;
+
+    /** Lines of endnotes since the previous Checkpoint. */
+    private final List<String> _endnotes;
+
+}
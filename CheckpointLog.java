@@ -0,0 +1,219 @@
+package tex61;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A file of Checkpoints of the formatting of a document, kept beside its
+ *  output file.  Checkpoints are appended as they are taken, and the file
+ *  is flushed after each, so that those taken before a crash survive it.
+ *  The log starts with MAGIC, VERSION, a description of the settings
+ *  with which the document is formatted, and the number of pages between
+ *  checkpoints.  Each Checkpoint follows as its length in bytes and its
+ *  contents (see Checkpoint.write).  An incomplete last Checkpoint is
+ *  ignored.
+ *  @author Greg
+ */
+class CheckpointLog {
+
+    /** Changed whenever the format of logs or the formatting of documents
+     *  changes, so as to invalidate existing logs. */
+    static final int VERSION = 2;
+
+    /** Suffix added to the name of an output file to get that of its
+     *  log. */
+    static final String SUFFIX = ".ckpt";
+
+    /** Returns the log file of OUTPUT. */
+    static File logFile(File output) {
+        return new File(output.getPath() + SUFFIX);
+    }
+
+    /** A new log of the formatting of OUTPUT with SETTINGS, taking a
+     *  Checkpoint every EVERY pages, replacing any existing log.  It
+     *  starts with the Checkpoints in KEEP. */
+    CheckpointLog(File output, String settings, int every,
+                  List<Checkpoint> keep) throws IOException {
+        _every = every;
+        _out = new DataOutputStream(new BufferedOutputStream(
+            new FileOutputStream(logFile(output))));
+        _out.writeInt(MAGIC);
+        _out.writeInt(VERSION);
+        _out.writeUTF(settings);
+        _out.writeInt(every);
+        for (Checkpoint checkpoint : keep) {
+            add(checkpoint);
+        }
+    }
+
+    /** Returns the number of pages between Checkpoints. */
+    int every() {
+        return _every;
+    }
+
+    /** Append CHECKPOINT to the log, and flush it. */
+    void add(Checkpoint checkpoint) throws IOException {
+        _record.reset();
+        checkpoint.write(new DataOutputStream(_record));
+        _out.writeInt(_record.size());
+        _record.writeTo(_out);
+        _out.flush();
+    }
+
+    /** Finish writing the log. */
+    void close() throws IOException {
+        _out.close();
+    }
+
+    /** Returns the number of pages between the Checkpoints in the log of
+     *  OUTPUT if it was made with SETTINGS, and otherwise 0.  Adds the
+     *  Checkpoints in it to CHECKPOINTS. */
+    static int read(File output, String settings,
+                    List<Checkpoint> checkpoints) throws IOException {
+        File log = logFile(output);
+        if (!log.isFile()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(log)))) {
+            int every;
+            try {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || !in.readUTF().equals(settings)) {
+                    return 0;
+                }
+                every = in.readInt();
+            } catch (EOFException e) {
+                return 0;
+            }
+            while (true) {
+                byte[] record;
+                try {
+                    record = new byte[in.readInt()];
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    return every;
+                }
+                checkpoints.add(Checkpoint.read(new DataInputStream(
+                    new ByteArrayInputStream(record))));
+            }
+        }
+    }
+
+    /** Returns the number of CHECKPOINTS, from the first, whose input is
+     *  a prefix of the text read from INPUT, which is then closed. */
+    static int validPrefix(List<Checkpoint> checkpoints, Reader input)
+        throws IOException {
+        char[] buf = new char[SCAN_SIZE];
+        long hash = Checkpoint.HASH_SEED;
+        long pos = 0;
+        int len = 0, off = 0;
+        int k;
+        try {
+            for (k = 0; k < checkpoints.size(); k += 1) {
+                Checkpoint checkpoint = checkpoints.get(k);
+                while (pos < checkpoint.offset()) {
+                    if (off == len) {
+                        len = input.read(buf, 0, buf.length);
+                        off = 0;
+                        if (len == -1) {
+                            return k;
+                        }
+                    }
+                    int n = (int) Math.min(len - off,
+                                           checkpoint.offset() - pos);
+                    hash = Checkpoint.hash(hash, buf, off, n);
+                    off += n;
+                    pos += n;
+                }
+                if (hash != checkpoint.hash()) {
+                    break;
+                }
+            }
+        } finally {
+            input.close();
+        }
+        return k;
+    }
+
+    /** Returns the lines of endnotes in the first N of CHECKPOINTS. */
+    static List<String> endnotes(List<Checkpoint> checkpoints, int n) {
+        List<String> endnotes = new ArrayList<String>();
+        for (int k = 0; k < n; k += 1) {
+            endnotes.addAll(checkpoints.get(k).endnotes());
+        }
+        return endnotes;
+    }
+
+    /** Returns the byte offset of line LINE (numbering from 0) of OUTPUT,
+     *  whose newlines are single bytes, or -1 if OUTPUT has fewer than
+     *  LINE lines. */
+    static long lineOffset(File output, long line) throws IOException {
+        long offset = scan(output, line);
+        return offset < 0 ? -1 : offset;
+    }
+
+    /** Returns the number of lines in OUTPUT, whose newlines are single
+     *  bytes. */
+    static long lineCount(File output) throws IOException {
+        return -1 - scan(output, Long.MAX_VALUE);
+    }
+
+    /** Returns the byte offset of line LINE of OUTPUT, as for lineOffset,
+     *  or, if OUTPUT has only N < LINE lines, -1 - N. */
+    private static long scan(File output, long line) throws IOException {
+        if (line == 0) {
+            return 0;
+        }
+        long lines = 0;
+        try (FileChannel in = FileChannel.open(output.toPath(),
+                                               StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(SCAN_SIZE);
+            byte[] bytes = buf.array();
+            long pos = 0;
+            for (int n = in.read(buf); n > 0; n = in.read(buf)) {
+                for (int i = 0; i < n; i += 1) {
+                    if (bytes[i] == '\n') {
+                        lines += 1;
+                        if (lines == line) {
+                            return pos + i + 1;
+                        }
+                    }
+                }
+                pos += n;
+                buf.clear();
+            }
+        }
+        return -1 - lines;
+    }
+
+    /** Identifies log files. */
+    private static final int MAGIC = 0x74363143;
+
+    /** Number of characters or bytes scanned at once. */
+    private static final int SCAN_SIZE = 1 << 16;
+
+    /** The number of pages between Checkpoints. */
+    private final int _every;
+
+    /** Where the log is written. */
+    private final DataOutputStream _out;
+
+    /** Holds each Checkpoint as it is written, to find its length. */
+    private final ByteArrayOutputStream _record = new ByteArrayOutputStream();
+
+}
@@ -0,0 +1,167 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Checkpoints and CheckpointLogs.
+ *  @author Greg
+ */
+public class CheckpointTest {
+
+    private static final String SETTINGS = "test";
+
+    /** Returns a document of N paragraphs whose formatting settings
+     *  change from time to time, with endnotes and non-Latin-1 text. */
+    private String document(int n) {
+        StringBuilder doc = new StringBuilder("\\textheight{5}\\textwidth{24}");
+        for (int i = 0; i < n; i += 1) {
+            if (i % 7 == 3) {
+                doc.append("\\nofill\n");
+            } else if (i % 7 == 5) {
+                doc.append("\\fill\\indent{").append(i % 3)
+                    .append("}\\optimalfit\n");
+            }
+            doc.append("Paragraph ").append(i).append(" says caf\u00e9 and")
+                .append(" \u4e2d\u6587 in a few more words than fit on")
+                .append(" one line.\\endnote{Note ").append(i)
+                .append(" is \u4e2d.}\n");
+            if (i % 11 == 0) {
+                doc.append("A second line here.\n");
+            }
+            doc.append("\n");
+        }
+        return doc.toString();
+    }
+
+    /** Returns the output of DOC, formatted from the start, or from
+     *  Checkpoint K-1 of CHECKPOINTS if K > 0, printing only pages FIRST
+     *  through LAST if FIRST > 0, streaming iff STREAMING.  Adds
+     *  Checkpoints to LOG, if it is not null.  Returns null if DOC does
+     *  not match the Checkpoint. */
+    private String format(String doc, List<Checkpoint> checkpoints, int k,
+                          int first, int last, boolean streaming,
+                          CheckpointLog log) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        Controller controller = new Controller(out, streaming);
+        controller.setCheckpoints(log);
+        InputParser parser = new InputParser(new StringReader(doc),
+                                             controller);
+        if (k > 0) {
+            Checkpoint from = checkpoints.get(k - 1);
+            if (!parser.resume(from.offset(), from.hash())) {
+                return null;
+            }
+            controller.restore(from,
+                               CheckpointLog.endnotes(checkpoints, k));
+        }
+        if (first > 0) {
+            controller.setPageRange(first, last);
+        }
+        parser.process();
+        assertEquals(0, controller.errors().count());
+        out.close();
+        return text.toString();
+    }
+
+    /** Returns the part of TEXT after its first LINES lines. */
+    private String after(String text, long lines) {
+        int pos = 0;
+        for (long i = 0; i < lines; i += 1) {
+            pos = text.indexOf('\n', pos) + 1;
+        }
+        return text.substring(pos);
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        String doc = document(60);
+        File output = File.createTempFile("tex61", ".out");
+        output.deleteOnExit();
+        CheckpointLog.logFile(output).deleteOnExit();
+        for (boolean streaming : new boolean[] { false, true }) {
+            CheckpointLog log = new CheckpointLog(output, SETTINGS, 3,
+                                                  new ArrayList<Checkpoint>());
+            String text = format(doc, null, 0, 0, 0, streaming, log);
+            log.close();
+            assertEquals(text, format(doc, null, 0, 0, 0, streaming, null));
+
+            List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+            assertEquals(3, CheckpointLog.read(output, SETTINGS,
+                                               checkpoints));
+            assertEquals(0, CheckpointLog.read(output, "other",
+                                               new ArrayList<Checkpoint>()));
+            assertTrue(checkpoints.size() > 5);
+            for (int k = 1; k <= checkpoints.size(); k += 1) {
+                Checkpoint checkpoint = checkpoints.get(k - 1);
+                assertTrue(checkpoint.page() >= 3 * k);
+                assertEquals(after(text, checkpoint.lines()),
+                             format(doc, checkpoints, k, 0, 0, streaming,
+                                    null));
+            }
+        }
+    }
+
+    @Test
+    public void testPages() throws IOException {
+        String doc = document(60);
+        File output = File.createTempFile("tex61", ".out");
+        output.deleteOnExit();
+        CheckpointLog.logFile(output).deleteOnExit();
+        CheckpointLog log = new CheckpointLog(output, SETTINGS, 2,
+                                              new ArrayList<Checkpoint>());
+        String[] pages = format(doc, null, 0, 0, 0, true, log).split("\f");
+        log.close();
+        List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+        CheckpointLog.read(output, SETTINGS, checkpoints);
+        for (int first : new int[] { 1, 4, 9, pages.length - 1 }) {
+            int k;
+            for (k = 0; k < checkpoints.size(); k += 1) {
+                if (checkpoints.get(k).page() >= first) {
+                    break;
+                }
+            }
+            assertEquals(pages[first - 1] + "\f" + pages[first],
+                         format(doc, checkpoints, k, first, first + 1,
+                                true, null));
+        }
+    }
+
+    @Test
+    public void testEdits() throws IOException {
+        String doc = document(60);
+        File output = File.createTempFile("tex61", ".out");
+        output.deleteOnExit();
+        CheckpointLog.logFile(output).deleteOnExit();
+        CheckpointLog log = new CheckpointLog(output, SETTINGS, 2,
+                                              new ArrayList<Checkpoint>());
+        format(doc, null, 0, 0, 0, false, log);
+        log.close();
+        List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+        CheckpointLog.read(output, SETTINGS, checkpoints);
+        int n = checkpoints.size();
+
+        assertEquals(n, CheckpointLog.validPrefix(checkpoints,
+                                                  new StringReader(doc)));
+        int edit = (int) checkpoints.get(n / 2).offset() - 3;
+        String edited = doc.substring(0, edit) + "X" + doc.substring(edit);
+        assertEquals(n / 2,
+                     CheckpointLog.validPrefix(checkpoints,
+                                               new StringReader(edited)));
+        assertNull(format(edited, checkpoints, n / 2 + 1, 0, 0, false,
+                          null));
+        String text = format(edited, null, 0, 0, 0, false, null);
+        Checkpoint from = checkpoints.get(n / 2 - 1);
+        assertEquals(after(text, from.lines()),
+                     format(edited, checkpoints, n / 2, 0, 0, false, null));
+    }
+
+}
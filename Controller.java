@@ -1,8 +1,14 @@
 package tex61;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 /** Receives (partial) words and commands, performs commands, and
  *  accumulates and formats words into lines of text, which are sent to a
@@ -14,14 +20,219 @@ import java.util.List;
  */
 class Controller {
 
+    /** Default number of bytes of endnote lines kept in memory. */
+    static final long DEFAULT_ENDNOTE_MEMORY = 1L << 26;
+
     /** A new Controller that sends formatted output to OUT. */
     Controller(PrintWriter out) {
+        this(out, false);
+    }
+
+    /** A new Controller that sends formatted output to OUT.  Iff
+     *  STREAMING, lines of the main text are written to OUT as soon as
+     *  they are complete, and only endnotes are held until close.
+     *  Otherwise, all output is held until close. */
+    Controller(PrintWriter out, boolean streaming) {
+        this(out, streaming, new ErrorLog(System.err));
+    }
+
+    /** A new Controller that sends formatted output to OUT and reports
+     *  errors to ERRORS.  Iff STREAMING, lines of the main text are
+     *  written to OUT as soon as they are complete, and only endnotes are
+     *  held until close.  Otherwise, all output is held until close. */
+    Controller(PrintWriter out, boolean streaming, ErrorLog errors) {
+        this(out, streaming, errors, null);
+    }
+
+    /** A new Controller that sends formatted output to OUT and reports
+     *  errors to ERRORS, as above.  If POOL is not null, paragraphs of
+     *  the main text are broken into lines in parallel on POOL. */
+    Controller(PrintWriter out, boolean streaming, ErrorLog errors,
+               ForkJoinPool pool) {
+        this(out, streaming, errors, pool, null);
+    }
+
+    /** A new Controller that sends formatted output to OUT and reports
+     *  errors to ERRORS, as above.  If POOL is not null, paragraphs of
+     *  the main text are broken into lines in parallel on POOL.  If CACHE
+     *  is not null, paragraphs of the main text found there are not
+     *  formatted again, and those not found are added to it. */
+    Controller(PrintWriter out, boolean streaming, ErrorLog errors,
+               ForkJoinPool pool, LayoutCache cache) {
+        this(out, streaming, errors, pool, cache, 0);
+    }
+
+    /** A new Controller that sends formatted output to OUT and reports
+     *  errors to ERRORS, writing lines of the main text as soon as they
+     *  are complete, as when streaming.  Input is parsed on the calling
+     *  thread, while paragraphs of the main text are broken into lines
+     *  and pages on a second (see PipelinedLineAssembler), and the lines
+     *  are written to OUT on a third (see PipeWriter).  Each stage passes
+     *  its work to the next in batches of BATCHSIZE (at least 2)
+     *  characters. */
+    Controller(PrintWriter out, ErrorLog errors, int batchSize) {
+        this(out, true, errors, null, null, batchSize);
+    }
+
+    /** A new Controller, as above, whose stages run on separate threads
+     *  with batches of BATCHSIZE characters iff BATCHSIZE > 0, in which
+     *  case STREAMING must be true, and POOL and CACHE null. */
+    private Controller(PrintWriter out, boolean streaming, ErrorLog errors,
+                       ForkJoinPool pool, LayoutCache cache,
+                       int batchSize) {
         _out = out;
-        _pagecollector = new PageCollector(new ArrayList<String>());
-        _textassembler = new LineAssembler(_pagecollector, false);
+        _streaming = streaming;
+        _errors = errors;
+        if (batchSize > 0) {
+            _pipe = new PipeWriter(out, batchSize);
+            _pagecollector = new PagePrinter(new PrintWriter(_pipe),
+                                             new FormatStats());
+        } else if (streaming) {
+            _pipe = null;
+            _pagecollector = new PagePrinter(out, _stats);
+        } else {
+            _pipe = null;
+            _pagecollector = new PageStore(_stats);
+        }
+        if (batchSize > 0) {
+            _textassembler = new PipelinedLineAssembler(_pagecollector,
+                                                        _stats, batchSize);
+        } else if (pool == null) {
+            _textassembler = new LineAssembler(_pagecollector, false);
+        } else {
+            _textassembler = new ParallelLineAssembler(_pagecollector, pool);
+        }
+        _cache = cache;
         _lineassembler = _textassembler;
-        _endnotecollector = new PageCollector(new ArrayList<String>());
-        _endnoteassembler = new LineAssembler(_endnotecollector, true);
+        _endnotes = new SpillList(DEFAULT_ENDNOTE_MEMORY);
+        _endnotecollector = new PageCollector(_endnotes);
+        _endnoteassembler =
+            new LineAssembler(_endnotecollector, true, _stats);
+    }
+
+    /** Keep at most LIMIT bytes of the lines of endnotes in memory
+     *  until close, writing the rest to a temporary file.  Applies to
+     *  lines formatted from now on. */
+    void setEndnoteMemory(long limit) {
+        _endnotes.setLimit(limit);
+    }
+
+    /** Hyphenate words of the main text and endnotes that do not fit at
+     *  the ends of lines with HYPHENATOR, or not at all if HYPHENATOR is
+     *  null.  Must be called before any text is received, and is kept by
+     *  reset. */
+    void setHyphenator(Hyphenator hyphenator) {
+        _textassembler.setHyphenator(hyphenator);
+        _endnoteassembler.setHyphenator(hyphenator);
+    }
+
+    /** Add a Checkpoint to LOG at the first break between paragraphs of
+     *  the main text on each page at least LOG.every() pages after the
+     *  last, or after the start, or add none if LOG is null.  Paragraphs
+     *  of the main text must not be formatted in parallel. */
+    void setCheckpoints(CheckpointLog log) {
+        if (log != null && !_textassembler.ordered()) {
+            throw new IllegalStateException("checkpoints require paragraphs"
+                                            + " to be formatted in order");
+        }
+        _checkpoints = log;
+        if (log != null) {
+            _nextCheckpoint = _pagecollector.page() + log.every();
+        }
+    }
+
+    /** Print only pages FIRST through LAST of the document, and stop at
+     *  the first break between paragraphs after page LAST.  Only for a
+     *  streaming Controller. */
+    void setPageRange(int first, int last) {
+        ((PagePrinter) _pagecollector).setPages(first, last);
+        _lastPage = last;
+    }
+
+    /** Returns the number of pages started so far. */
+    int pages() {
+        return _pagecollector.page();
+    }
+
+    /** Returns true iff the InputParser of the main text should call
+     *  paragraphBreak. */
+    boolean marking() {
+        return _checkpoints != null || _lastPage != Integer.MAX_VALUE;
+    }
+
+    /** Called at each break between paragraphs of the main text, when
+     *  the first OFFSET characters of input, whose hash is HASH, have
+     *  been processed.  Takes a Checkpoint if one is due.  Returns false
+     *  iff no more input is needed. */
+    boolean paragraphBreak(long offset, long hash) {
+        int page = _pagecollector.page();
+        if (page > _lastPage) {
+            return false;
+        }
+        if (_checkpoints != null && page >= _nextCheckpoint
+            && !_endnoteMode) {
+            try {
+                _out.flush();
+                _checkpoints.add(checkpoint(offset, hash));
+            } catch (IOException e) {
+                throw FormatException.error("cannot write checkpoint: %s",
+                                            e.getMessage());
+            }
+            _nextCheckpoint = page + _checkpoints.every();
+        }
+        return true;
+    }
+
+    /** Returns a Checkpoint of my state after the first OFFSET characters
+     *  of input, whose hash is HASH.  Its state holds _refNum,
+     *  _endnoteMode, and the states of the main text and endnote
+     *  assemblers and collectors, in that order. */
+    private Checkpoint checkpoint(long offset, long hash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream state = new DataOutputStream(bytes);
+        state.writeInt(_refNum);
+        state.writeBoolean(_endnoteMode);
+        _textassembler.writeState(state);
+        _endnoteassembler.writeState(state);
+        _pagecollector.writeState(state);
+        _endnotecollector.writeState(state);
+        state.flush();
+        List<String> endnotes =
+            new ArrayList<String>(_endnotes.subList(_endnotesSaved,
+                                                    _endnotes.size()));
+        _endnotesSaved = _endnotes.size();
+        return new Checkpoint(offset, hash, _pagecollector.page(),
+                              _pagecollector.emitted(), bytes.toByteArray(),
+                              endnotes);
+    }
+
+    /** Continue from CHECKPOINT, where ENDNOTES are the lines of endnotes
+     *  before it, as if the input before it had been processed, except
+     *  that none of the output before it is written.  The InputParser of
+     *  the main text must continue from CHECKPOINT as well. */
+    void restore(Checkpoint checkpoint, List<String> endnotes) {
+        try {
+            DataInputStream state = new DataInputStream(
+                new ByteArrayInputStream(checkpoint.state()));
+            _refNum = state.readInt();
+            if (state.readBoolean()) {
+                setEndnoteMode();
+            } else {
+                setNormalMode();
+            }
+            _textassembler.readState(state);
+            _endnoteassembler.readState(state);
+            _pagecollector.readState(state);
+            _endnotecollector.readState(state);
+        } catch (IOException e) {
+            throw FormatException.error("bad checkpoint: %s",
+                                        e.getMessage());
+        }
+        _endnotes.addAll(endnotes);
+        _endnotesSaved = _endnotes.size();
+        if (_checkpoints != null) {
+            _nextCheckpoint = checkpoint.page() + _checkpoints.every();
+        }
     }
 
     /** Add TEXT to the end of the word of formatted text currently
@@ -30,6 +241,13 @@ class Controller {
         _lineassembler.addText(text);
     }
 
+    /** Add the LEN characters starting at BUF[OFF] to the end of the word
+     *  of formatted text currently being accumulated.  BUF is not
+     *  retained, and may be reused once this returns. */
+    void addText(char[] buf, int off, int len) {
+        _lineassembler.addText(buf, off, len);
+    }
+
     /** Finish any current word of text and, if present, add to the
      *  list of words for the next line.  Has no effect if no unfinished
      *  word is being accumulated. */
@@ -49,20 +267,85 @@ class Controller {
         _lineassembler.endParagraph();
     }
 
-    /** If valid, process TEXT into an endnote, first appending a reference
-     *  to it to the line currently being accumulated. */
-    void formatEndnote(String text) {
-        addText(String.format("[%d]", _refNum));
+    /** Returns true iff paragraphs of the main text may be taken from a
+     *  LayoutCache (see cachedParagraph). */
+    boolean caching() {
+        return _cache != null;
+    }
 
-        setEndnoteMode();
-        String ref = String.format("[%d] ", _refNum);
+    /** Returns true iff the main text is at the start of a paragraph
+     *  whose lines may be taken from my LayoutCache. */
+    boolean cacheable() {
+        return !_endnoteMode && _textassembler.cacheable();
+    }
+
+    /** Called where cacheable() is true, when the LEN characters starting
+     *  at BUF[OFF] are the text of the paragraph of the main text
+     *  starting here, which contains only text, blanks, and single ends
+     *  of line.  If its lines with the current settings are in my
+     *  LayoutCache, add them, and return true; the caller then skips the
+     *  text.  Otherwise, return false, and add the lines to the cache
+     *  once the paragraph has been formatted. */
+    boolean cachedParagraph(char[] buf, int off, int len) {
+        _textassembler.getSettings(_settings);
+        LayoutCache.Key key = LayoutCache.key(_settings, buf, off, len);
+        LayoutCache.Entry entry = _cache.get(key);
+        if (entry == null) {
+            _textassembler.cacheParagraph(_cache, key);
+            return false;
+        }
+        _textassembler.addLines(entry);
+        return true;
+    }
+
+    /** If valid, process the LEN characters starting at BUF[OFF] into an
+     *  endnote, first appending a reference to it to the line currently
+     *  being accumulated.  The text is parsed in place; BUF is not
+     *  changed or retained. */
+    void formatEndnote(char[] buf, int off, int len) {
+        EndnoteEvent event = new EndnoteEvent();
+        event.begin();
+        _stats.countEndnote();
+        int refLen = formatRef(_refNum);
+        addText(_ref, 0, refLen);
 
-        InputParser endnoteParser = new InputParser(text, this, ref);
-        endnoteParser.process();
+        setEndnoteMode();
+        _ref[refLen] = ' ';
 
+        if (_endnoteDepth == _endnoteParsers.size()) {
+            _endnoteParsers.add(new InputParser(this));
+        }
+        InputParser endnoteParser = _endnoteParsers.get(_endnoteDepth);
+        _endnoteDepth += 1;
+        endnoteParser.parseEndnote(buf, off, len, _ref, refLen + 1);
+        _endnoteDepth -= 1;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.ref = _refNum;
+            event.length = len;
+            event.commit();
+        }
         _refNum += 1;
     }
 
+    /** Put the reference [N] to endnote N at the start of _ref, and
+     *  return its length. */
+    private int formatRef(int n) {
+        int k = _ref.length - 1;
+        _ref[k] = ']';
+        do {
+            k -= 1;
+            _ref[k] = (char) ('0' + n % 10);
+            n /= 10;
+        } while (n > 0);
+        k -= 1;
+        _ref[k] = '[';
+        int len = _ref.length - k;
+        System.arraycopy(_ref, k, _ref, 0, len);
+        return len;
+    }
+
     /** Set the current text height (number of lines per page) to VAL, if
      *  it is a valid setting.  Ignored when accumulating an endnote. */
     void setTextHeight(int val) {
@@ -70,7 +353,7 @@ class Controller {
             if (!(Integer.class.isInstance(val)) || val <= 0) {
                 throw new FormatException("Value must be a positive integer.");
             }
-            _pagecollector.setTextHeight(val);
+            _textassembler.setTextHeight(val);
         }
     }
 
@@ -117,6 +400,12 @@ class Controller {
         _lineassembler.setFill(on);
     }
 
+    /** Iff ON, begin breaking filled paragraphs into lines so as to
+     *  minimize their total badness; otherwise, break them greedily. */
+    void setOptimalFit(boolean on) {
+        _lineassembler.setOptimalFit(on);
+    }
+
     /** Iff ON, begin justifying lines of formatted text whenever filling is
      *  also on. */
     void setJustify(boolean on) {
@@ -132,17 +421,96 @@ class Controller {
         if (_endnoteMode) {
             setNormalMode();
         } else {
+            FlushEvent event = new FlushEvent();
+            event.begin();
+            _textassembler.flush();
             List<String> endnotes = _endnotecollector.accessPages();
             for (String line : endnotes) {
-                _pagecollector.write(line);
+                _pagecollector.addLine(line);
+            }
+            _pagecollector.finish();
+            if (_pipe != null) {
+                finishPipeline();
             }
-            PagePrinter printer = new
-                PagePrinter(_pagecollector.accessPages(), _out);
+            int lines = endnotes.size();
+            if (!_streaming) {
+                PagePrinter printer = new
+                    PagePrinter(_pagecollector.accessPages(), _out, _stats);
 
-            printer.writeAll();
+                printer.writeAll();
+                lines = _pagecollector.accessPages().size();
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.lines = lines;
+                event.streaming = _streaming;
+                event.commit();
+            }
         }
     }
 
+    /** Called when formatting of the document is abandoned after an
+     *  error.  Writes the lines of the main text completed so far, just
+     *  as if each had been written when it was completed, and nothing
+     *  else. */
+    void abandon() {
+        if (_pipe != null) {
+            _textassembler.flush();
+            finishPipeline();
+        }
+    }
+
+    /** Wait until all lines of the main text so far have been written to
+     *  _out, and add the statistics of their layout and output to mine.
+     *  _textassembler must have been flushed. */
+    private void finishPipeline() {
+        _pipe.drain();
+        _stats.add(_pagecollector.stats());
+        _pagecollector.stats().clear();
+    }
+
+    /** Returns the log of errors in this Controller's document. */
+    ErrorLog errors() {
+        return _errors;
+    }
+
+    /** Returns the statistics of this Controller's document. */
+    FormatStats stats() {
+        return _stats;
+    }
+
+    /** Return to the state of a new Controller, discarding all pending
+     *  text and endnotes, all errors, and all statistics, so as to format
+     *  a new document to the same PrintWriter.  Timing of stages is left
+     *  as it is. */
+    void reset() {
+        _textassembler.reset();
+        if (_pipe != null) {
+            _pipe.reset();
+            _pagecollector.stats().clear();
+        }
+        _pagecollector.reset();
+        _endnotecollector.reset();
+        _endnoteassembler.reset();
+        _errors.clear();
+        _stats.clear();
+        _refNum = 1;
+        _endnoteDepth = 0;
+        _endnotesSaved = 0;
+        if (_checkpoints != null) {
+            _nextCheckpoint = _checkpoints.every();
+        }
+        setNormalMode();
+    }
+
+    /** Give up the resources held between documents that outlive a
+     *  Controller unless released, such as the file to which endnotes
+     *  have spilled.  Called when a Controller is dropped without a
+     *  reset, as after an internal error. */
+    void release() {
+        _endnotes.clear();
+    }
+
     /** Start directing all formatted text to the endnote assembler. */
     private void setEndnoteMode() {
         _endnoteMode = true;
@@ -156,18 +524,66 @@ class Controller {
     }
 
 
+    /** True iff main-text lines go directly to _out as they are
+     *  completed. */
+    private final boolean _streaming;
+
     /** True iff we are currently processing an endnote. */
     private boolean _endnoteMode;
 
     /** Number of next endnote. */
     private int _refNum = 1;
 
+    /** Holds the reference to an endnote, [N], followed by a blank
+     *  when it starts the endnote.  Long enough for any positive int. */
+    private final char[] _ref = new char[14];
+
+    /** Parsers for endnote text, reused from one endnote to the next.
+     *  An endnote nested K deep in others is parsed by the Kth. */
+    private final ArrayList<InputParser> _endnoteParsers =
+        new ArrayList<InputParser>();
+
+    /** The number of endnotes now being parsed. */
+    private int _endnoteDepth;
+
+    /** Paragraphs of the main text formatted before, or null. */
+    private final LayoutCache _cache;
+
+    /** The settings of the main text at the start of a paragraph looked
+     *  up in _cache. */
+    private final int[] _settings = new int[LineAssembler.NUM_SETTINGS];
+
+    /** Where Checkpoints are added, or null. */
+    private CheckpointLog _checkpoints;
+
+    /** The page on which the next Checkpoint is due. */
+    private int _nextCheckpoint;
+
+    /** The number of lines of endnotes in Checkpoints taken so far. */
+    private int _endnotesSaved;
+
+    /** The last page printed. */
+    private int _lastPage = Integer.MAX_VALUE;
+
+    /** Statistics of this Controller's document. */
+    private final FormatStats _stats = new FormatStats();
+
+    /** Errors in this Controller's document. */
+    private final ErrorLog _errors;
+
     /** This Controller's PrintWriter. */
     private PrintWriter _out;
 
+    /** Passes lines of the main text to the thread that writes them to
+     *  _out, or null if they are written by the thread formatting them. */
+    private final PipeWriter _pipe;
+
     /** The list of endnote lines. */
     private PageAssembler _endnotecollector;
 
+    /** The lines of endnotes, held by _endnotecollector. */
+    private final SpillList _endnotes;
+
     /** This controller's pageCollector. */
     private PageAssembler _pagecollector;
 
@@ -0,0 +1,210 @@
+package tex61;
+
+/** The widths of text in the columns of a fixed-width display, where a
+ *  character need not take exactly one column.  Combining marks, format
+ *  characters such as the zero-width joiner, emoji skin-tone modifiers,
+ *  and the vowels and final consonants of conjoining Hangul take none;
+ *  East Asian wide and full-width characters (CJK ideographs, kana,
+ *  Hangul syllables, most emoji) take two; all others take one.  A
+ *  character that follows a zero-width joiner belongs to the same
+ *  grapheme, as in emoji sequences, and takes no columns of its own.
+ *  Widths are those of Unicode 14.0 (East Asian Width and general
+ *  category), with unassigned characters narrow except in the blocks
+ *  reserved for CJK ideographs.
+ *  @author Greg
+ */
+final class DisplayWidth {
+
+    /** Every character below this takes one column. */
+    private static final int NARROW_LIMIT = 0x300;
+
+    /** The zero-width joiner. */
+    private static final int ZWJ = 0x200d;
+
+    /** The ranges of characters of the same width, in increasing order:
+     *  (C << 2) | W means that characters from C up to the start of the
+     *  next range take W columns.  Characters before the first range
+     *  take one. */
+    private static final int[] RANGES = {
+        0xc00, 0xdc1, 0x120c, 0x1229, 0x1644, 0x16f9, 0x16fc, 0x1701, 0x1704,
+        0x170d, 0x1710, 0x1719, 0x171c, 0x1721, 0x1800, 0x1819, 0x1840,
+        0x186d, 0x1870, 0x1875, 0x192c, 0x1981, 0x19c0, 0x19c5, 0x1b58,
+        0x1b79, 0x1b7c, 0x1b95, 0x1b9c, 0x1ba5, 0x1ba8, 0x1bb9, 0x1c3c,
+        0x1c41, 0x1c44, 0x1c49, 0x1cc0, 0x1d2d, 0x1e98, 0x1ec5, 0x1fac,
+        0x1fd1, 0x1ff4, 0x1ff9, 0x2058, 0x2069, 0x206c, 0x2091, 0x2094,
+        0x20a1, 0x20a4, 0x20b9, 0x2164, 0x2171, 0x2240, 0x2249, 0x2260,
+        0x2281, 0x2328, 0x240d, 0x24e8, 0x24ed, 0x24f0, 0x24f5, 0x2504,
+        0x2525, 0x2534, 0x2539, 0x2544, 0x2561, 0x2588, 0x2591, 0x2604,
+        0x2609, 0x26f0, 0x26f5, 0x2704, 0x2715, 0x2734, 0x2739, 0x2788,
+        0x2791, 0x27f8, 0x27fd, 0x2804, 0x280d, 0x28f0, 0x28f5, 0x2904,
+        0x290d, 0x291c, 0x2925, 0x292c, 0x2939, 0x2944, 0x2949, 0x29c0,
+        0x29c9, 0x29d4, 0x29d9, 0x2a04, 0x2a0d, 0x2af0, 0x2af5, 0x2b04,
+        0x2b19, 0x2b1c, 0x2b25, 0x2b34, 0x2b39, 0x2b88, 0x2b91, 0x2be8,
+        0x2c01, 0x2c04, 0x2c09, 0x2cf0, 0x2cf5, 0x2cfc, 0x2d01, 0x2d04,
+        0x2d15, 0x2d34, 0x2d39, 0x2d54, 0x2d5d, 0x2d88, 0x2d91, 0x2e08,
+        0x2e0d, 0x2f00, 0x2f05, 0x2f34, 0x2f39, 0x3000, 0x3005, 0x3010,
+        0x3015, 0x30f0, 0x30f5, 0x30f8, 0x3105, 0x3118, 0x3125, 0x3128,
+        0x3139, 0x3154, 0x315d, 0x3188, 0x3191, 0x3204, 0x3209, 0x32f0,
+        0x32f5, 0x32fc, 0x3301, 0x3318, 0x331d, 0x3330, 0x3339, 0x3388,
+        0x3391, 0x3400, 0x3409, 0x34ec, 0x34f5, 0x3504, 0x3515, 0x3534,
+        0x3539, 0x3588, 0x3591, 0x3604, 0x3609, 0x3728, 0x372d, 0x3748,
+        0x3755, 0x3758, 0x375d, 0x38c4, 0x38c9, 0x38d0, 0x38ed, 0x391c,
+        0x393d, 0x3ac4, 0x3ac9, 0x3ad0, 0x3af5, 0x3b20, 0x3b39, 0x3c60,
+        0x3c69, 0x3cd4, 0x3cd9, 0x3cdc, 0x3ce1, 0x3ce4, 0x3ce9, 0x3dc4,
+        0x3dfd, 0x3e00, 0x3e15, 0x3e18, 0x3e21, 0x3e34, 0x3e61, 0x3e64,
+        0x3ef5, 0x3f18, 0x3f1d, 0x40b4, 0x40c5, 0x40c8, 0x40e1, 0x40e4,
+        0x40ed, 0x40f4, 0x40fd, 0x4160, 0x4169, 0x4178, 0x4185, 0x41c4,
+        0x41d5, 0x4208, 0x420d, 0x4214, 0x421d, 0x4234, 0x4239, 0x4274,
+        0x4279, 0x4402, 0x4580, 0x4801, 0x4d74, 0x4d81, 0x5c48, 0x5c55,
+        0x5cc8, 0x5cd1, 0x5d48, 0x5d51, 0x5dc8, 0x5dd1, 0x5ed0, 0x5ed9,
+        0x5edc, 0x5ef9, 0x5f18, 0x5f1d, 0x5f24, 0x5f51, 0x5f74, 0x5f79,
+        0x602c, 0x6041, 0x6214, 0x621d, 0x62a4, 0x62a9, 0x6480, 0x648d,
+        0x649c, 0x64a5, 0x64c8, 0x64cd, 0x64e4, 0x64f1, 0x685c, 0x6865,
+        0x686c, 0x6871, 0x6958, 0x695d, 0x6960, 0x697d, 0x6980, 0x6985,
+        0x6988, 0x698d, 0x6994, 0x69b5, 0x69cc, 0x69f5, 0x69fc, 0x6a01,
+        0x6ac0, 0x6b3d, 0x6c00, 0x6c11, 0x6cd0, 0x6cd5, 0x6cd8, 0x6ced,
+        0x6cf0, 0x6cf5, 0x6d08, 0x6d0d, 0x6dac, 0x6dd1, 0x6e00, 0x6e09,
+        0x6e88, 0x6e99, 0x6ea0, 0x6ea9, 0x6eac, 0x6eb9, 0x6f98, 0x6f9d,
+        0x6fa0, 0x6fa9, 0x6fb4, 0x6fb9, 0x6fbc, 0x6fc9, 0x70b0, 0x70d1,
+        0x70d8, 0x70e1, 0x7340, 0x734d, 0x7350, 0x7385, 0x7388, 0x73a5,
+        0x73b4, 0x73b9, 0x73d0, 0x73d5, 0x73e0, 0x73e9, 0x7700, 0x7801,
+        0x802c, 0x8041, 0x80a8, 0x80bd, 0x8180, 0x8195, 0x8198, 0x81c1,
+        0x8340, 0x83c5, 0x8c6a, 0x8c71, 0x8ca6, 0x8cad, 0x8fa6, 0x8fb5,
+        0x8fc2, 0x8fc5, 0x8fce, 0x8fd1, 0x97f6, 0x97fd, 0x9852, 0x9859,
+        0x9922, 0x9951, 0x99fe, 0x9a01, 0x9a4e, 0x9a51, 0x9a86, 0x9a89,
+        0x9aaa, 0x9ab1, 0x9af6, 0x9afd, 0x9b12, 0x9b19, 0x9b3a, 0x9b3d,
+        0x9b52, 0x9b55, 0x9baa, 0x9bad, 0x9bca, 0x9bd1, 0x9bd6, 0x9bd9,
+        0x9bea, 0x9bed, 0x9bf6, 0x9bf9, 0x9c16, 0x9c19, 0x9c2a, 0x9c31,
+        0x9ca2, 0x9ca5, 0x9d32, 0x9d35, 0x9d3a, 0x9d3d, 0x9d4e, 0x9d59,
+        0x9d5e, 0x9d61, 0x9e56, 0x9e61, 0x9ec2, 0x9ec5, 0x9efe, 0x9f01,
+        0xac6e, 0xac75, 0xad42, 0xad45, 0xad56, 0xad59, 0xb3bc, 0xb3c9,
+        0xb5fc, 0xb601, 0xb780, 0xb801, 0xba02, 0xba69, 0xba6e, 0xbbd1,
+        0xbc02, 0xbf59, 0xbfc2, 0xbff1, 0xc002, 0xc0a8, 0xc0ba, 0xc0fd,
+        0xc106, 0xc25d, 0xc264, 0xc26e, 0xc401, 0xc416, 0xc4c1, 0xc4c6,
+        0xc63d, 0xc642, 0xc791, 0xc7c2, 0xc87d, 0xc882, 0xc921, 0xc942,
+        0x13701, 0x13802, 0x29235, 0x29242, 0x2931d, 0x299bc, 0x299cd,
+        0x299d0, 0x299f9, 0x29a78, 0x29a81, 0x29bc0, 0x29bc9, 0x2a008,
+        0x2a00d, 0x2a018, 0x2a01d, 0x2a02c, 0x2a031, 0x2a094, 0x2a09d,
+        0x2a0b0, 0x2a0b5, 0x2a310, 0x2a319, 0x2a380, 0x2a3c9, 0x2a3fc,
+        0x2a401, 0x2a498, 0x2a4b9, 0x2a51c, 0x2a549, 0x2a582, 0x2a5f5,
+        0x2a600, 0x2a60d, 0x2a6cc, 0x2a6d1, 0x2a6d8, 0x2a6e9, 0x2a6f0,
+        0x2a6f9, 0x2a794, 0x2a799, 0x2a8a4, 0x2a8bd, 0x2a8c4, 0x2a8cd,
+        0x2a8d4, 0x2a8dd, 0x2a90c, 0x2a911, 0x2a930, 0x2a935, 0x2a9f0,
+        0x2a9f5, 0x2aac0, 0x2aac5, 0x2aac8, 0x2aad5, 0x2aadc, 0x2aae5,
+        0x2aaf8, 0x2ab01, 0x2ab04, 0x2ab09, 0x2abb0, 0x2abb9, 0x2abd8,
+        0x2abdd, 0x2af94, 0x2af99, 0x2afa0, 0x2afa5, 0x2afb4, 0x2afb9,
+        0x2b002, 0x35e91, 0x35ec0, 0x35f1d, 0x35f2c, 0x35ff1, 0x3e402,
+        0x3ec01, 0x3ec78, 0x3ec7d, 0x3f800, 0x3f842, 0x3f869, 0x3f880,
+        0x3f8c2, 0x3f94d, 0x3f952, 0x3f99d, 0x3f9a2, 0x3f9b1, 0x3fbfc,
+        0x3fc01, 0x3fc06, 0x3fd85, 0x3ff82, 0x3ff9d, 0x3ffe4, 0x3fff1,
+        0x407f4, 0x407f9, 0x40b80, 0x40b85, 0x40dd8, 0x40ded, 0x42804,
+        0x42811, 0x42814, 0x4281d, 0x42830, 0x42841, 0x428e0, 0x428ed,
+        0x428fc, 0x42901, 0x42b94, 0x42b9d, 0x43490, 0x434a1, 0x43aac,
+        0x43ab5, 0x43d18, 0x43d45, 0x43e08, 0x43e19, 0x44004, 0x44009,
+        0x440e0, 0x4411d, 0x441c0, 0x441c5, 0x441cc, 0x441d5, 0x441fc,
+        0x44209, 0x442cc, 0x442dd, 0x442e4, 0x442ed, 0x442f4, 0x442f9,
+        0x44308, 0x4430d, 0x44334, 0x44339, 0x44400, 0x4440d, 0x4449c,
+        0x444b1, 0x444b4, 0x444d5, 0x445cc, 0x445d1, 0x44600, 0x44609,
+        0x446d8, 0x446fd, 0x44724, 0x44735, 0x4473c, 0x44741, 0x448bc,
+        0x448c9, 0x448d0, 0x448d5, 0x448d8, 0x448e1, 0x448f8, 0x448fd,
+        0x44b7c, 0x44b81, 0x44b8c, 0x44bad, 0x44c00, 0x44c09, 0x44cec,
+        0x44cf5, 0x44d00, 0x44d05, 0x44d98, 0x44db5, 0x44dc0, 0x44dd5,
+        0x450e0, 0x45101, 0x45108, 0x45115, 0x45118, 0x4511d, 0x45178,
+        0x4517d, 0x452cc, 0x452e5, 0x452e8, 0x452ed, 0x452fc, 0x45305,
+        0x45308, 0x45311, 0x456c8, 0x456d9, 0x456f0, 0x456f9, 0x456fc,
+        0x45705, 0x45770, 0x45779, 0x458cc, 0x458ed, 0x458f4, 0x458f9,
+        0x458fc, 0x45905, 0x45aac, 0x45ab1, 0x45ab4, 0x45ab9, 0x45ac0,
+        0x45ad9, 0x45adc, 0x45ae1, 0x45c74, 0x45c81, 0x45c88, 0x45c99,
+        0x45c9c, 0x45cb1, 0x460bc, 0x460e1, 0x460e4, 0x460ed, 0x464ec,
+        0x464f5, 0x464f8, 0x464fd, 0x4650c, 0x46511, 0x46750, 0x46761,
+        0x46768, 0x46771, 0x46780, 0x46785, 0x46804, 0x4682d, 0x468cc,
+        0x468e5, 0x468ec, 0x468fd, 0x4691c, 0x46921, 0x46944, 0x4695d,
+        0x46964, 0x46971, 0x46a28, 0x46a5d, 0x46a60, 0x46a69, 0x470c0,
+        0x470dd, 0x470e0, 0x470f9, 0x470fc, 0x47101, 0x47248, 0x472a1,
+        0x472a8, 0x472c5, 0x472c8, 0x472d1, 0x472d4, 0x472dd, 0x474c4,
+        0x474dd, 0x474e8, 0x474ed, 0x474f0, 0x474f9, 0x474fc, 0x47519,
+        0x4751c, 0x47521, 0x47640, 0x47649, 0x47654, 0x47659, 0x4765c,
+        0x47661, 0x47bcc, 0x47bd5, 0x4d0c0, 0x4d0e5, 0x5abc0, 0x5abd5,
+        0x5acc0, 0x5acdd, 0x5bd3c, 0x5bd41, 0x5be3c, 0x5be4d, 0x5bf82,
+        0x5bf90, 0x5bf95, 0x5bfc2, 0x5bfc9, 0x5c002, 0x61fe1, 0x62002,
+        0x63359, 0x63402, 0x63425, 0x6bfc2, 0x6bfd1, 0x6bfd6, 0x6bff1,
+        0x6bff6, 0x6bffd, 0x6c002, 0x6c48d, 0x6c542, 0x6c54d, 0x6c592,
+        0x6c5a1, 0x6c5c2, 0x6cbf1, 0x6f274, 0x6f27d, 0x6f280, 0x6f291,
+        0x73c00, 0x73cb9, 0x73cc0, 0x73d1d, 0x7459c, 0x745a9, 0x745cc,
+        0x7460d, 0x74614, 0x74631, 0x746a8, 0x746b9, 0x74908, 0x74915,
+        0x76800, 0x768dd, 0x768ec, 0x769b5, 0x769d4, 0x769d9, 0x76a10,
+        0x76a15, 0x76a6c, 0x76a81, 0x76a84, 0x76ac1, 0x78000, 0x7801d,
+        0x78020, 0x78065, 0x7806c, 0x78089, 0x7808c, 0x78095, 0x78098,
+        0x780ad, 0x784c0, 0x784dd, 0x78ab8, 0x78abd, 0x78bb0, 0x78bc1,
+        0x7a340, 0x7a35d, 0x7a510, 0x7a52d, 0x7c012, 0x7c015, 0x7c33e,
+        0x7c341, 0x7c63a, 0x7c63d, 0x7c646, 0x7c66d, 0x7c802, 0x7c80d,
+        0x7c842, 0x7c8f1, 0x7c902, 0x7c925, 0x7c942, 0x7c949, 0x7c982,
+        0x7c999, 0x7cc02, 0x7cc85, 0x7ccb6, 0x7ccd9, 0x7ccde, 0x7cdf5,
+        0x7cdfa, 0x7ce51, 0x7ce82, 0x7cf2d, 0x7cf3e, 0x7cf51, 0x7cf82,
+        0x7cfc5, 0x7cfd2, 0x7cfd5, 0x7cfe2, 0x7cfec, 0x7d002, 0x7d0fd,
+        0x7d102, 0x7d105, 0x7d10a, 0x7d3f5, 0x7d3fe, 0x7d4f9, 0x7d52e,
+        0x7d53d, 0x7d542, 0x7d5a1, 0x7d5ea, 0x7d5ed, 0x7d656, 0x7d65d,
+        0x7d692, 0x7d695, 0x7d7ee, 0x7d941, 0x7da02, 0x7db19, 0x7db32,
+        0x7db35, 0x7db42, 0x7db4d, 0x7db56, 0x7db61, 0x7db76, 0x7db81,
+        0x7dbae, 0x7dbb5, 0x7dbd2, 0x7dbf5, 0x7df82, 0x7dfb1, 0x7dfc2,
+        0x7dfc5, 0x7e432, 0x7e4ed, 0x7e4f2, 0x7e519, 0x7e51e, 0x7e801,
+        0x7e9c2, 0x7e9d5, 0x7e9e2, 0x7e9f5, 0x7ea02, 0x7ea1d, 0x7ea42,
+        0x7eab5, 0x7eac2, 0x7eaed, 0x7eb02, 0x7eb19, 0x7eb42, 0x7eb69,
+        0x7eb82, 0x7eba1, 0x7ebc2, 0x7ebdd, 0x80002, 0xbfff9, 0xc0002,
+        0xffff9, 0x380004, 0x380009, 0x380080, 0x380201, 0x380400, 0x3807c1
+    };
+
+    /** Not instantiable. */
+    private DisplayWidth() {
+    }
+
+    /** Returns the number of columns taken by the LEN characters starting
+     *  at BUF[OFF].  Text with no character at or above NARROW_LIMIT, such
+     *  as ASCII, is measured without looking anything up, and without a
+     *  test per character. */
+    static int width(char[] buf, int off, int len) {
+        int bits = 0;
+        for (int i = off, end = off + len; i < end; i += 1) {
+            bits |= buf[i];
+        }
+        if (bits < NARROW_LIMIT) {
+            return len;
+        }
+        int width = 0;
+        boolean joined = false;
+        for (int i = off, end = off + len; i < end; ) {
+            int c = Character.codePointAt(buf, i, end);
+            i += Character.charCount(c);
+            if (!joined) {
+                width += width(c);
+            }
+            joined = c == ZWJ;
+        }
+        return width;
+    }
+
+    /** Returns the number of columns taken by TEXT. */
+    static int width(String text) {
+        return width(text.toCharArray(), 0, text.length());
+    }
+
+    /** Returns the number of columns taken by the character C (a code
+     *  point) on its own. */
+    static int width(int c) {
+        if (c < NARROW_LIMIT) {
+            return 1;
+        }
+        int key = (c << 2) | 3;
+        int lo = 0, hi = RANGES.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (RANGES[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo == 0 ? 1 : RANGES[lo - 1] & 3;
+    }
+
+}
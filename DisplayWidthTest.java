@@ -0,0 +1,91 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of DisplayWidth and of line breaking by display width.
+ *  @author Greg
+ */
+public class DisplayWidthTest {
+
+    @Test
+    public void testCharacters() {
+        assertEquals(1, DisplayWidth.width('a'));
+        assertEquals(1, DisplayWidth.width(0xe9));
+        assertEquals(0, DisplayWidth.width(0x301));
+        assertEquals(0, DisplayWidth.width(0x200b));
+        assertEquals(2, DisplayWidth.width(0x4e2d));
+        assertEquals(2, DisplayWidth.width(0xac00));
+        assertEquals(0, DisplayWidth.width(0x1161));
+        assertEquals(2, DisplayWidth.width(0xff21));
+        assertEquals(1, DisplayWidth.width(0xff61));
+        assertEquals(2, DisplayWidth.width(0x1f600));
+        assertEquals(2, DisplayWidth.width(0x20000));
+        assertEquals(1, DisplayWidth.width(0x378));
+        assertEquals(1, DisplayWidth.width(0x10ffff));
+    }
+
+    @Test
+    public void testText() {
+        assertEquals(0, DisplayWidth.width(""));
+        assertEquals(5, DisplayWidth.width("plain"));
+        assertEquals(4, DisplayWidth.width("caf\u00e9"));
+        assertEquals(4, DisplayWidth.width("cafe\u0301"));
+        assertEquals(4, DisplayWidth.width("\u4e2d\u6587"));
+        assertEquals(2, DisplayWidth.width("\ud83d\ude00"));
+        assertEquals(2,
+                     DisplayWidth.width("\ud83d\udc69\u200d\ud83d\udc67"));
+        assertEquals(2, DisplayWidth.width("\u1112\u1161\u11ab"));
+        assertEquals(3, DisplayWidth.width("\u0180\u0200\u0101"));
+        assertEquals(3, DisplayWidth.width("a\ud800b"));
+    }
+
+    /** Returns the lines into which the words of TEXT are filled and
+     *  justified at width WIDTH, with no indentation. */
+    private List<String> layout(String text, int width) {
+        List<String> lines = new ArrayList<String>();
+        LineAssembler assembler =
+            new LineAssembler(new PageCollector(lines), false);
+        assembler.setTextWidth(width);
+        assembler.setIndentation(0);
+        assembler.setParIndentation(0);
+        for (String word : text.split(" ")) {
+            assembler.addWord(word);
+        }
+        assembler.endParagraph();
+        return lines;
+    }
+
+    @Test
+    public void testLayout() {
+        String wide = "\u4e2d\u6587";
+        assertEquals(Arrays.asList(wide + "   " + wide, wide + " " + wide),
+                     layout(wide + " " + wide + " " + wide + " " + wide,
+                            11));
+        String marked = "e\u0301te\u0301";
+        assertEquals(Arrays.asList(marked + "  " + marked, marked),
+                     layout(marked + " " + marked + " " + marked, 8));
+    }
+
+    @Test
+    public void testOptimalFit() {
+        List<String> lines = new ArrayList<String>();
+        LineAssembler assembler =
+            new LineAssembler(new PageCollector(lines), false);
+        assembler.setTextWidth(9);
+        assembler.setIndentation(0);
+        assembler.setParIndentation(0);
+        assembler.setOptimalFit(true);
+        for (String word : "\u4e2d\u6587 ab \u4e2d cd".split(" ")) {
+            assembler.addWord(word);
+        }
+        assembler.endParagraph();
+        assertEquals(Arrays.asList("\u4e2d\u6587   ab", "\u4e2d cd"),
+                     lines);
+    }
+
+}
@@ -0,0 +1,29 @@
+package tex61;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JDK Flight Recorder event for the formatting of one endnote by
+ *  Controller.formatEndnote.
+ *  @author Greg
+ */
+@Name("tex61.Endnote")
+@Label("Endnote")
+@Category({ "tex61", "Formatting" })
+@Description("An endnote parsed and formatted by a Controller")
+@StackTrace(false)
+final class EndnoteEvent extends Event {
+
+    /** Number of the endnote. */
+    @Label("Reference Number")
+    int ref;
+
+    /** Length of the endnote's text, in characters. */
+    @Label("Argument Length")
+    int length;
+
+}
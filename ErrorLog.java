@@ -0,0 +1,77 @@
+package tex61;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/** A record of the errors reported while formatting one document.  Each
+ *  document has its own ErrorLog, so that documents may be formatted
+ *  concurrently.
+ *  @author Greg
+ */
+class ErrorLog {
+
+    /** A new, empty ErrorLog that also prints each message to ECHO, if it
+     *  is not null, preceded by PREFIX. */
+    ErrorLog(PrintStream echo, String prefix) {
+        _echo = echo;
+        _prefix = prefix;
+    }
+
+    /** A new, empty ErrorLog that also prints each message to ECHO, if it
+     *  is not null. */
+    ErrorLog(PrintStream echo) {
+        this(echo, "");
+    }
+
+    /** Record an error message formed from FORMAT and ARGS, whose meaning
+     *  is as for printf. */
+    void report(String format, Object... args) {
+        String msg = String.format(format, args);
+        _messages.add(msg);
+        if (_echo != null) {
+            _echo.println(_prefix + msg);
+        }
+    }
+
+    /** Record MSG as an error after which formatting of the document
+     *  was abandoned. */
+    void fail(String msg) {
+        report("%s", msg);
+        _failed = true;
+    }
+
+    /** Discard all errors reported so far. */
+    void clear() {
+        _messages.clear();
+        _failed = false;
+    }
+
+    /** Returns the number of errors reported. */
+    int count() {
+        return _messages.size();
+    }
+
+    /** Returns true iff formatting was abandoned because of an error. */
+    boolean failed() {
+        return _failed;
+    }
+
+    /** Returns the messages reported, in order. */
+    List<String> messages() {
+        return _messages;
+    }
+
+    /** Where messages are printed, or null. */
+    private final PrintStream _echo;
+
+    /** Text preceding each printed message. */
+    private final String _prefix;
+
+    /** The messages reported so far. */
+    private final List<String> _messages = new ArrayList<String>();
+
+    /** True iff a fatal error has been reported. */
+    private boolean _failed;
+
+}
@@ -0,0 +1,30 @@
+package tex61;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JDK Flight Recorder event for the writing of a document's pending
+ *  output when the document ends: the main text held until then (unless
+ *  streaming) and the endnotes.
+ *  @author Greg
+ */
+@Name("tex61.OutputFlush")
+@Label("Output Flush")
+@Category({ "tex61", "Output" })
+@Description("The pending output of a document written at its end")
+@StackTrace(false)
+final class FlushEvent extends Event {
+
+    /** Number of lines written. */
+    @Label("Lines")
+    int lines;
+
+    /** True iff the main text had already been written. */
+    @Label("Streaming")
+    boolean streaming;
+
+}
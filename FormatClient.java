@@ -0,0 +1,134 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A connection to a FormatServer, over which any number of documents
+ *  may be formatted, one at a time.
+ *  @author Greg
+ */
+class FormatClient {
+
+    /** A new FormatClient connected to the FormatServer at ADDRESS. */
+    FormatClient(SocketAddress address) throws IOException {
+        _server = SocketChannel.open(address);
+        if (address instanceof InetSocketAddress) {
+            _server.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        }
+    }
+
+    /** Have the server format TEXT, writing the output to OUTPUT, which
+     *  is flushed but not closed, and return its reply. */
+    Reply format(String text, Writer output) throws IOException {
+        byte[] utf8 = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer request = ByteBuffer.allocate(4 + utf8.length);
+        request.putInt(utf8.length).put(utf8).flip();
+        while (request.hasRemaining()) {
+            _server.write(request);
+        }
+
+        for (int len = readInt(); len > 0; len = readInt()) {
+            if (_frame.length < len) {
+                _frame = new byte[len];
+            }
+            read(ByteBuffer.wrap(_frame, 0, len));
+            output.write(new String(_frame, 0, len, StandardCharsets.UTF_8));
+        }
+        output.flush();
+
+        ByteBuffer trailer = ByteBuffer.allocate(4 + 8 + 8 + 4);
+        read(trailer);
+        trailer.flip();
+        int status = trailer.getInt();
+        long waited = trailer.getLong();
+        long nanos = trailer.getLong();
+        List<String> errors = new ArrayList<String>();
+        for (int n = trailer.getInt(); n > 0; n -= 1) {
+            byte[] msg = new byte[readInt()];
+            read(ByteBuffer.wrap(msg));
+            errors.add(new String(msg, StandardCharsets.UTF_8));
+        }
+        return new Reply(status, waited, nanos, errors);
+    }
+
+    /** Close the connection. */
+    void close() throws IOException {
+        _server.close();
+    }
+
+    /** Returns the next four bytes from the server, as an int. */
+    private int readInt() throws IOException {
+        _int.clear();
+        read(_int);
+        return _int.getInt(0);
+    }
+
+    /** Fill BUF from the server. */
+    private void read(ByteBuffer buf) throws IOException {
+        if (!FormatServer.readFully(_server, buf)) {
+            throw new IOException("connection closed by server");
+        }
+    }
+
+    /** A FormatServer's reply to a request. */
+    static class Reply {
+
+        /** A reply with STATUS, having waited WAITED and been formatted
+         *  in NANOS nanoseconds, with error messages ERRORS. */
+        Reply(int status, long waited, long nanos, List<String> errors) {
+            _status = status;
+            _waited = waited;
+            _nanos = nanos;
+            _errors = Collections.unmodifiableList(errors);
+        }
+
+        /** Returns the status: FormatServer.OK, ERRORS, FAILED, or
+         *  BUSY. */
+        int status() {
+            return _status;
+        }
+
+        /** Returns the nanoseconds the request waited to be started. */
+        long waited() {
+            return _waited;
+        }
+
+        /** Returns the nanoseconds taken to format the document. */
+        long nanos() {
+            return _nanos;
+        }
+
+        /** Returns the error messages, in order. */
+        List<String> errors() {
+            return _errors;
+        }
+
+        /** The status. */
+        private final int _status;
+        /** Time waiting. */
+        private final long _waited;
+        /** Time formatting. */
+        private final long _nanos;
+        /** Error messages. */
+        private final List<String> _errors;
+    }
+
+    /** The connection to the server. */
+    private final SocketChannel _server;
+
+    /** Holds each frame of output. */
+    private byte[] _frame = new byte[FormatServer.FRAME_SIZE];
+
+    /** Holds a number read from the server. */
+    private final ByteBuffer _int = ByteBuffer.allocate(4);
+
+}
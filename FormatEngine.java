@@ -0,0 +1,239 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+
+/** A text formatter for use within other programs.  Each call to format
+ *  formats one complete document, whose errors are returned in a
+ *  FormatResult rather than printed.  A FormatEngine may be used by any
+ *  number of threads at once.  It keeps a pool of formatters (each a
+ *  Controller with its assemblers and an InputParser), which are reset
+ *  and reused from one document to the next.
+ *  @author Greg
+ */
+public class FormatEngine {
+
+    /** A new FormatEngine that holds each document's output until it is
+     *  complete. */
+    public FormatEngine() {
+        this(false);
+    }
+
+    /** A new FormatEngine.  Iff STREAMING, lines of the main text of each
+     *  document are written as soon as they are formatted.  Otherwise,
+     *  nothing is written until the document is complete. */
+    public FormatEngine(boolean streaming) {
+        this(streaming, null);
+    }
+
+    /** A new FormatEngine, streaming iff STREAMING, as above.  If POOL is
+     *  not null, the paragraphs of each document are broken into lines in
+     *  parallel on POOL, with the same results. */
+    public FormatEngine(boolean streaming, ForkJoinPool pool) {
+        this(streaming, pool, null);
+    }
+
+    /** A new FormatEngine, streaming iff STREAMING and laying out
+     *  paragraphs on POOL if it is not null, as above.  If CACHE is not
+     *  null, paragraphs found there are not formatted again, and those
+     *  not found are added to it. */
+    public FormatEngine(boolean streaming, ForkJoinPool pool,
+                        LayoutCache cache) {
+        _streaming = streaming;
+        _pool = pool;
+        _cache = cache;
+    }
+
+    /** Iff ON, time each stage of formatting in the statistics of
+     *  documents formatted from now on.  Counts, and the total time of
+     *  each document, are always kept. */
+    public void setTimed(boolean on) {
+        _timed = on;
+    }
+
+    /** Keep at most LIMIT bytes of the lines of endnotes of each
+     *  document formatted from now on in memory, writing the rest to a
+     *  temporary file until the document is complete. */
+    public void setEndnoteMemory(long limit) {
+        _endnoteMemory = limit;
+    }
+
+    /** Hyphenate the words of documents formatted from now on that do not
+     *  fit at the ends of lines with HYPHENATOR, or not at all if
+     *  HYPHENATOR is null. */
+    public void setHyphenator(Hyphenator hyphenator) {
+        _hyphenator = hyphenator;
+    }
+
+    /** Returns the sum of the statistics of all documents formatted so
+     *  far. */
+    public FormatStats stats() {
+        synchronized (_total) {
+            return new FormatStats(_total);
+        }
+    }
+
+    /** Format the document read from INPUT, writing the result to
+     *  OUTPUT, which is flushed but not closed.  INPUT is not closed. */
+    public FormatResult format(Reader input, Writer output) {
+        Session session = acquire();
+        session.parser.reset(input);
+        return session.run(output);
+    }
+
+    /** Format the document TEXT, writing the result to OUTPUT, which is
+     *  flushed but not closed. */
+    public FormatResult format(CharSequence text, Writer output) {
+        Session session = acquire();
+        session.parser.reset(text);
+        return session.run(output);
+    }
+
+    /** Returns an idle Session, creating one if necessary. */
+    private Session acquire() {
+        Session session = _idle.poll();
+        if (session == null) {
+            session = new Session();
+        }
+        return session;
+    }
+
+    /** The objects used to format one document at a time. */
+    private class Session {
+
+        /** A new Session writing to a retargetable output. */
+        Session() {
+            sink = new Sink();
+            out = new PrintWriter(sink);
+            errors = new ErrorLog(null);
+            controller = new Controller(out, _streaming, errors, _pool,
+                                        _cache);
+            parser = new InputParser((Reader) null, controller);
+        }
+
+        /** Format the input given to .parser, sending output to OUTPUT,
+         *  and return this Session to the idle pool. */
+        FormatResult run(Writer output) {
+            sink.target = output;
+            sink.error = null;
+            boolean reusable = false;
+            try {
+                controller.reset();
+                controller.stats().setTimed(_timed);
+                controller.setEndnoteMemory(_endnoteMemory);
+                controller.setHyphenator(_hyphenator);
+                parser.process();
+                out.flush();
+                if (sink.error != null) {
+                    errors.fail(sink.error.getMessage());
+                }
+                reusable = true;
+            } catch (RuntimeException e) {
+                errors.fail("internal error: " + e);
+            } finally {
+                sink.target = null;
+                parser.reset((Reader) null);
+            }
+            FormatStats stats = new FormatStats(controller.stats());
+            synchronized (_total) {
+                _total.add(stats);
+            }
+            FormatResult result = new FormatResult(errors, stats);
+            if (reusable) {
+                _idle.offer(this);
+            } else {
+                controller.release();
+            }
+            return result;
+        }
+
+        /** Where .out writes. */
+        private final Sink sink;
+        /** Destination of formatted text. */
+        private final PrintWriter out;
+        /** Errors in the current document. */
+        private final ErrorLog errors;
+        /** Formats the current document. */
+        private final Controller controller;
+        /** Tokenizes the current document. */
+        private final InputParser parser;
+    }
+
+    /** A Writer that forwards to another, which may be changed, and
+     *  records the first error. */
+    private static class Sink extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            if (error == null) {
+                try {
+                    target.write(cbuf, off, len);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) {
+            if (error == null) {
+                try {
+                    target.write(str, off, len);
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (error == null) {
+                try {
+                    target.flush();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+
+        /** Where output goes. */
+        private Writer target;
+        /** The first error writing to TARGET, or null. */
+        private IOException error;
+    }
+
+    /** True iff the main text is written as it is formatted. */
+    private final boolean _streaming;
+
+    /** Where paragraphs are laid out in parallel, or null. */
+    private final ForkJoinPool _pool;
+
+    /** Formatted paragraphs, or null. */
+    private final LayoutCache _cache;
+
+    /** True iff stages are timed. */
+    private volatile boolean _timed;
+
+    /** The most characters of endnote lines kept in memory. */
+    private volatile long _endnoteMemory = Controller.DEFAULT_ENDNOTE_MEMORY;
+
+    /** Hyphenates words, or null. */
+    private volatile Hyphenator _hyphenator;
+
+    /** The statistics of all documents formatted. */
+    private final FormatStats _total = new FormatStats();
+
+    /** Sessions not currently in use. */
+    private final ConcurrentLinkedQueue<Session> _idle =
+        new ConcurrentLinkedQueue<Session>();
+
+}
@@ -0,0 +1,161 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of FormatEngines.
+ *  @author Greg
+ */
+public class FormatEngineTest {
+
+    private static final String DOC =
+        "\\textwidth{20}\\parindent{0}\\nojustify\n"
+        + "Some text\\endnote{A note.} and more.\n\nNext.\n";
+
+    private static final String EXPECTED =
+        "Some text[1] and\nmore.\n\nNext.\n[1] A note.\n";
+
+    @Test
+    public void testFormat() {
+        FormatEngine engine = new FormatEngine();
+        StringWriter out = new StringWriter();
+        FormatResult result = engine.format(DOC, out);
+        assertTrue(result.succeeded());
+        assertEquals(EXPECTED, out.toString());
+    }
+
+    @Test
+    public void testReuse() {
+        FormatEngine engine = new FormatEngine();
+        StringWriter out = new StringWriter();
+        FormatResult result = engine.format("\\textwidth{8}\\bogus x\n", out);
+        assertFalse(result.failed());
+        assertEquals(1, result.errorCount());
+        assertEquals("unknown command: bogus", result.errors().get(0));
+
+        out = new StringWriter();
+        result = engine.format(new StringReader(DOC), out);
+        assertTrue(result.succeeded());
+        assertEquals(EXPECTED, out.toString());
+    }
+
+    @Test
+    public void testFailure() {
+        FormatEngine engine = new FormatEngine();
+        StringWriter out = new StringWriter();
+        FormatResult result = engine.format("Text }\n", out);
+        assertTrue(result.failed());
+        assertEquals(1, result.errorCount());
+        assertEquals("", out.toString());
+
+        out = new StringWriter();
+        result = engine.format(DOC, out);
+        assertTrue(result.succeeded());
+        assertEquals(EXPECTED, out.toString());
+    }
+
+    @Test
+    public void testEndnotes() {
+        FormatEngine engine = new FormatEngine();
+        StringBuilder doc = new StringBuilder("\\parindent{0}\\nofill\n");
+        StringBuilder text = new StringBuilder();
+        StringBuilder notes = new StringBuilder();
+        for (int i = 1; i <= 12; i += 1) {
+            doc.append("w\\endnote{n").append(i).append("}");
+            text.append("w[").append(i).append("]");
+            notes.append("[").append(i).append("] n").append(i).append("\n");
+        }
+        String expected = text + "\n" + notes;
+        for (int i = 0; i < 2; i += 1) {
+            StringWriter out = new StringWriter();
+            assertTrue(engine.format(doc + "\n", out).succeeded());
+            assertEquals(expected, out.toString());
+        }
+
+        FormatResult result = engine.format("a \\endnote b\n",
+                                            new StringWriter());
+        assertTrue(result.failed());
+        assertEquals("Badly formed command", result.errors().get(0));
+    }
+
+    @Test
+    public void testStats() {
+        FormatEngine engine = new FormatEngine();
+        engine.setTimed(true);
+        FormatResult result = engine.format(DOC, new StringWriter());
+        FormatStats stats = result.stats();
+        assertEquals(7, stats.tokens(FormatStats.Token.TEXT));
+        assertEquals(4, stats.tokens(FormatStats.Token.BLANKS));
+        assertEquals(1, stats.tokens(FormatStats.Token.NEWLINE));
+        assertEquals(1, stats.tokens(FormatStats.Token.PARAGRAPH));
+        assertEquals(0, stats.tokens(FormatStats.Token.ESCAPE));
+        assertEquals(4, stats.tokens(FormatStats.Token.COMMAND));
+        Map<String, Long> commands = stats.commands();
+        assertEquals(4, commands.size());
+        assertEquals(Long.valueOf(1), commands.get("endnote"));
+        assertEquals(7, stats.words());
+        assertEquals(4, stats.lines());
+        assertEquals(1, stats.pages());
+        assertEquals(1, stats.endnotes());
+        assertEquals(DOC.length(), stats.inputChars());
+        assertEquals(EXPECTED.length(), stats.outputChars());
+        assertTrue(stats.nanos(FormatStats.Stage.LINES) > 0);
+        assertTrue(stats.nanos(FormatStats.Stage.TOTAL)
+                   >= stats.nanos(FormatStats.Stage.DISPATCH));
+
+        engine.format(DOC, new StringWriter());
+        FormatStats total = engine.stats();
+        assertEquals(2, total.documents());
+        assertEquals(14, total.words());
+        assertEquals(Long.valueOf(2), total.commands().get("textwidth"));
+        assertEquals(7, result.stats().words());
+    }
+
+    @Test
+    public void testEvents() throws IOException {
+        FormatEngine engine = new FormatEngine();
+        File file = File.createTempFile("events", ".jfr");
+        file.deleteOnExit();
+        Recording recording = new Recording();
+        for (String name : new String[] { "tex61.ParagraphLayout",
+                                          "tex61.PageCompleted",
+                                          "tex61.Endnote",
+                                          "tex61.OutputFlush" }) {
+            recording.enable(name);
+        }
+        recording.start();
+        engine.format("\\textheight{2}" + DOC, new StringWriter());
+        recording.stop();
+        recording.dump(file.toPath());
+        recording.close();
+
+        Map<String, RecordedEvent> last = new HashMap<String, RecordedEvent>();
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            String name = event.getEventType().getName();
+            last.put(name, event);
+            counts.merge(name, 1, Integer::sum);
+        }
+        assertEquals(Integer.valueOf(3), counts.get("tex61.ParagraphLayout"));
+        assertEquals(Integer.valueOf(2), counts.get("tex61.PageCompleted"));
+        assertEquals(Integer.valueOf(1), counts.get("tex61.Endnote"));
+        assertEquals(Integer.valueOf(1), counts.get("tex61.OutputFlush"));
+        assertEquals(2, last.get("tex61.PageCompleted").getInt("page"));
+        assertEquals(2, last.get("tex61.PageCompleted").getInt("lines"));
+        assertEquals(1, last.get("tex61.Endnote").getInt("ref"));
+        assertEquals(7, last.get("tex61.Endnote").getInt("length"));
+        assertEquals(4, last.get("tex61.OutputFlush").getInt("lines"));
+    }
+
+}
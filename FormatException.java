@@ -24,21 +24,12 @@ class FormatException extends RuntimeException {
     }
 
     /** Print error message formed from arguments FORMAT and ARGS, whose
-     *  meaning is as for printf. */
+     *  meaning is as for printf.  Errors in a document being formatted
+     *  are reported to its ErrorLog instead. */
     static void reportError(String format, Object... args) {
         error(format, args);
         System.err.printf(format, args);
         System.err.println();
-        _totalErrors += 1;
     }
 
-    /** Returns the total number of calls to reportError. */
-    static int getTotalErrors() {
-        return _totalErrors;
-    }
-
-    /** Cumulative errors encountered.  Assumes that 'error' is called to
-     *  report each error. */
-    private static int _totalErrors;
-
 }
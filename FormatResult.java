@@ -0,0 +1,66 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** The outcome of formatting one document with a FormatEngine.
+ *  @author Greg
+ */
+public class FormatResult {
+
+    /** A result recording the errors in LOG, with no statistics. */
+    FormatResult(ErrorLog log) {
+        this(log, new FormatStats());
+    }
+
+    /** A result recording the errors in LOG and the statistics STATS,
+     *  which it does not copy. */
+    FormatResult(ErrorLog log, FormatStats stats) {
+        if (log.count() == 0) {
+            _errors = Collections.emptyList();
+        } else {
+            _errors = Collections.unmodifiableList(
+                new ArrayList<String>(log.messages()));
+        }
+        _failed = log.failed();
+        _stats = stats;
+    }
+
+    /** Returns true iff the document was formatted with no errors. */
+    public boolean succeeded() {
+        return _errors.isEmpty();
+    }
+
+    /** Returns true iff formatting stopped at an error, in which case
+     *  no output was produced unless the engine was streaming. */
+    public boolean failed() {
+        return _failed;
+    }
+
+    /** Returns the number of errors in the document. */
+    public int errorCount() {
+        return _errors.size();
+    }
+
+    /** Returns the error messages for the document, in order. */
+    public List<String> errors() {
+        return _errors;
+    }
+
+    /** Returns the counts and times of formatting the document.  Stage
+     *  times other than the total are 0 unless the engine was timing. */
+    public FormatStats stats() {
+        return _stats;
+    }
+
+    /** Error messages. */
+    private final List<String> _errors;
+
+    /** True iff formatting stopped at an error. */
+    private final boolean _failed;
+
+    /** Statistics of the document. */
+    private final FormatStats _stats;
+
+}
@@ -0,0 +1,471 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/** A server that formats documents sent to it over a socket, so that
+ *  many small documents are formatted by one warmed-up process.  Each
+ *  connection is handled on its own thread (a virtual thread, where the
+ *  Java runtime has them) and may carry any number of requests, one after
+ *  another.  Documents are formatted by a shared FormatEngine, each with
+ *  its own Controller.
+ *  <p>
+ *  All numbers are big-endian.  A request is the length in bytes of a
+ *  document (4 bytes) followed by the document in UTF-8.  The response is
+ *  the output in UTF-8, as a series of frames, each its length in bytes
+ *  (4 bytes, positive) followed by that many bytes, ending with a length
+ *  of 0.  Then come the status (4 bytes: OK, ERRORS, FAILED, or BUSY),
+ *  the nanoseconds the request waited to be started and then took to be
+ *  formatted (8 bytes each), and the number of error messages (4 bytes),
+ *  each its length (4 bytes) followed by its UTF-8 bytes.
+ *  <p>
+ *  At most a given number of documents are formatted at once, and at
+ *  most a given number more requests are admitted to wait their turn;
+ *  beyond that, requests are skipped and answered with BUSY.  The
+ *  document of an admitted request is read before it waits to be
+ *  formatted, so that a client that stalls in mid-request holds no
+ *  other back, and must arrive within a time limit (see setReadTimeout),
+ *  after which its connection is closed and its admission given up.
+ *  @author Greg
+ */
+class FormatServer {
+
+    /** Status of a document formatted without errors. */
+    static final int OK = 0;
+    /** Status of a document formatted with errors. */
+    static final int ERRORS = 1;
+    /** Status of a document abandoned after an error. */
+    static final int FAILED = 2;
+    /** Status of a request refused because too many were waiting. */
+    static final int BUSY = 3;
+
+    /** Largest document accepted, in bytes.  A longer request ends its
+     *  connection. */
+    static final int MAX_REQUEST = 1 << 28;
+
+    /** Number of characters of output in each frame, at most. */
+    static final int FRAME_SIZE = 1 << 14;
+
+    /** Largest buffer for requests that a connection keeps between
+     *  requests. */
+    static final int MAX_RETAINED_REQUEST = 1 << 20;
+
+    /** Number of bytes of a refused request read at once. */
+    static final int DISCARD_SIZE = 1 << 14;
+
+    /** Default number of milliseconds allowed for reading the document
+     *  of a request once its length has arrived. */
+    static final long READ_TIMEOUT = 30000;
+
+    /** Creates the daemon threads of a pool. */
+    private static final ThreadFactory DAEMONS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    /** Returns the address named NAME: the loopback port NAME if it is a
+     *  number, and otherwise the Unix-domain socket at path NAME. */
+    static SocketAddress address(String name) {
+        if (name.matches("[0-9]+")) {
+            return new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                         Integer.parseInt(name));
+        }
+        return UnixDomainSocketAddress.of(name);
+    }
+
+    /** Returns an ExecutorService that runs each task on a new virtual
+     *  thread, if the Java runtime has them, and otherwise on a daemon
+     *  thread from a pool that grows as needed. */
+    static ExecutorService threadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(DAEMONS);
+        }
+    }
+
+    /** A new server that formats documents with ENGINE, at most LIMIT
+     *  at once, with at most QUEUE more requests waiting. */
+    FormatServer(FormatEngine engine, int limit, int queue) {
+        _engine = engine;
+        _permits = new Semaphore(limit, true);
+        _admissions = limit + queue;
+        _admitted = new Semaphore(_admissions);
+        _timer = new ScheduledThreadPoolExecutor(1, DAEMONS);
+        _timer.setKeepAliveTime(1, TimeUnit.SECONDS);
+        _timer.allowCoreThreadTimeOut(true);
+        _timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /** Close any connection that has not sent the whole document of a
+     *  request within MILLIS milliseconds of its length. */
+    void setReadTimeout(long millis) {
+        _readTimeout = millis;
+    }
+
+    /** Listen for connections at ADDRESS, replacing any socket file
+     *  there, and return the address bound (which differs from ADDRESS
+     *  for loopback port 0). */
+    SocketAddress bind(SocketAddress address) throws IOException {
+        if (address instanceof UnixDomainSocketAddress) {
+            _path = ((UnixDomainSocketAddress) address).getPath();
+            Files.deleteIfExists(_path);
+            _server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        } else {
+            _server = ServerSocketChannel.open();
+        }
+        _server.bind(address);
+        return _server.getLocalAddress();
+    }
+
+    /** Accept and handle connections until closed. */
+    void serve() throws IOException {
+        ExecutorService threads = threadPerTaskExecutor();
+        try {
+            while (true) {
+                SocketChannel client;
+                try {
+                    client = _server.accept();
+                } catch (ClosedChannelException e) {
+                    return;
+                }
+                if (_path == null) {
+                    client.setOption(StandardSocketOptions.TCP_NODELAY,
+                                     true);
+                }
+                threads.execute(new Connection(client));
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    /** Stop accepting connections, and remove any socket file.
+     *  Connections already accepted continue. */
+    void close() throws IOException {
+        _server.close();
+        if (_path != null) {
+            Files.deleteIfExists(_path);
+        }
+    }
+
+    /** Returns the statistics of all documents formatted so far. */
+    FormatStats stats() {
+        return _engine.stats();
+    }
+
+    /** Returns the number of requests admitted and not yet answered. */
+    int active() {
+        return _admissions - _admitted.availablePermits();
+    }
+
+    /** Return true iff another request may be admitted, counting it as
+     *  admitted if so.  A true return must be followed by dismiss. */
+    private boolean admit() {
+        return _admitted.tryAcquire();
+    }
+
+    /** Give up the admission of a request. */
+    private void dismiss() {
+        _admitted.release();
+    }
+
+    /** Wait until a document may be formatted, and return the nanoseconds
+     *  waited.  Must be followed by release. */
+    private long acquire() throws InterruptedException {
+        if (_permits.tryAcquire()) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        _permits.acquire();
+        return System.nanoTime() - start;
+    }
+
+    /** Allow another document to be formatted. */
+    private void release() {
+        _permits.release();
+    }
+
+    /** Fill BUF from IN, and return true, unless IN ends first, in which
+     *  case return false if no bytes were read, and otherwise throw an
+     *  IOException. */
+    static boolean readFully(ReadableByteChannel in, ByteBuffer buf)
+        throws IOException {
+        int start = buf.position();
+        while (buf.hasRemaining()) {
+            if (in.read(buf) < 0) {
+                if (buf.position() > start) {
+                    throw new IOException("connection closed mid-message");
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The requests on one connection. */
+    private class Connection implements Runnable {
+
+        /** Handle the requests on CLIENT. */
+        Connection(SocketChannel client) {
+            _client = client;
+        }
+
+        @Override
+        public void run() {
+            try (SocketChannel client = _client) {
+                Frames frames = new Frames(client);
+                Writer output = new ChannelWriter(frames,
+                                                  StandardCharsets.UTF_8,
+                                                  null, FRAME_SIZE);
+                ByteBuffer header = ByteBuffer.allocate(4);
+                while (true) {
+                    header.clear();
+                    if (!readFully(client, header)) {
+                        return;
+                    }
+                    header.flip();
+                    int len = header.getInt();
+                    if (len < 0 || len > MAX_REQUEST) {
+                        return;
+                    }
+                    if (!admit()) {
+                        discard(len);
+                        respond(BUSY, 0, 0, null);
+                        continue;
+                    }
+                    try {
+                        String text = new String(read(len), 0, len,
+                                                 StandardCharsets.UTF_8);
+                        long waited = acquire();
+                        try {
+                            long start = System.nanoTime();
+                            FormatResult result =
+                                _engine.format(text, output);
+                            long nanos = System.nanoTime() - start;
+                            respond(result.failed() ? FAILED
+                                    : result.succeeded() ? OK : ERRORS,
+                                    waited, nanos, result);
+                        } finally {
+                            release();
+                        }
+                    } finally {
+                        dismiss();
+                        if (_request.length > MAX_RETAINED_REQUEST) {
+                            _request = new byte[0];
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                return;
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+
+        /** Returns an array whose first LEN bytes are the next LEN bytes
+         *  from the client, which must send them in time. */
+        private byte[] read(int len) throws IOException {
+            if (_request.length < len) {
+                _request = new byte[len];
+            }
+            ScheduledFuture<?> alarm = setAlarm();
+            try {
+                if (!readFully(_client,
+                               ByteBuffer.wrap(_request, 0, len))) {
+                    throw new IOException("connection closed mid-message");
+                }
+            } finally {
+                alarm.cancel(false);
+            }
+            return _request;
+        }
+
+        /** Read and ignore the next LEN bytes from the client, a few at
+         *  a time.  The client must send them in time. */
+        private void discard(int len) throws IOException {
+            if (_discard == null) {
+                _discard = ByteBuffer.allocate(DISCARD_SIZE);
+            }
+            ScheduledFuture<?> alarm = setAlarm();
+            try {
+                while (len > 0) {
+                    _discard.clear();
+                    _discard.limit(Math.min(len, DISCARD_SIZE));
+                    if (!readFully(_client, _discard)) {
+                        throw new IOException("connection closed"
+                                              + " mid-message");
+                    }
+                    len -= _discard.limit();
+                }
+            } finally {
+                alarm.cancel(false);
+            }
+        }
+
+        /** Arrange to close the connection after the time allowed for
+         *  reading a document, unless the returned alarm is cancelled
+         *  first.  Closing it ends any read in progress with an
+         *  IOException. */
+        private ScheduledFuture<?> setAlarm() {
+            return _timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        _client.close();
+                    } catch (IOException e) {
+                        return;
+                    }
+                }
+            }, _readTimeout, TimeUnit.MILLISECONDS);
+        }
+
+        /** Send the end of the output, followed by STATUS, the times
+         *  WAITED and NANOS, and the errors in RESULT (if not null). */
+        private void respond(int status, long waited, long nanos,
+                             FormatResult result) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0);
+            out.writeInt(status);
+            out.writeLong(waited);
+            out.writeLong(nanos);
+            if (result == null) {
+                out.writeInt(0);
+            } else {
+                out.writeInt(result.errorCount());
+                for (String msg : result.errors()) {
+                    byte[] utf8 = msg.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(utf8.length);
+                    out.write(utf8);
+                }
+            }
+            ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+            while (buf.hasRemaining()) {
+                _client.write(buf);
+            }
+        }
+
+        /** The connection. */
+        private final SocketChannel _client;
+
+        /** Holds the document being read.  One longer than
+         *  MAX_RETAINED_REQUEST is dropped after its request. */
+        private byte[] _request = new byte[0];
+
+        /** Receives refused requests, or null until one is. */
+        private ByteBuffer _discard;
+    }
+
+    /** A channel that sends each write as one frame of output. */
+    private static class Frames implements GatheringByteChannel {
+
+        /** A channel sending frames to OUT. */
+        Frames(SocketChannel out) {
+            _out = out;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; i += 1) {
+                total += srcs[i].remaining();
+            }
+            if (total == 0) {
+                return 0;
+            }
+            ByteBuffer[] frame = new ByteBuffer[length + 1];
+            _header.clear();
+            _header.putInt((int) total).flip();
+            frame[0] = _header;
+            System.arraycopy(srcs, offset, frame, 1, length);
+            long remaining = total + _header.remaining();
+            while (remaining > 0) {
+                remaining -= _out.write(frame);
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return (int) write(new ByteBuffer[] { src }, 0, 1);
+        }
+
+        @Override
+        public boolean isOpen() {
+            return _out.isOpen();
+        }
+
+        /** Does nothing: the connection is closed by its owner. */
+        @Override
+        public void close() {
+        }
+
+        /** Where frames are sent. */
+        private final SocketChannel _out;
+
+        /** The length of the current frame. */
+        private final ByteBuffer _header = ByteBuffer.allocate(4);
+    }
+
+    /** Formats documents. */
+    private final FormatEngine _engine;
+
+    /** One for each document that may be formatted now. */
+    private final Semaphore _permits;
+
+    /** The most requests admitted at once: those being formatted and
+     *  those being read or waiting to be formatted. */
+    private final int _admissions;
+
+    /** One for each request that may be admitted now. */
+    private final Semaphore _admitted;
+
+    /** Closes connections that take too long to send a document. */
+    private final ScheduledThreadPoolExecutor _timer;
+
+    /** Milliseconds allowed for reading a document. */
+    private long _readTimeout = READ_TIMEOUT;
+
+    /** Accepts connections. */
+    private ServerSocketChannel _server;
+
+    /** The path of the Unix-domain socket, or null. */
+    private Path _path;
+
+}
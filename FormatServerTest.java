@@ -0,0 +1,218 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of FormatServers and FormatClients.
+ *  @author Greg
+ */
+public class FormatServerTest {
+
+    private static final String DOC =
+        "\\textwidth{20}\\parindent{0}\\nojustify\n"
+        + "Some text\\endnote{A note.} and caf\u00e9 \u4e2d\u6587.\n\n"
+        + "Next.\n";
+
+    private static final String EXPECTED =
+        "Some text[1] and\ncaf\u00e9 \u4e2d\u6587.\n\nNext.\n"
+        + "[1] A note.\n";
+
+    /** Start SERVER at ADDRESS on a new thread, and return the address it
+     *  is listening on. */
+    private SocketAddress start(final FormatServer server,
+                                SocketAddress address) throws IOException {
+        SocketAddress bound = server.bind(address);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    fail(e.getMessage());
+                }
+            }
+        }.start();
+        return bound;
+    }
+
+    /** Returns a document with N paragraphs. */
+    private String document(int n) {
+        StringBuilder doc = new StringBuilder("\\textheight{4}");
+        for (int i = 0; i < n; i += 1) {
+            doc.append("Paragraph ").append(i).append(" of ").append(n)
+                .append(".\\endnote{Note ").append(i).append(".}\n\n");
+        }
+        return doc.toString();
+    }
+
+    @Test
+    public void testRequests() throws Exception {
+        FormatServer server = new FormatServer(new FormatEngine(), 2, 100);
+        final SocketAddress address =
+            start(server, FormatServer.address("0"));
+        try {
+            FormatClient client = new FormatClient(address);
+            for (int i = 0; i < 3; i += 1) {
+                StringWriter out = new StringWriter();
+                FormatClient.Reply reply = client.format(DOC, out);
+                assertEquals(FormatServer.OK, reply.status());
+                assertEquals(EXPECTED, out.toString());
+                assertTrue(reply.nanos() > 0);
+            }
+            StringWriter out = new StringWriter();
+            FormatClient.Reply reply = client.format("\\foo{1} x\n", out);
+            assertEquals(FormatServer.ERRORS, reply.status());
+            assertEquals("   x\n", out.toString());
+            assertEquals(1, reply.errors().size());
+            reply = client.format("bad \\endnote\n", new StringWriter());
+            assertEquals(FormatServer.FAILED, reply.status());
+            assertEquals("Badly formed command", reply.errors().get(0));
+            client.close();
+
+            ExecutorService pool = Executors.newFixedThreadPool(6);
+            List<Future<String>> results = new ArrayList<Future<String>>();
+            for (int k = 0; k < 12; k += 1) {
+                final int n = 50 * k;
+                results.add(pool.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws IOException {
+                        FormatClient client = new FormatClient(address);
+                        StringWriter out = new StringWriter();
+                        try {
+                            assertEquals(FormatServer.OK,
+                                         client.format(document(n), out)
+                                         .status());
+                        } finally {
+                            client.close();
+                        }
+                        return out.toString();
+                    }
+                }));
+            }
+            pool.shutdown();
+            FormatEngine engine = new FormatEngine();
+            for (int k = 0; k < results.size(); k += 1) {
+                StringWriter expected = new StringWriter();
+                engine.format(document(50 * k), expected);
+                assertEquals(expected.toString(), results.get(k).get());
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testUnixSocket() throws IOException {
+        File path = File.createTempFile("tex61", ".sock");
+        path.deleteOnExit();
+        FormatServer server = new FormatServer(new FormatEngine(), 1, 1);
+        SocketAddress address =
+            start(server, FormatServer.address(path.getPath()));
+        try {
+            FormatClient client = new FormatClient(address);
+            StringWriter out = new StringWriter();
+            assertEquals(FormatServer.OK, client.format(DOC, out).status());
+            assertEquals(EXPECTED, out.toString());
+            client.close();
+        } finally {
+            server.close();
+        }
+        assertFalse(path.exists());
+    }
+
+    @Test
+    public void testBusy() throws Exception {
+        FormatServer server = new FormatServer(new FormatEngine(), 1, 0);
+        SocketAddress address = start(server, FormatServer.address("0"));
+        try {
+            byte[] doc = DOC.getBytes(StandardCharsets.UTF_8);
+            SocketChannel first = SocketChannel.open(address);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(doc.length).flip();
+            first.write(header);
+            while (server.active() == 0) {
+                Thread.sleep(1);
+            }
+
+            FormatClient client = new FormatClient(address);
+            StringWriter busy = new StringWriter();
+            FormatClient.Reply reply = client.format(DOC, busy);
+            assertEquals(FormatServer.BUSY, reply.status());
+            assertEquals("", busy.toString());
+            assertEquals(0, reply.errors().size());
+
+            first.write(ByteBuffer.wrap(doc));
+            ByteBuffer response =
+                ByteBuffer.allocate(4 + EXPECTED.length() + 100);
+            while (first.read(response) > 0) {
+                int len = response.getInt(0);
+                if (response.position() >= 4 + len + 4 + 4 + 16 + 4) {
+                    break;
+                }
+            }
+            int len = response.getInt(0);
+            assertEquals(EXPECTED,
+                         new String(response.array(), 4, len,
+                                    StandardCharsets.UTF_8));
+            assertEquals(0, response.getInt(4 + len));
+            assertEquals(FormatServer.OK, response.getInt(4 + len + 4));
+            first.close();
+            while (server.active() > 0) {
+                Thread.sleep(1);
+            }
+
+            StringWriter out = new StringWriter();
+            assertEquals(FormatServer.OK, client.format(DOC, out).status());
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testStalledRequest() throws Exception {
+        FormatServer server = new FormatServer(new FormatEngine(), 1, 1);
+        server.setReadTimeout(200);
+        SocketAddress address = start(server, FormatServer.address("0"));
+        try {
+            SocketChannel stalled = SocketChannel.open(address);
+            ByteBuffer header = ByteBuffer.allocate(4);
+            header.putInt(100).flip();
+            stalled.write(header);
+            while (server.active() == 0) {
+                Thread.sleep(1);
+            }
+
+            FormatClient client = new FormatClient(address);
+            StringWriter out = new StringWriter();
+            assertEquals(FormatServer.OK, client.format(DOC, out).status());
+            assertEquals(EXPECTED, out.toString());
+
+            assertEquals(-1, stalled.read(ByteBuffer.allocate(4)));
+            stalled.close();
+            while (server.active() > 0) {
+                Thread.sleep(1);
+            }
+            out = new StringWriter();
+            assertEquals(FormatServer.OK, client.format(DOC, out).status());
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+}
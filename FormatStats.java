@@ -0,0 +1,339 @@
+package tex61;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Counts of what was done in formatting one or more documents, and
+ *  the time taken by each stage.  The counters, and the total time, are
+ *  always kept.  The other stage timers are kept only when timing is
+ *  turned on, since they read the clock for each token and each line,
+ *  which slows formatting noticeably (by more than half, where reading
+ *  the clock is slow).  Their times include that of reading the clock.
+ *
+ *  Stage times are inclusive: the time spent dispatching tokens to the
+ *  Controller includes that spent assembling lines, which includes that
+ *  spent paginating them, which (when streaming) includes that spent
+ *  writing them.  Lines assembled on other threads (with --parallel)
+ *  add their time as well.
+ *  @author Greg
+ */
+public class FormatStats {
+
+    /** The kinds of token recognized by the InputParser. */
+    public enum Token {
+        /** A segment of text. */
+        TEXT,
+        /** A run of blanks and tabs. */
+        BLANKS,
+        /** An end of line that does not end a paragraph. */
+        NEWLINE,
+        /** Ends of line that end a paragraph. */
+        PARAGRAPH,
+        /** An escaped character. */
+        ESCAPE,
+        /** A command. */
+        COMMAND
+    }
+
+    /** The timed stages of formatting, each (but the first) contained in
+     *  the one before. */
+    public enum Stage {
+        /** All of InputParser.process. */
+        TOTAL,
+        /** Calls from the InputParser to the Controller. */
+        DISPATCH,
+        /** LineAssembler.emitLine. */
+        LINES,
+        /** PageAssembler.addLine. */
+        PAGES,
+        /** Writing by a PagePrinter. */
+        WRITE
+    }
+
+    /** Values of Token, in order. */
+    private static final Token[] TOKENS = Token.values();
+
+    /** Values of Stage, in order. */
+    private static final Stage[] STAGES = Stage.values();
+
+    /** Nanoseconds per second. */
+    private static final double NANOS = 1e9;
+
+    /** A new FormatStats with all counts zero and timing off. */
+    public FormatStats() {
+    }
+
+    /** A new FormatStats with the same counts and times as OTHER, with
+     *  timing off. */
+    public FormatStats(FormatStats other) {
+        add(other);
+    }
+
+    /** Returns the number of tokens of kind KIND. */
+    public long tokens(Token kind) {
+        return _tokens[kind.ordinal()];
+    }
+
+    /** Returns the total number of tokens. */
+    public long tokens() {
+        long n = 0;
+        for (long k : _tokens) {
+            n += k;
+        }
+        return n;
+    }
+
+    /** Returns the number of uses of each command, by name. */
+    public Map<String, Long> commands() {
+        TreeMap<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, long[]> e : _commands.entrySet()) {
+            result.put(e.getKey(), e.getValue()[0]);
+        }
+        return result;
+    }
+
+    /** Returns the number of words assembled into lines. */
+    public long words() {
+        return _words;
+    }
+
+    /** Returns the number of non-blank lines formatted, including those of
+     *  endnotes. */
+    public long lines() {
+        return _lines;
+    }
+
+    /** Returns the number of pages output. */
+    public long pages() {
+        return _pages;
+    }
+
+    /** Returns the number of endnotes. */
+    public long endnotes() {
+        return _endnotes;
+    }
+
+    /** Returns the number of characters of input read. */
+    public long inputChars() {
+        return _inputChars;
+    }
+
+    /** Returns the number of characters of output written, including
+     *  newlines and form feeds. */
+    public long outputChars() {
+        return _outputChars;
+    }
+
+    /** Returns the number of documents counted. */
+    public long documents() {
+        return _documents;
+    }
+
+    /** Returns the number of nanoseconds spent in STAGE, which is 0 for
+     *  stages other than TOTAL unless timing was on. */
+    public long nanos(Stage stage) {
+        return _nanos[stage.ordinal()];
+    }
+
+    /** Add the counts and times in OTHER to mine. */
+    public void add(FormatStats other) {
+        for (int i = 0; i < _tokens.length; i += 1) {
+            _tokens[i] += other._tokens[i];
+        }
+        for (int i = 0; i < _nanos.length; i += 1) {
+            _nanos[i] += other._nanos[i];
+        }
+        for (Map.Entry<String, long[]> e : other._commands.entrySet()) {
+            command(e.getKey())[0] += e.getValue()[0];
+        }
+        _words += other._words;
+        _lines += other._lines;
+        _pages += other._pages;
+        _endnotes += other._endnotes;
+        _inputChars += other._inputChars;
+        _outputChars += other._outputChars;
+        _documents += other._documents;
+    }
+
+    /** Print a summary of my counts and times to OUT.  Throughput is in
+     *  millions of input characters (which are bytes for ASCII input)
+     *  and tokens per second of total time. */
+    public void report(PrintStream out) {
+        report(out, null);
+    }
+
+    /** Print a summary of my counts and times to OUT, as above, with the
+     *  paragraphs looked up in CACHE, unless it is null: those found in
+     *  memory, those found only on disk, and those not found. */
+    public void report(PrintStream out, LayoutCache cache) {
+        double secs = _nanos[Stage.TOTAL.ordinal()] / NANOS;
+        long tokens = tokens();
+        out.printf("documents: %d%n", _documents);
+        out.printf("time:      %.3f s (%.1f MB/s, %.0f tokens/s)%n",
+                   secs, rate(_inputChars / 1e6, secs), rate(tokens, secs));
+        out.printf("input:     %d chars%n", _inputChars);
+        out.printf("output:    %d chars%n", _outputChars);
+        out.printf("tokens:    %d", tokens);
+        String sep = " (";
+        for (Token kind : TOKENS) {
+            out.printf("%s%s %d", sep, kind.name().toLowerCase(),
+                       tokens(kind));
+            sep = ", ";
+        }
+        out.printf(")%n");
+        out.printf("commands: ");
+        for (Map.Entry<String, Long> e : commands().entrySet()) {
+            out.printf(" %s %d", e.getKey(), e.getValue());
+        }
+        out.printf("%n");
+        out.printf("words:     %d%n", _words);
+        out.printf("lines:     %d%n", _lines);
+        out.printf("pages:     %d%n", _pages);
+        out.printf("endnotes:  %d%n", _endnotes);
+        if (cache != null) {
+            long diskHits = cache.diskHits();
+            out.printf("cache:     %d memory hits, %d disk hits,"
+                       + " %d misses%n", cache.hits() - diskHits, diskHits,
+                       cache.misses());
+        }
+        out.printf("stages (ms, each including those below it):%n");
+        for (Stage stage : STAGES) {
+            out.printf("  %-10s %12.3f%n", stage.name().toLowerCase(),
+                       nanos(stage) / 1e6);
+        }
+    }
+
+    /** Returns N per SECS seconds, or 0 if SECS is 0. */
+    private static double rate(double n, double secs) {
+        return secs == 0 ? 0 : n / secs;
+    }
+
+    /** Set all counts and times to 0, leaving timing as it is. */
+    void clear() {
+        for (int i = 0; i < _tokens.length; i += 1) {
+            _tokens[i] = 0;
+        }
+        for (int i = 0; i < _nanos.length; i += 1) {
+            _nanos[i] = 0;
+        }
+        _commands.clear();
+        _words = _lines = _pages = _endnotes = 0;
+        _inputChars = _outputChars = _documents = 0;
+    }
+
+    /** Iff ON, keep the stage timers. */
+    void setTimed(boolean on) {
+        _timed = on;
+    }
+
+    /** Returns true iff the stage timers are kept. */
+    boolean timed() {
+        return _timed;
+    }
+
+    /** Returns the time at which a timed stage starts, or 0 if timing is
+     *  off.  Pass it to stop at the end of the stage. */
+    long start() {
+        return _timed ? System.nanoTime() : 0;
+    }
+
+    /** Add the time since START, a value returned by start(), to the time
+     *  spent in STAGE. */
+    void stop(Stage stage, long start) {
+        if (start != 0) {
+            _nanos[stage.ordinal()] += System.nanoTime() - start;
+        }
+    }
+
+    /** Add NANOS nanoseconds to the time spent in STAGE. */
+    void addNanos(Stage stage, long nanos) {
+        _nanos[stage.ordinal()] += nanos;
+    }
+
+    /** Count N tokens of kind KIND. */
+    void count(Token kind, long n) {
+        _tokens[kind.ordinal()] += n;
+    }
+
+    /** Count a use of the command NAME. */
+    void countCommand(String name) {
+        command(name)[0] += 1;
+    }
+
+    /** Returns the counter for command NAME, creating it if needed. */
+    private long[] command(String name) {
+        long[] count = _commands.get(name);
+        if (count == null) {
+            count = new long[1];
+            _commands.put(name, count);
+        }
+        return count;
+    }
+
+    /** Count N words assembled into lines. */
+    void countWords(int n) {
+        _words += n;
+    }
+
+    /** Count N non-blank lines. */
+    void countLines(int n) {
+        _lines += n;
+    }
+
+    /** Count a page. */
+    void countPage() {
+        _pages += 1;
+    }
+
+    /** Count an endnote. */
+    void countEndnote() {
+        _endnotes += 1;
+    }
+
+    /** Count N characters of input. */
+    void countInput(long n) {
+        _inputChars += n;
+    }
+
+    /** Count N characters of output. */
+    void countOutput(long n) {
+        _outputChars += n;
+    }
+
+    /** Count a document. */
+    void countDocument() {
+        _documents += 1;
+    }
+
+    /** Numbers of tokens, indexed by Token ordinal. */
+    private final long[] _tokens = new long[TOKENS.length];
+
+    /** Nanoseconds spent in each stage, indexed by Stage ordinal. */
+    private final long[] _nanos = new long[STAGES.length];
+
+    /** Numbers of uses of commands (each in a one-element array), by
+     *  name. */
+    private final HashMap<String, long[]> _commands =
+        new HashMap<String, long[]>();
+
+    /** Number of words. */
+    private long _words;
+    /** Number of non-blank lines. */
+    private long _lines;
+    /** Number of pages. */
+    private long _pages;
+    /** Number of endnotes. */
+    private long _endnotes;
+    /** Characters of input. */
+    private long _inputChars;
+    /** Characters of output. */
+    private long _outputChars;
+    /** Number of documents. */
+    private long _documents;
+
+    /** True iff the stage timers are kept. */
+    private boolean _timed;
+
+}
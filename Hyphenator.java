@@ -0,0 +1,527 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StreamTokenizer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/** Finds the points at which words may be hyphenated, using Liang's
+ *  algorithm with a set of patterns, as TeX does.  A pattern is a string
+ *  of letters, possibly starting or ending with '.' (matching the start
+ *  or end of a word), with a digit between letters (or at either end)
+ *  wherever its value there is not 0.  Each pattern matching part of a
+ *  word gives its values to the points between the letters it matches;
+ *  the word may be hyphenated at a point whose largest value is odd, so
+ *  long as at least LEFT_MIN letters precede it and RIGHT_MIN follow.
+ *  Exceptions, written with hyphens at the points where they may be
+ *  hyphenated, override the patterns.
+ *  <p>
+ *  The patterns are kept in a trie packed into a single int array, with
+ *  no object for each node, much as Liang did.  Each node is a slot,
+ *  taking up elements 3 * S through 3 * S + 2 of the array, where S is
+ *  the number of the slot, and the root is slot 0.  Each letter that
+ *  appears in a pattern has a code, 1 or more, and each node with
+ *  children has a base, B, such that its child with the letter whose
+ *  code is C is slot B + C.  The elements of a slot are the number of
+ *  the slot of its parent (telling which node a slot belongs to), its
+ *  base (or -1 if it has no children), and the index in _ops of the
+ *  values of the pattern ending at it (or -1 if none).  The bases are
+ *  chosen so that the children of different nodes interleave, leaving
+ *  few slots empty.  Since most of the values of a pattern are 0, only
+ *  the others are kept, as ops: each is an int holding the number of
+ *  letters of the pattern before the point it applies to, times 16,
+ *  plus the value there, and a pattern's ops end with -1.
+ *  <p>
+ *  Since the same words are hyphenated over and over, the points found
+ *  for recently hyphenated words are kept, up to CACHE_SIZE of them.  A
+ *  Hyphenator may be used by any number of threads at once.
+ *  @author Greg
+ */
+public class Hyphenator {
+
+    /** The fewest letters before a hyphen. */
+    static final int LEFT_MIN = 2;
+    /** The fewest letters after a hyphen. */
+    static final int RIGHT_MIN = 3;
+
+    /** The most words whose hyphenation points are kept.  A power of
+     *  2. */
+    static final int CACHE_SIZE = 1 << 12;
+
+    /** Returns a Hyphenator with the patterns in FILE, in UTF-8. */
+    public static Hyphenator load(File file) throws IOException {
+        try (Reader patterns = new InputStreamReader(
+                 new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return new Hyphenator(patterns);
+        }
+    }
+
+    /** A Hyphenator with the patterns and exceptions read from PATTERNS,
+     *  which are separated by whitespace.  Text from '%' to the end of a
+     *  line is ignored, as are the '\patterns{' and '}' around patterns
+     *  in TeX's files.  Exceptions are enclosed in '\hyphenation{' and
+     *  '}'. */
+    public Hyphenator(Reader patterns) throws IOException {
+        StreamTokenizer tokens = new StreamTokenizer(patterns);
+        tokens.resetSyntax();
+        tokens.wordChars('!', Character.MAX_VALUE);
+        tokens.whitespaceChars(0, ' ');
+        tokens.commentChar('%');
+        tokens.ordinaryChar('{');
+        tokens.ordinaryChar('}');
+
+        Builder trie = new Builder();
+        boolean exceptions = false;
+        int id = 0;
+        while (tokens.nextToken() != StreamTokenizer.TT_EOF) {
+            if (tokens.ttype != StreamTokenizer.TT_WORD) {
+                continue;
+            }
+            String token = tokens.sval;
+            if (token.equals("\\patterns")) {
+                exceptions = false;
+            } else if (token.equals("\\hyphenation")) {
+                exceptions = true;
+            } else if (exceptions) {
+                addException(token);
+            } else {
+                trie.add(token);
+            }
+            id = 31 * id + token.hashCode() + (exceptions ? 1 : 0);
+        }
+        _trie = trie.pack();
+        _codes = trie.codes;
+        _ops = Arrays.copyOf(trie.ops, trie.numOps);
+        _id = id;
+    }
+
+    /** Returns a number identifying my patterns and exceptions, which is
+     *  the same for any Hyphenator with the same ones, and almost always
+     *  different otherwise. */
+    int id() {
+        return _id;
+    }
+
+    /** Returns the largest P <= MAX such that the word in BUF[OFF .. OFF
+     *  + LEN - 1] may be hyphenated after its first P characters, or 0 if
+     *  there is none.  Only the letters of a word are hyphenated, not
+     *  any punctuation before or after them, and a word with anything
+     *  but letters between its first and last letter is not
+     *  hyphenated. */
+    int lastPoint(char[] buf, int off, int len, int max) {
+        int start, end;
+        for (start = 0; start < len; start += 1) {
+            if (isLetter(buf[off + start])) {
+                break;
+            }
+        }
+        for (end = len; end > start; end -= 1) {
+            if (isLetter(buf[off + end - 1])) {
+                break;
+            }
+        }
+        if (end - start < LEFT_MIN + RIGHT_MIN
+            || max - start < LEFT_MIN) {
+            return 0;
+        }
+        int[] points = points(buf, off + start, end - start);
+        for (int i = points.length - 1; i >= 0; i -= 1) {
+            if (start + points[i] <= max) {
+                return start + points[i];
+            }
+        }
+        return 0;
+    }
+
+    /** Returns the points, in increasing order, at which WORD may be
+     *  hyphenated, each the number of letters preceding it.  WORD must
+     *  consist of letters. */
+    int[] points(String word) {
+        return points(word.toCharArray(), 0, word.length());
+    }
+
+    /** Returns the points at which the word in BUF[OFF .. OFF + LEN - 1]
+     *  may be hyphenated, as for points(String), or none if it does not
+     *  consist of letters. */
+    private int[] points(char[] buf, int off, int len) {
+        int h = 0;
+        for (int i = off; i < off + len; i += 1) {
+            if (!isLetter(buf[i])) {
+                return NONE;
+            }
+            h = 31 * h + toLower(buf[i]);
+        }
+        int k = (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+        Entry entry = _cache[k];
+        if (entry != null && entry.matches(buf, off, len)) {
+            return entry.points;
+        }
+        char[] word = new char[len];
+        for (int i = 0; i < len; i += 1) {
+            word[i] = toLower(buf[off + i]);
+        }
+        int[] points =
+            _exceptions.isEmpty() ? null : _exceptions.get(new String(word));
+        if (points == null) {
+            points = hyphenate(word);
+        }
+        _cache[k] = new Entry(word, points);
+        return points;
+    }
+
+    /** Returns the points at which WORD, consisting of lower-case
+     *  letters, may be hyphenated according to the patterns, as for
+     *  points. */
+    private int[] hyphenate(char[] word) {
+        int n = word.length;
+        int[] codes = new int[n + 2];
+        codes[0] = codes[n + 1] = code('.');
+        for (int i = 0; i < n; i += 1) {
+            codes[i + 1] = code(word[i]);
+        }
+        byte[] values = new byte[n + 3];
+        int[] trie = _trie;
+        int[] ops = _ops;
+        for (int i = 0; i < codes.length; i += 1) {
+            int node = 0;
+            for (int j = i; j < codes.length; j += 1) {
+                int base = trie[node + 1];
+                int slot = 3 * (base + codes[j]);
+                if (base < 0 || codes[j] == 0 || slot >= trie.length
+                    || trie[slot] != node) {
+                    break;
+                }
+                node = slot;
+                for (int v = trie[slot + 2]; v >= 0 && ops[v] >= 0; v += 1) {
+                    int p = i + (ops[v] >> 4);
+                    byte d = (byte) (ops[v] & 15);
+                    if (d > values[p]) {
+                        values[p] = d;
+                    }
+                }
+            }
+        }
+        int count = 0;
+        int[] points = new int[n];
+        for (int p = LEFT_MIN; p <= n - RIGHT_MIN; p += 1) {
+            if ((values[p + 1] & 1) != 0) {
+                points[count] = p;
+                count += 1;
+            }
+        }
+        return count == 0 ? NONE : Arrays.copyOf(points, count);
+    }
+
+    /** Returns true iff C is a letter. */
+    private static boolean isLetter(char c) {
+        if (c < ASCII) {
+            return (char) ((c | 0x20) - 'a') < 26;
+        }
+        return Character.isLetter(c);
+    }
+
+    /** Returns letter C in lower case. */
+    private static char toLower(char c) {
+        if (c < ASCII) {
+            return (char) (c | 0x20);
+        }
+        return Character.toLowerCase(c);
+    }
+
+    /** Returns the code of letter C, or 0 if it is in no pattern. */
+    private int code(char c) {
+        return c < _codes.length ? _codes[c] : 0;
+    }
+
+    /** Add the exception WORD, in which hyphens mark its points. */
+    private void addException(String word) {
+        StringBuilder letters = new StringBuilder();
+        int[] points = new int[word.length()];
+        int count = 0;
+        for (int i = 0; i < word.length(); i += 1) {
+            char c = word.charAt(i);
+            if (c == '-') {
+                points[count] = letters.length();
+                count += 1;
+            } else {
+                letters.append(Character.toLowerCase(c));
+            }
+        }
+        _exceptions.put(letters.toString(),
+                        count == 0 ? NONE : Arrays.copyOf(points, count));
+    }
+
+    /** A word, in lower case, and the points at which it may be
+     *  hyphenated. */
+    private static class Entry {
+
+        /** An entry for WORD, with POINTS. */
+        Entry(char[] word, int[] points) {
+            this.word = word;
+            this.points = points;
+        }
+
+        /** Returns true iff the word in BUF[OFF .. OFF + LEN - 1], in lower
+         *  case, is mine. */
+        boolean matches(char[] buf, int off, int len) {
+            if (len != word.length) {
+                return false;
+            }
+            for (int i = 0; i < len; i += 1) {
+                if (toLower(buf[off + i]) != word[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** The word. */
+        private final char[] word;
+        /** Its points. */
+        private final int[] points;
+    }
+
+    /** A trie of patterns as they are read, whose node K has the letter
+     *  letter[K], first child first[K] and next sibling next[K] (either
+     *  0 if there is none), and ops at value[K] in ops (or -1 if no
+     *  pattern ends at it).  Node 0 is the root. */
+    private static class Builder {
+
+        /** An empty trie. */
+        Builder() {
+            value[0] = -1;
+        }
+
+        /** Add the pattern PATTERN. */
+        void add(String pattern) {
+            int node = 0;
+            int letters = 0;
+            for (int i = 0; i < pattern.length(); i += 1) {
+                char c = pattern.charAt(i);
+                if (!Character.isDigit(c)) {
+                    node = child(node, Character.toLowerCase(c));
+                    letters += 1;
+                }
+            }
+            reserveOps(letters + 2);
+            value[node] = numOps;
+            int k = 0;
+            for (int i = 0; i < pattern.length(); i += 1) {
+                char c = pattern.charAt(i);
+                int d = Character.digit(c, 10);
+                if (d > 0) {
+                    ops[numOps] = 16 * k + d;
+                    numOps += 1;
+                } else if (d < 0) {
+                    k += 1;
+                }
+            }
+            ops[numOps] = -1;
+            numOps += 1;
+        }
+
+        /** Returns the child of NODE with letter C, adding it if
+         *  necessary. */
+        private int child(int node, char c) {
+            int prev = 0;
+            int k;
+            for (k = first[node]; k != 0 && letter[k] < c; k = next[k]) {
+                prev = k;
+            }
+            if (k != 0 && letter[k] == c) {
+                return k;
+            }
+            if (numNodes == letter.length) {
+                int size = 2 * numNodes;
+                letter = Arrays.copyOf(letter, size);
+                first = Arrays.copyOf(first, size);
+                next = Arrays.copyOf(next, size);
+                value = Arrays.copyOf(value, size);
+            }
+            int added = numNodes;
+            numNodes += 1;
+            letter[added] = c;
+            first[added] = 0;
+            next[added] = k;
+            value[added] = -1;
+            if (prev == 0) {
+                first[node] = added;
+            } else {
+                next[prev] = added;
+            }
+            return added;
+        }
+
+        /** Make room for N more ops. */
+        private void reserveOps(int n) {
+            if (numOps + n > ops.length) {
+                ops = Arrays.copyOf(ops, Math.max(numOps + n,
+                                                  2 * ops.length));
+            }
+        }
+
+        /** Returns the trie in the packed form described in Hyphenator,
+         *  setting codes. */
+        int[] pack() {
+            int maxLetter = 0;
+            for (int k = 1; k < numNodes; k += 1) {
+                maxLetter = Math.max(maxLetter, letter[k]);
+            }
+            codes = new char[maxLetter + 1];
+            for (int k = 1; k < numNodes; k += 1) {
+                codes[letter[k]] = 1;
+            }
+            char code = 0;
+            for (int c = 0; c <= maxLetter; c += 1) {
+                if (codes[c] != 0) {
+                    code += 1;
+                    codes[c] = code;
+                }
+            }
+
+            int[] base = new int[numNodes];
+            Arrays.fill(base, -1);
+            boolean[] taken = new boolean[INITIAL_NODES];
+            taken[0] = true;
+            int free = 1;
+            int size = 1;
+            for (int k : byChildren()) {
+                while (taken[free]) {
+                    free += 1;
+                }
+                int span = 0;
+                for (int c = first[k]; c != 0; c = next[c]) {
+                    span = codes[letter[c]];
+                }
+                int b = Math.max(free - codes[letter[first[k]]], 0);
+                while (true) {
+                    if (b + span + 1 >= taken.length) {
+                        taken = Arrays.copyOf(taken, Math.max(
+                            b + span + 1, 2 * taken.length));
+                    }
+                    if (fits(b, first[k], taken)) {
+                        break;
+                    }
+                    b += 1;
+                }
+                base[k] = b;
+                for (int c = first[k]; c != 0; c = next[c]) {
+                    taken[b + codes[letter[c]]] = true;
+                    size = Math.max(size, b + codes[letter[c]] + 1);
+                }
+            }
+
+            int[] slot = new int[numNodes];
+            int[] trie = new int[3 * size];
+            Arrays.fill(trie, -1);
+            trie[1] = base[0];
+            for (int k = 0; k < numNodes; k += 1) {
+                for (int c = first[k]; c != 0; c = next[c]) {
+                    slot[c] = base[k] + codes[letter[c]];
+                    trie[3 * slot[c]] = 3 * slot[k];
+                    trie[3 * slot[c] + 1] = base[c];
+                    trie[3 * slot[c] + 2] = value[c];
+                }
+            }
+            return trie;
+        }
+
+        /** Returns the nodes with children, those with the most first, so
+         *  that the many with one child fill the gaps left by the
+         *  others when packed. */
+        private int[] byChildren() {
+            int[] count = new int[numNodes];
+            int most = 0;
+            int n = 0;
+            for (int k = 0; k < numNodes; k += 1) {
+                for (int c = first[k]; c != 0; c = next[c]) {
+                    count[k] += 1;
+                }
+                most = Math.max(most, count[k]);
+                n += count[k] > 0 ? 1 : 0;
+            }
+            int[] nodes = new int[n];
+            int[] start = new int[most + 2];
+            for (int k = 0; k < numNodes; k += 1) {
+                start[most - count[k] + 1] += 1;
+            }
+            for (int i = 1; i <= most; i += 1) {
+                start[i] += start[i - 1];
+            }
+            for (int k = 0; k < numNodes; k += 1) {
+                if (count[k] > 0) {
+                    nodes[start[most - count[k]]] = k;
+                    start[most - count[k]] += 1;
+                }
+            }
+            return nodes;
+        }
+
+        /** Returns true iff the children of a node whose first child is
+         *  FIRSTCHILD may take up slots from base B, none of which are
+         *  TAKEN. */
+        private boolean fits(int b, int firstChild, boolean[] taken) {
+            for (int c = firstChild; c != 0; c = next[c]) {
+                if (taken[b + codes[letter[c]]]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** The letters of the nodes. */
+        private char[] letter = new char[INITIAL_NODES];
+        /** The first children of the nodes. */
+        private int[] first = new int[INITIAL_NODES];
+        /** The next siblings of the nodes. */
+        private int[] next = new int[INITIAL_NODES];
+        /** The indices of the values of the nodes. */
+        private int[] value = new int[INITIAL_NODES];
+        /** The number of nodes. */
+        private int numNodes = 1;
+        /** The ops of the patterns. */
+        private int[] ops = new int[INITIAL_NODES];
+        /** The number of ops in use. */
+        private int numOps;
+        /** The codes of letters, once packed. */
+        private char[] codes;
+    }
+
+    /** The characters below which isLetter and toLower need not consult
+     *  the Unicode tables. */
+    private static final char ASCII = 128;
+
+    /** The points of a word that may not be hyphenated. */
+    private static final int[] NONE = new int[0];
+
+    /** Initial number of nodes for which a Builder has room. */
+    private static final int INITIAL_NODES = 256;
+
+    /** The patterns, packed as described above. */
+    private final int[] _trie;
+
+    /** The ops of the patterns. */
+    private final int[] _ops;
+
+    /** _codes[C] is the code of letter C, or 0 if it appears in no
+     *  pattern (as are all letters beyond the end of _codes). */
+    private final char[] _codes;
+
+    /** Identifies the patterns and exceptions. */
+    private final int _id;
+
+    /** The points of the exceptions, keyed by their letters. */
+    private final HashMap<String, int[]> _exceptions =
+        new HashMap<String, int[]>();
+
+    /** Recently hyphenated words.  A word is kept in the element given
+     *  by its hash, replacing any other word there.  Since Entries are
+     *  immutable, no lock is needed. */
+    private final Entry[] _cache = new Entry[CACHE_SIZE];
+
+}
@@ -0,0 +1,80 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of Hyphenators.
+ *  @author Greg
+ */
+public class HyphenatorTest {
+
+    /** The patterns of Liang's example, and an exception. */
+    private static final String PATTERNS =
+        "% Liang's example\n"
+        + "\\patterns{ hy3ph he2n hena4 hen5at 1na n2at 1tio 2io o2n }\n"
+        + "\\hyphenation{ ta-ble }\n";
+
+    private Hyphenator hyphenator() throws IOException {
+        return new Hyphenator(new StringReader(PATTERNS));
+    }
+
+    @Test
+    public void testPoints() throws IOException {
+        Hyphenator h = hyphenator();
+        assertArrayEquals(new int[] { 2, 6 }, h.points("hyphenation"));
+        assertArrayEquals(new int[] { 2, 6 }, h.points("Hyphenation"));
+        assertArrayEquals(new int[] { 2, 6 }, h.points("hyphenation"));
+        assertArrayEquals(new int[] { 2 }, h.points("table"));
+        assertArrayEquals(new int[0], h.points("tables"));
+        assertArrayEquals(new int[0], h.points("hyph-enation"));
+    }
+
+    @Test
+    public void testLastPoint() throws IOException {
+        Hyphenator h = hyphenator();
+        char[] buf = "(Hyphenation),".toCharArray();
+        assertEquals(7, h.lastPoint(buf, 0, buf.length, 12));
+        assertEquals(7, h.lastPoint(buf, 0, buf.length, 7));
+        assertEquals(3, h.lastPoint(buf, 0, buf.length, 6));
+        assertEquals(0, h.lastPoint(buf, 0, buf.length, 2));
+        buf = "xhyphenationx".toCharArray();
+        assertEquals(6, h.lastPoint(buf, 1, buf.length - 2, 10));
+        buf = "hy".toCharArray();
+        assertEquals(0, h.lastPoint(buf, 0, buf.length, 2));
+    }
+
+    @Test
+    public void testId() throws IOException {
+        assertEquals(hyphenator().id(), hyphenator().id());
+        assertTrue(hyphenator().id()
+                   != new Hyphenator(new StringReader("hy3ph")).id());
+        assertTrue(new Hyphenator(new StringReader("ta-ble")).id()
+                   != new Hyphenator(new StringReader(
+                       "\\hyphenation{ta-ble}")).id());
+    }
+
+    @Test
+    public void testLines() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        LineAssembler assembler =
+            new LineAssembler(new PageCollector(lines), false);
+        assembler.setHyphenator(hyphenator());
+        assembler.setTextWidth(16);
+        assembler.setParIndentation(0);
+        assembler.setJustify(false);
+        for (String word : "About hyphenation of a table.".split(" ")) {
+            assembler.addWord(word);
+        }
+        assembler.endParagraph();
+        assertEquals(Arrays.asList("About hyphen-", "ation of a ta-",
+                                   "ble."),
+                     lines);
+    }
+
+}
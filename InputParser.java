@@ -1,160 +1,655 @@
 package tex61;
 
-import java.util.Scanner;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-
+import java.io.IOException;
 import java.io.Reader;
 
-import static tex61.FormatException.reportError;
-
 /** Reads commands and text from an input source and send the results
  *  to a designated Controller. This essentially breaks the input down
- *  into "tokens"---commands and pieces of text.
+ *  into "tokens"---commands and pieces of text.  The tokens are:
+ *  <ul>
+ *  <li> A run of blanks and tabs.
+ *  <li> An end of line (an optional carriage return followed by a
+ *       newline), which ends a paragraph if immediately followed by
+ *       further ends of line.
+ *  <li> An escaped character: \{, \}, \\, or \ followed by a blank or
+ *       tab.
+ *  <li> A command: \ followed by alphabetic characters and an optional
+ *       {, in which case the command's argument extends through the
+ *       matching }.
+ *  <li> A segment of other text (not including blanks, tabs, ends of
+ *       line, or any of the special characters \, {, or }).
+ *  <li> Any other character, which is an error.
+ *  </ul>
+ *  Input is scanned one character at a time from a buffer, with no
+ *  backtracking, and ends at the last character that is not Java
+ *  whitespace.
  *  @author Greg
  */
 class InputParser {
 
-    /** Matches text between { } in a command, including the last
-     *  }, but not the opening {.  When matched, group 1 is the matched
-     *  text.  Always matches at least one character against a non-empty
-     *  string or input source. If it matches and group 1 is null, the
-     *  argument was not well-formed (the final } was missing or the
-     *  argument list was nested too deeply). */
-    private static final Pattern BALANCED_TEXT =
-        Pattern.compile("(?s)((?:\\\\.|[^\\\\{}]"
-                        + "|[{](?:\\\\.|[^\\\\{}])*[}])*)"
-                        + "\\}"
-                        + "|.");
-
-    /** Matches input to the text formatter.  Always matches something
-     *  in a non-empty string or input source.  After matching, one or
-     *  more of the groups described by *_TOKEN declarations will
-     *  be non-null.  See these declarations for descriptions of what
-     *  this pattern matches.  To test whether .group(*_TOKEN) is null
-     *  quickly, check for .end(*_TOKEN) > -1).  */
-    private static final Pattern INPUT_PATTERN =
-        Pattern.compile("(?s)(\\p{Blank}+)"
-                        + "|(\\r?\\n((?:\\r?\\n)+)?)"
-                        + "|\\\\([\\p{Blank}{}\\\\])"
-                        + "|\\\\(\\p{Alpha}+)([{]?)"
-                        + "|((?:[^\\p{Blank}\\r\\n\\\\{}]+))"
-                        + "|(.)");
-
-    /** Symbolic names for the groups in INPUT_PATTERN. */
-    private static final int
-        /** Blank or tab. */
-        BLANK_TOKEN = 1,
-
-        /** End of line or paragraph. */
-        EOL_TOKEN = 2,
+    /** Initial size of the input buffer, in characters. */
+    private static final int BUFFER_SIZE = 1 << 13;
 
-        /** End of paragraph (>1 newline). EOL_TOKEN group will also
-         *  be present. */
-        EOP_TOKEN = 3,
+    /** Largest input buffer kept after a reset. */
+    private static final int MAX_RETAINED_BUFFER = 1 << 20;
 
-        /** \{, \}, \\, or \ .  .group(ESCAPED_CHAR_TOKEN) will be the
-         *  character after the backslash. */
-        ESCAPED_CHAR_TOKEN = 4,
+    /** Largest paragraph, in characters, whose lines are looked up in a
+     *  LayoutCache. */
+    private static final int MAX_CACHED_PARAGRAPH = 1 << 16;
 
-        /** Command (\<alphabetic characters>).  .group(COMMAND_TOKEN)
-         *  will be the characters after the backslash.  */
-        COMMAND_TOKEN = 5,
+    /** The names of the commands processCommand knows, the most common
+     *  first. */
+    private static final String[] COMMANDS = {
+        "endnote", "indent", "parindent", "parskip", "textwidth",
+        "textheight", "nofill", "fill", "justify", "nojustify",
+        "optimalfit", "nooptimalfit"
+    };
 
-        /** A '{' immediately following a command. When this group is present,
-         *  .group(COMMAND_TOKEN) will also be present. */
-        COMMAND_ARG_TOKEN = 6,
+    /** The kinds of token, in order. */
+    private static final FormatStats.Token[] TOKENS =
+        FormatStats.Token.values();
 
-        /** Segment of other text (none of the above, not including
-         *  any of the special characters \, {, or }). */
-        TEXT_TOKEN = 7,
-
-        /** A character that should not be here. */
-        ERROR_TOKEN = 8;
+    /** Indices in _tokens of the counts of each kind of token. */
+    private static final int
+        TEXT = FormatStats.Token.TEXT.ordinal(),
+        BLANKS = FormatStats.Token.BLANKS.ordinal(),
+        NEWLINE = FormatStats.Token.NEWLINE.ordinal(),
+        PARAGRAPH = FormatStats.Token.PARAGRAPH.ordinal(),
+        ESCAPE = FormatStats.Token.ESCAPE.ordinal(),
+        COMMAND = FormatStats.Token.COMMAND.ordinal();
 
     /** A new InputParser taking input from READER and sending tokens to
      *  OUT. */
     InputParser(Reader reader, Controller out) {
-        _input = new Scanner(reader);
+        _reader = reader;
+        _buf = new char[BUFFER_SIZE];
         _out = out;
+        _stats = out.stats();
     }
 
-    /** A new InputParser whose input is TEXT and that sends tokens to
-     *  OUT. Prepends PREPEND to first group of text. */
-    InputParser(String text, Controller out, String prepend) {
-        _input = new Scanner(text);
+    /** A new InputParser for the text of endnotes, which sends tokens
+     *  to OUT.  It has no input of its own until parseEndnote. */
+    InputParser(Controller out) {
         _out = out;
-        _prepend = prepend;
+        _stats = out.stats();
+        _nested = true;
+    }
+
+    /** Discard any unprocessed input, and take further input from
+     *  READER. */
+    void reset(Reader reader) {
+        if (_buf.length > MAX_RETAINED_BUFFER) {
+            _buf = new char[BUFFER_SIZE];
+        }
+        _reader = reader;
+        _pos = _lim = 0;
+        _read = 0;
+        _nonblank = -1;
+        _prependLen = 0;
+        _hash = Checkpoint.HASH_SEED;
+        _hashed = 0;
+        _marking = _stopped = false;
+    }
+
+    /** Discard any unprocessed input, and take further input from
+     *  TEXT. */
+    void reset(CharSequence text) {
+        reset((Reader) null);
+        int len = text.length();
+        if (_buf.length < len) {
+            _buf = new char[len];
+        }
+        if (text instanceof String) {
+            ((String) text).getChars(0, len, _buf, 0);
+        } else {
+            for (int i = 0; i < len; i += 1) {
+                _buf[i] = text.charAt(i);
+            }
+        }
+        _lim = len;
+        _read = len;
     }
 
     /** Break all input source text into tokens, and send them to our
      *  output controller.  Finishes by calling .close on the controller.
+     *  If there is an error in the input, it is reported to the
+     *  controller's ErrorLog, and processing stops without closing the
+     *  controller, which abandons the document.  Counts the document,
+     *  its input, and the time taken in the controller's statistics.
      */
     void process() {
+        long start = System.nanoTime();
         try {
-            while (_input.hasNext()) {
-                String token = _input.findWithinHorizon(INPUT_PATTERN, 0);
-                Matcher matcher = INPUT_PATTERN.matcher(token);
-                matcher.find();
+            parse();
+        } catch (FormatException e) {
+            _out.errors().fail(e.getMessage());
+            _out.abandon();
+        } catch (NumberFormatException e) {
+            _out.errors().fail(e.getMessage());
+            _out.abandon();
+        }
+        countTokens();
+        _stats.addNanos(FormatStats.Stage.TOTAL, System.nanoTime() - start);
+        _stats.countInput(_read);
+        _stats.countDocument();
+    }
 
-                if (!(matcher.group(BLANK_TOKEN) == null)) {
-                    _out.endWord();
+    /** Break the LEN characters of endnote text starting at BUF[OFF]
+     *  into tokens, and send them to our output controller, preceded by
+     *  the PREFIXLEN characters of PREFIX as part of the first text.
+     *  The text is parsed where it lies, and neither array is retained
+     *  afterwards.  Finishes by calling .close on the controller.
+     *  Errors are as for parse. */
+    void parseEndnote(char[] buf, int off, int len,
+                      char[] prefix, int prefixLen) {
+        if (_prepend.length < prefixLen) {
+            _prepend = new char[prefixLen];
+        }
+        System.arraycopy(prefix, 0, _prepend, 0, prefixLen);
+        _prependLen = prefixLen;
+        _reader = null;
+        _buf = buf;
+        _pos = off;
+        _lim = off + len;
+        _nonblank = -1;
+        try {
+            parse();
+        } finally {
+            _buf = null;
+        }
+    }
+
+    /** Skip the first OFFSET characters of input, so as to continue from
+     *  a Checkpoint after them, and return true if their hash is HASH.
+     *  Otherwise, the input is not that of the Checkpoint, and return
+     *  false.  Must be called before any input is parsed. */
+    boolean resume(long offset, long hash) {
+        _hash = Checkpoint.HASH_SEED;
+        while (offset > 0) {
+            if (_pos == _lim && !fill(1)) {
+                return false;
+            }
+            int n = (int) Math.min(offset, _lim - _pos);
+            _hash = Checkpoint.hash(_hash, _buf, _pos, n);
+            _pos += n;
+            offset -= n;
+        }
+        _hashed = _pos;
+        return _hash == hash;
+    }
+
+    /** Break all input source text into tokens, and send them to our
+     *  output controller.  Finishes by calling .close on the controller,
+     *  unless it asks for no more input at a break between paragraphs
+     *  (see Controller.paragraphBreak).  Errors in the input cause a
+     *  FormatException or NumberFormatException. */
+    void parse() {
+        _timed = !_nested && _stats.timed();
+        _marking = !_nested && _out.marking();
+        _caching = !_nested && _out.caching();
+        _parStart = true;
+        while (!_stopped && hasNext()) {
+            char c = _buf[_pos];
+            switch (c) {
+            case ' ': case '\t':
+                processBlanks();
+                break;
+            case '\n':
+                processEndOfLine();
+                break;
+            case '\r':
+                if (peek(1) != '\n') {
+                    throw new FormatException("Unexpected token");
                 }
+                processEndOfLine();
+                break;
+            case '\\':
+                processBackslash();
+                break;
+            case '{': case '}':
+                throw new FormatException("Unexpected token");
+            default:
+                processText();
+                break;
+            }
+        }
+
+        if (!_stopped) {
+            long start = startDispatch();
+            _out.close();
+            stopDispatch(start);
+        }
+        countTokens();
+    }
+
+    /** Add the tokens counted in _tokens to _stats, and clear _tokens. */
+    private void countTokens() {
+        for (int i = 0; i < _tokens.length; i += 1) {
+            _stats.count(TOKENS[i], _tokens[i]);
+            _tokens[i] = 0;
+        }
+    }
+
+    /** Process the run of blanks and tabs at the start of the buffer. */
+    private void processBlanks() {
+        int k = skipBlanks(1);
+        _pos += k;
+        _tokens[BLANKS] += 1;
+        long start = startDispatch();
+        _out.endWord();
+        stopDispatch(start);
+    }
 
-                if (!(matcher.group(EOL_TOKEN) == null)) {
-                    _out.endWord();
+    /** Process the end of line at the start of the buffer, together with
+     *  any ends of line immediately following it. */
+    private void processEndOfLine() {
+        int k = newlineLength(0);
+        int extra = 0;
+        for (int n = newlineLength(k); n > 0; n = newlineLength(k)) {
+            k += n;
+            extra += 1;
+        }
+        _pos += k;
+
+        long start = startDispatch();
+        _out.endWord();
+        if (extra > 0) {
+            _parStart = true;
+            _tokens[PARAGRAPH] += 1;
+            _out.endParagraph();
+            if (_marking) {
+                hashInput();
+                _stopped = !_out.paragraphBreak(_read - (_lim - _pos),
+                                                _hash);
+            }
+        } else {
+            _tokens[NEWLINE] += 1;
+            _out.addNewline();
+        }
+        stopDispatch(start);
+    }
 
-                    if (!(matcher.group(EOP_TOKEN) == null)) {
-                        _out.endParagraph();
-                    } else {
-                        _out.addNewline();
+    /** Process the escaped character or command at the start of the
+     *  buffer. */
+    private void processBackslash() {
+        int c = peek(1);
+        switch (c) {
+        case ' ': case '\t': case '{': case '}': case '\\':
+            _tokens[ESCAPE] += 1;
+            addText(_pos + 1, 1);
+            _pos += 2;
+            return;
+        default:
+            break;
+        }
+        if (!isAlpha(c)) {
+            throw new FormatException("Unexpected token");
+        }
+
+        int k;
+        for (k = 2; isAlpha(peek(k)); k += 1) {
+            continue;
+        }
+        String command = commandName(_pos + 1, k - 1);
+        int argLen = -1;
+        _pos += k;
+        if (peek(0) == '{') {
+            _pos += 1;
+            argLen = balancedText();
+        }
+        _tokens[COMMAND] += 1;
+        _stats.countCommand(command);
+        long start = startDispatch();
+        processCommand(command, argLen);
+        stopDispatch(start);
+    }
+
+    /** Returns the name of a command, the LEN characters at _buf[OFF].
+     *  Known commands return the same String each time, so that their
+     *  names need not be copied or hashed again. */
+    private String commandName(int off, int len) {
+        for (String name : COMMANDS) {
+            if (name.length() == len) {
+                int i;
+                for (i = 0; i < len; i += 1) {
+                    if (name.charAt(i) != _buf[off + i]) {
+                        break;
                     }
                 }
-
-                if (!(matcher.group(ESCAPED_CHAR_TOKEN) == null)) {
-                    _out.addText(_prepend + matcher.group(ESCAPED_CHAR_TOKEN));
-                    _prepend = "";
+                if (i == len) {
+                    return name;
                 }
+            }
+        }
+        return new String(_buf, off, len);
+    }
 
-                if (!(matcher.group(COMMAND_TOKEN) == null)) {
-                    String command = matcher.group(COMMAND_TOKEN);
-                    String argbrace = matcher.group(COMMAND_ARG_TOKEN);
-                    String arg = null;
-
-                    if (!argbrace.isEmpty()) {
-                        arg = _input.findWithinHorizon(BALANCED_TEXT, 0);
-                        if (arg == null) {
-                            throw new FormatException("Badly formed command");
-                        }
-                        arg = arg.substring(0, arg.length() - 1);
-                    }
-                    processCommand(command, arg);
+    /** Process the segment of text at the start of the buffer, or the
+     *  whole paragraph that it starts if its lines are cached. */
+    private void processText() {
+        if (_parStart) {
+            _parStart = false;
+            if (_caching && _out.cacheable() && cachedParagraph()) {
+                return;
+            }
+        }
+        int k = 1;
+        while (true) {
+            int end = _lim - _pos;
+            while (k < end && isText(_buf[_pos + k])) {
+                k += 1;
+            }
+            if (k < end || !fill(k + 1)) {
+                break;
+            }
+        }
+        _tokens[TEXT] += 1;
+        addText(_pos, k);
+        _pos += k;
+    }
+
+    /** If the text at the start of the buffer and the rest of the
+     *  paragraph that it starts contain no more than MAX_CACHED_PARAGRAPH
+     *  characters, and only text, blanks, and single ends of line, ask
+     *  our Controller for the paragraph's lines from its LayoutCache.
+     *  If they are there, they have been added: count the paragraph's
+     *  tokens, skip it up to the blanks and ends of line at its end, and
+     *  return true.  Otherwise, return false, leaving the paragraph to be
+     *  parsed as usual.  Text containing Java whitespace other than
+     *  blanks and ends of line, which may not be processed at the end of
+     *  the input (see hasNext), is not looked up. */
+    private boolean cachedParagraph() {
+        int text, blanks, newlines, end, endBlanks, endNewlines;
+        text = blanks = newlines = end = endBlanks = endNewlines = 0;
+        boolean inText, inBlanks;
+        inText = inBlanks = false;
+        for (int k = 0; k <= MAX_CACHED_PARAGRAPH; k += 1) {
+            if (_pos + k == _lim && !fill(k + 1)) {
+                return cachedParagraph(end, text, endBlanks, endNewlines);
+            }
+            char c = _buf[_pos + k];
+            if (c > ' ' && c != '\\' && c != '{' && c != '}'
+                && (c < 0x7f || !Character.isWhitespace(c))) {
+                if (!inText) {
+                    text += 1;
+                    endBlanks = blanks;
+                    endNewlines = newlines;
+                    inText = true;
+                    inBlanks = false;
+                }
+                end = k + 1;
+                continue;
+            }
+            switch (c) {
+            case ' ': case '\t':
+                if (!inBlanks) {
+                    blanks += 1;
                 }
+                inText = false;
+                inBlanks = true;
+                break;
+            case '\n': case '\r':
+                int n = newlineLength(k);
+                if (n == 0) {
+                    return false;
+                } else if (newlineLength(k + n) > 0) {
+                    return cachedParagraph(end, text, endBlanks,
+                                           endNewlines);
+                }
+                k += n - 1;
+                newlines += 1;
+                inText = inBlanks = false;
+                break;
+            default:
+                return false;
+            }
+        }
+        return false;
+    }
 
-                if (!(matcher.group(TEXT_TOKEN) == null)) {
-                    _out.addText(_prepend + matcher.group(TEXT_TOKEN));
-                    _prepend = "";
+    /** Ask our Controller for the lines of the paragraph whose text is
+     *  the first LEN characters of the buffer, consisting of TEXT
+     *  segments of text, BLANKS runs of blanks, and NEWLINES ends of
+     *  line, as for cachedParagraph. */
+    private boolean cachedParagraph(int len, int text, int blanks,
+                                    int newlines) {
+        long start = startDispatch();
+        boolean found = _out.cachedParagraph(_buf, _pos, len);
+        stopDispatch(start);
+        if (found) {
+            _tokens[TEXT] += text;
+            _tokens[BLANKS] += blanks;
+            _tokens[NEWLINE] += newlines;
+            _pos += len;
+        }
+        return found;
+    }
+
+    /** Send the LEN characters of text starting at _buf[OFF] to our
+     *  Controller, preceded by _prepend, if this is the first text. */
+    private void addText(int off, int len) {
+        long start = startDispatch();
+        if (_prependLen > 0) {
+            _out.addText(_prepend, 0, _prependLen);
+            _prependLen = 0;
+        }
+        _out.addText(_buf, off, len);
+        stopDispatch(start);
+    }
+
+    /** Returns the start time of a call to the Controller, for
+     *  stopDispatch, or 0 if it is not to be timed.  Calls made while
+     *  parsing an endnote are timed as part of the \endnote command. */
+    private long startDispatch() {
+        return _timed ? System.nanoTime() : 0;
+    }
+
+    /** Count the time since START, a value returned by startDispatch, as
+     *  time spent dispatching. */
+    private void stopDispatch(long start) {
+        _stats.stop(FormatStats.Stage.DISPATCH, start);
+    }
+
+    /** Consume the argument of a command, whose opening { has already
+     *  been consumed: all text through the matching }, not including
+     *  the }.  The text may contain escaped characters and groups in { }
+     *  that contain no further braces.  If the argument is not
+     *  well-formed, consumes a single character instead and takes all but
+     *  its last char as the argument.  Returns the argument's length,
+     *  setting _arg to its index in _buf, where it stays until the next
+     *  token is read.  Throws FormatException at the end of input. */
+    private int balancedText() {
+        int k = 0;
+        while (true) {
+            int c = peek(k);
+            if (c == '}') {
+                _arg = _pos;
+                _pos += k + 1;
+                return k;
+            } else if (c == '{') {
+                k = innerGroupEnd(k + 1);
+            } else if (c == '\\') {
+                k = peek(k + 1) == -1 ? -1 : k + 2;
+            } else if (c != -1) {
+                k += 1;
+            } else {
+                k = -1;
+            }
+            if (k < 0) {
+                break;
+            }
+        }
+
+        if (peek(0) == -1) {
+            throw new FormatException("Badly formed command");
+        }
+        if (Character.isHighSurrogate(_buf[_pos])
+            && Character.isLowSurrogate((char) peek(1))) {
+            _arg = _pos;
+            _pos += 2;
+            return 1;
+        }
+        _arg = _pos;
+        _pos += 1;
+        return 0;
+    }
+
+    /** Returns the argument of LEN characters at _buf[_arg] as a
+     *  String, or null if LEN is negative, meaning there is none. */
+    private String argument(int len) {
+        return len < 0 ? null : new String(_buf, _arg, len);
+    }
+
+    /** Returns the offset just past the } that closes a group in a
+     *  command argument, where the group's text starts at offset K, or
+     *  -1 if the group is not closed before another { or the end of
+     *  input. */
+    private int innerGroupEnd(int k) {
+        while (true) {
+            int c = peek(k);
+            switch (c) {
+            case '}':
+                return k + 1;
+            case '{': case -1:
+                return -1;
+            case '\\':
+                if (peek(k + 1) == -1) {
+                    return -1;
                 }
+                k += 2;
+                break;
+            default:
+                k += 1;
+                break;
+            }
+        }
+    }
 
-                if (!(matcher.group(ERROR_TOKEN) == null)) {
-                    throw new FormatException("Unexpected token");
+    /** Returns the offset of the first character at or after offset K
+     *  that is not a blank or tab. */
+    private int skipBlanks(int k) {
+        while (true) {
+            int end = _lim - _pos;
+            while (k < end && isBlank(_buf[_pos + k])) {
+                k += 1;
+            }
+            if (k < end || !fill(k + 1)) {
+                return k;
+            }
+        }
+    }
+
+    /** Returns the length of the end of line (\n or \r\n) at offset K, or
+     *  0 if there is none. */
+    private int newlineLength(int k) {
+        int c = peek(k);
+        if (c == '\n') {
+            return 1;
+        } else if (c == '\r' && peek(k + 1) == '\n') {
+            return 2;
+        } else {
+            return 0;
+        }
+    }
+
+    /** Returns true iff there is a character that is not Java whitespace
+     *  at or after the start of the buffer, so that there are tokens left
+     *  to process. */
+    private boolean hasNext() {
+        if (_pos <= _nonblank) {
+            return true;
+        }
+        for (int k = 0; fill(k + 1); k += 1) {
+            if (!Character.isWhitespace(_buf[_pos + k])) {
+                _nonblank = _pos + k;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns the character at offset K from the start of the buffer, or
+     *  -1 if the input ends first. */
+    private int peek(int k) {
+        if (_pos + k < _lim || fill(k + 1)) {
+            return _buf[_pos + k];
+        }
+        return -1;
+    }
+
+    /** Read input until at least N characters are buffered starting at
+     *  _pos, moving the buffered characters to the front of _buf or
+     *  enlarging it as needed.  Returns false iff the input ends first.
+     *  Errors reading the input cause a FormatException. */
+    private boolean fill(int n) {
+        while (_lim - _pos < n) {
+            if (_reader == null) {
+                return false;
+            }
+            if (_pos > 0) {
+                if (_marking) {
+                    hashInput();
                 }
+                System.arraycopy(_buf, _pos, _buf, 0, _lim - _pos);
+                _lim -= _pos;
+                _nonblank -= _pos;
+                _hashed = 0;
+                _pos = 0;
+            }
+            if (_lim == _buf.length) {
+                char[] buf = new char[2 * _buf.length];
+                System.arraycopy(_buf, 0, buf, 0, _lim);
+                _buf = buf;
+            }
+            int len;
+            try {
+                len = _reader.read(_buf, _lim, _buf.length - _lim);
+            } catch (IOException e) {
+                throw new FormatException(e.getMessage());
+            }
+            if (len == -1) {
+                _reader = null;
+            } else {
+                _lim += len;
+                _read += len;
             }
-        } catch (FormatException e) {
-            reportError(e.getMessage());
-            System.exit(1);
-        } catch (NumberFormatException e) {
-            reportError(e.getMessage());
-            System.exit(1);
         }
+        return true;
+    }
+
+    /** Add the characters before _pos not yet hashed to _hash. */
+    private void hashInput() {
+        _hash = Checkpoint.hash(_hash, _buf, _hashed, _pos - _hashed);
+        _hashed = _pos;
+    }
 
-        _out.close();
+    /** Returns true iff C is an ASCII letter, which may appear in the
+     *  name of a command. */
+    private static boolean isAlpha(int c) {
+        return ('a' <= c && c <= 'z') || ('A' <= c && c <= 'Z');
     }
 
-    /** Process \COMMAND{ARG} or (if ARG is null) \COMMAND.  Call the
-     *  appropriate methods in our Controller (_out). */
-    private void processCommand(String command, String arg) {
+    /** Returns true iff C is a blank or tab. */
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    /** Returns true iff C may appear in a segment of text. */
+    private static boolean isText(char c) {
+        switch (c) {
+        case ' ': case '\t': case '\r': case '\n':
+        case '\\': case '{': case '}':
+            return false;
+        default:
+            return true;
+        }
+    }
+
+    /** Process \COMMAND{ARG}, where ARG is the ARGLEN characters at
+     *  _buf[_arg], or (if ARGLEN is -1) \COMMAND.  Call the appropriate
+     *  methods in our Controller (_out). */
+    private void processCommand(String command, int argLen) {
+        String arg = command.equals("endnote") ? null : argument(argLen);
 
         switch (command) {
         case "indent":
@@ -184,24 +679,92 @@ class InputParser {
         case "nojustify":
             _out.setJustify(false);
             break;
+        case "optimalfit":
+            _out.setOptimalFit(true);
+            break;
+        case "nooptimalfit":
+            _out.setOptimalFit(false);
+            break;
         case "endnote":
-            _out.formatEndnote(arg);
+            if (argLen < 0) {
+                throw new FormatException("Badly formed command");
+            }
+            _out.formatEndnote(_buf, _arg, argLen);
             break;
 
         default:
-            reportError("unknown command: %s", command);
+            _out.errors().report("unknown command: %s", command);
             break;
         }
 
     }
 
-    /** My input source. */
-    private final Scanner _input;
+    /** My input source, or null once it is exhausted. */
+    private Reader _reader;
+
+    /** Buffered input.  Characters _buf[_pos .. _lim-1] have been read
+     *  but not yet processed. */
+    private char[] _buf;
+
+    /** Index in _buf of the start of the next token. */
+    private int _pos;
+
+    /** Index in _buf just past the last buffered character. */
+    private int _lim;
+
+    /** Index in _buf of a character known not to be Java whitespace, or
+     *  a value less than _pos if none is known. */
+    private int _nonblank = -1;
 
     /** The Controller to which I send input tokens. */
     private Controller _out;
 
-    /** A string to prepend to first word parsed. */
-    private String _prepend = "";
+    /** Where tokens are counted and stages timed: _out's statistics. */
+    private final FormatStats _stats;
+
+    /** True iff I parse the text of an endnote for an enclosing
+     *  InputParser. */
+    private boolean _nested;
+
+    /** True iff calls to _out are timed. */
+    private boolean _timed;
+
+    /** Numbers of tokens parsed and not yet added to _stats, indexed by
+     *  FormatStats.Token ordinal. */
+    private final long[] _tokens = new long[TOKENS.length];
+
+    /** The number of characters of input read since the last reset. */
+    private long _read;
+
+    /** Index in _buf of the argument of the last command read. */
+    private int _arg;
+
+    /** Characters to prepend to the first text parsed: the first
+     *  _prependLen characters of _prepend. */
+    private char[] _prepend = new char[0];
+
+    /** The number of characters in _prepend not yet sent. */
+    private int _prependLen;
+
+    /** True iff _out is told of each break between paragraphs, with the
+     *  hash of the input before it. */
+    private boolean _marking;
+
+    /** True iff _out may take the lines of paragraphs from a
+     *  LayoutCache. */
+    private boolean _caching;
+
+    /** True iff no segment of text has been processed since the start
+     *  of the input or the last break between paragraphs. */
+    private boolean _parStart;
+
+    /** True iff _out has asked for no more input. */
+    private boolean _stopped;
+
+    /** The hash of the input before _buf[_hashed]. */
+    private long _hash = Checkpoint.HASH_SEED;
+
+    /** Index in _buf of the first character not included in _hash. */
+    private int _hashed;
 
 }
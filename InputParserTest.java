@@ -0,0 +1,129 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of InputParsers.
+ *  @author Greg
+ */
+public class InputParserTest {
+
+    /** A Controller that records the calls made on it in LOG. */
+    private static class Recorder extends Controller {
+        Recorder() {
+            super(new PrintWriter(new StringWriter()));
+        }
+
+        @Override
+        void addText(String text) {
+            log.append("T(" + text + ")");
+        }
+
+        @Override
+        void addText(char[] buf, int off, int len) {
+            log.append("T(" + new String(buf, off, len) + ")");
+        }
+
+        @Override
+        void endWord() {
+            log.append("W");
+        }
+
+        @Override
+        void addNewline() {
+            log.append("N");
+        }
+
+        @Override
+        void endParagraph() {
+            log.append("P");
+        }
+
+        @Override
+        void formatEndnote(char[] buf, int off, int len) {
+            log.append("E(").append(buf, off, len).append(")");
+        }
+
+        @Override
+        void setTextWidth(int val) {
+            log.append("W=" + val);
+        }
+
+        @Override
+        void setFill(boolean on) {
+            log.append("F=" + on);
+        }
+
+        @Override
+        void close() {
+            log.append(".");
+        }
+
+        /** The calls made so far. */
+        private final StringBuilder log = new StringBuilder();
+    }
+
+    private String parse(String input) {
+        Recorder out = new Recorder();
+        new InputParser(new StringReader(input), out).process();
+        return out.log.toString();
+    }
+
+    @Test
+    public void testWords() {
+        assertEquals("T(Hello)WT(world)WNT(again)WWPT(x).",
+                     parse("Hello \tworld\r\nagain \n\n\r\nx"));
+    }
+
+    @Test
+    public void testEscapes() {
+        assertEquals("T(a)T({)T(b)T(\\)WT( )T(})T(c).",
+                     parse("a\\{b\\\\ \\ \\}c"));
+    }
+
+    @Test
+    public void testCommands() {
+        assertEquals("W=30T(x)F=falseWT(y)E(a {b} \\} c)T(.).",
+                     parse("\\textwidth{30}x\\nofill y"
+                           + "\\endnote{a {b} \\} c}."));
+    }
+
+    @Test
+    public void testBadArgument() {
+        assertEquals("E()T(bc).", parse("\\endnote{abc"));
+        assertEquals("E(\uD83D)T(x).", parse("\\endnote{\uD83D\uDE00x"));
+    }
+
+    @Test
+    public void testTrailingWhitespace() {
+        assertEquals("T(a)WT(\f)WT(b).", parse("a \f b \n\f\r \u3000\n"));
+    }
+
+    @Test
+    public void testPrepend() {
+        Recorder out = new Recorder();
+        char[] text = "x} \\{a b} y".toCharArray();
+        char[] ref = "[1] ".toCharArray();
+        new InputParser(out).parseEndnote(text, 2, 6, ref, ref.length);
+        assertEquals("WT([1] )T({)T(a)WT(b).", out.log.toString());
+    }
+
+    @Test
+    public void testLongInput() {
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 5000; i += 1) {
+            input.append("word").append(i).append("\\endnote{")
+                .append(i).append("}  ");
+            expected.append("T(word").append(i).append(")E(").append(i)
+                .append(")W");
+        }
+        expected.setLength(expected.length() - 1);
+        assertEquals(expected + ".", parse(input.toString()));
+    }
+
+}
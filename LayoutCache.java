@@ -0,0 +1,530 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A cache of the lines into which paragraphs have been formatted, keyed
+ *  by a 128-bit hash of each paragraph's text and of the LineAssembler
+ *  settings at its start.  Recently used paragraphs are kept in memory,
+ *  up to a given number of bytes.  Optionally, all paragraphs are also
+ *  stored in a directory of segment files, which are mapped into memory
+ *  and survive from one run to the next.  Paragraphs found there are
+ *  read from the mapped files each time, and not kept in memory as well,
+ *  since reading them is cheap and keeping them would only add to the
+ *  work of the garbage collector.  A LayoutCache may be shared by any
+ *  number of threads.
+ *
+ *  Each segment file has a fixed size and a header recording how much
+ *  of it is in use, so that it is never truncated while mapped.  A run
+ *  appends to the newest segment file until it is full, unless another
+ *  run is appending to it.  Only the newest segment files (MAX_SEGMENTS
+ *  by default) are kept when a cache is opened, and the rest are
+ *  deleted.  Paragraphs found in the older half of those kept are copied
+ *  to the segment being written, so that those still in use survive.
+ *  @author Greg
+ */
+public class LayoutCache {
+
+    /** Changed whenever the results of formatting a paragraph or the
+     *  layout of segment files change, so as to invalidate existing
+     *  caches. */
+    static final int VERSION = 5;
+
+    /** Size of each segment file, in bytes. */
+    static final int SEGMENT_SIZE = 1 << 26;
+
+    /** Default number of segment files kept. */
+    static final int MAX_SEGMENTS = 16;
+
+    /** A new LayoutCache that keeps up to MEMORYBYTES bytes of paragraphs
+     *  in memory, and nothing on disk. */
+    public LayoutCache(long memoryBytes) {
+        _memoryBytes = memoryBytes;
+        _dir = null;
+        _maxSegments = 0;
+    }
+
+    /** A new LayoutCache that keeps up to MEMORYBYTES bytes of paragraphs
+     *  in memory, and all paragraphs in segment files in DIR, which is
+     *  created if necessary.  Paragraphs already stored in DIR are
+     *  available at once. */
+    public LayoutCache(long memoryBytes, File dir) throws IOException {
+        this(memoryBytes, dir, MAX_SEGMENTS);
+    }
+
+    /** A new LayoutCache, as above, that keeps only the newest
+     *  MAXSEGMENTS (at least 2) of the segment files in DIR. */
+    LayoutCache(long memoryBytes, File dir, int maxSegments)
+        throws IOException {
+        _memoryBytes = memoryBytes;
+        _dir = dir;
+        _maxSegments = maxSegments;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create directory " + dir);
+        }
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("cannot list directory " + dir);
+        }
+        Arrays.sort(files);
+        List<File> segments = new ArrayList<File>();
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(SEGMENT_PREFIX)
+                && name.endsWith(SEGMENT_SUFFIX)) {
+                segments.add(file);
+                _segmentNumber = Math.max(_segmentNumber,
+                                          segmentNumber(file) + 1);
+            }
+        }
+        while (segments.size() > maxSegments) {
+            segments.remove(0).delete();
+        }
+        int last = segments.size() - 1;
+        while (last >= 0 && !current(segments.get(last))) {
+            last -= 1;
+        }
+        for (int i = 0; i <= last; i += 1) {
+            if (i == last || current(segments.get(i))) {
+                openSegment(segments.get(i), i == last);
+            }
+        }
+    }
+
+    /** Returns the number of paragraphs found in the cache. */
+    public synchronized long hits() {
+        return _hits;
+    }
+
+    /** Returns the number of paragraphs not found in the cache. */
+    public synchronized long misses() {
+        return _misses;
+    }
+
+    /** Returns the number of paragraphs found on disk but not in
+     *  memory. */
+    public synchronized long diskHits() {
+        return _diskHits;
+    }
+
+    /** Returns the number of bytes of paragraphs held in memory. */
+    public synchronized long memoryUsed() {
+        return _memoryUsed;
+    }
+
+    /** Stop writing the current segment file, if any, so that other runs
+     *  may append to it.  The cache may not be used afterwards. */
+    public synchronized void close() throws IOException {
+        _out = null;
+        if (_outChannel != null) {
+            _outChannel.close();
+            _outChannel = null;
+        }
+        _segments.clear();
+        _index.clear();
+        _memory.clear();
+    }
+
+    /** Returns the formatted paragraph with key KEY, or null if there is
+     *  none. */
+    synchronized Entry get(Key key) {
+        Entry entry = _memory.get(key);
+        if (entry == null) {
+            Long loc = _index.get(key);
+            if (loc != null) {
+                entry = read(loc);
+                _diskHits += 1;
+                if ((int) (loc >>> 32) < _segments.size() - _maxSegments / 2) {
+                    store(key, entry);
+                }
+            }
+        }
+        if (entry == null) {
+            _misses += 1;
+        } else {
+            _hits += 1;
+        }
+        return entry;
+    }
+
+    /** Store ENTRY as the formatted paragraph with key KEY. */
+    synchronized void put(Key key, Entry entry) {
+        if (_memory.containsKey(key)) {
+            return;
+        }
+        remember(key, entry);
+        if (_dir != null && !_index.containsKey(key)) {
+            store(key, entry);
+        }
+    }
+
+    /** Returns the key for a paragraph whose settings at its start are
+     *  SETTINGS and whose text is the LEN characters at CHARS[OFF]. */
+    static Key key(int[] settings, char[] chars, int off, int len) {
+        long h1 = 0x9E3779B97F4A7C15L ^ VERSION;
+        long h2 = 0xC2B2AE3D27D4EB4FL;
+        for (int v : settings) {
+            h1 = Long.rotateLeft((h1 ^ v) * M1, 29);
+            h2 = Long.rotateLeft((h2 ^ v) * M2, 31);
+        }
+        int end = off + len;
+        int i;
+        for (i = off; i + 4 <= end; i += 4) {
+            long v = chars[i] | (long) chars[i + 1] << 16
+                | (long) chars[i + 2] << 32 | (long) chars[i + 3] << 48;
+            h1 = Long.rotateLeft((h1 ^ v) * M1, 29);
+            h2 = Long.rotateLeft((h2 ^ v) * M2, 31);
+        }
+        for (; i < end; i += 1) {
+            h1 = Long.rotateLeft((h1 ^ chars[i]) * M1, 29);
+            h2 = Long.rotateLeft((h2 ^ chars[i]) * M2, 31);
+        }
+        return new Key(mix(h1 ^ len), mix(h2 ^ h1 ^ len));
+    }
+
+    /** Returns a thorough scrambling of the bits of H. */
+    private static long mix(long h) {
+        h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+        h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return h ^ (h >>> 33);
+    }
+
+    /** Add ENTRY with key KEY to the paragraphs in memory, discarding the
+     *  least recently used ones as needed to stay within budget. */
+    private void remember(Key key, Entry entry) {
+        long size = entry.size();
+        if (size > _memoryBytes) {
+            return;
+        }
+        _memory.put(key, entry);
+        _memoryUsed += size;
+        Iterator<Entry> entries = _memory.values().iterator();
+        while (_memoryUsed > _memoryBytes) {
+            _memoryUsed -= entries.next().size();
+            entries.remove();
+        }
+    }
+
+    /** Returns true iff FILE is a complete segment file of this
+     *  VERSION. */
+    private static boolean current(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                continue;
+            }
+            return !header.hasRemaining() && header.getInt(0) == MAGIC
+                && header.getInt(4) == VERSION
+                && channel.size() == SEGMENT_SIZE;
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Map the segment file FILE, which is current, and index the
+     *  paragraphs in it.  If NEWEST, it is the newest of those kept, and
+     *  is written from now on if no other run is writing it. */
+    private void openSegment(File file, boolean newest) throws IOException {
+        if (newest) {
+            FileChannel channel =
+                FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                                 StandardOpenOption.WRITE);
+            if (lock(channel)) {
+                _outChannel = channel;
+                _out = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                   SEGMENT_SIZE);
+                _segments.add(_out.duplicate());
+                _out.position(index(_segments.size() - 1, _out));
+                return;
+            }
+            channel.close();
+        }
+        FileChannel channel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ);
+        try {
+            ByteBuffer seg = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                                         SEGMENT_SIZE);
+            _segments.add(seg);
+            index(_segments.size() - 1, seg);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /** Returns true iff CHANNEL has been locked, so that this run alone
+     *  writes to it until it is closed. */
+    private static boolean lock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            return false;
+        }
+    }
+
+    /** Index the complete records in SEG, which is segment number N, and
+     *  return the offset just past the last. */
+    private int index(int n, ByteBuffer seg) {
+        int used = seg.getInt(USED_OFFSET);
+        if (used > seg.limit()) {
+            used = HEADER_SIZE;
+        }
+        int pos = HEADER_SIZE;
+        while (pos + 4 <= used) {
+            int len = seg.getInt(pos);
+            if (len < KEY_SIZE || len > used - pos - 4) {
+                break;
+            }
+            Key key = new Key(seg.getLong(pos + 4), seg.getLong(pos + 12));
+            _index.put(key, (long) n << 32 | pos);
+            pos += 4 + len;
+        }
+        return pos;
+    }
+
+    /** Returns the number in the name of segment file FILE, or -1. */
+    private static int segmentNumber(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                                                   name.length()
+                                                   - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** Returns the paragraph stored at location LOC in the segment
+     *  files (a segment number and offset). */
+    private Entry read(long loc) {
+        ByteBuffer seg = _segments.get((int) (loc >>> 32)).duplicate();
+        int pos = (int) loc;
+        int end = pos + 4 + seg.getInt(pos);
+        pos += 4 + KEY_SIZE;
+        String[] lines = new String[seg.getInt(pos)];
+        int words = seg.getInt(pos + 4);
+        pos += 8;
+        int[] lengths = new int[lines.length];
+        for (int i = 0; i < lines.length; i += 1) {
+            lengths[i] = seg.getInt(pos);
+            pos += 4;
+        }
+        char[] text = new char[(end - pos) / 2];
+        seg.position(pos);
+        seg.asCharBuffer().get(text);
+        int start = 0;
+        for (int i = 0; i < lines.length; i += 1) {
+            lines[i] = new String(text, start, lengths[i]);
+            start += lengths[i];
+        }
+        return new Entry(lines, words);
+    }
+
+    /** Append ENTRY with key KEY to the current segment file, as for
+     *  write, reporting errors as FormatExceptions. */
+    private void store(Key key, Entry entry) {
+        try {
+            write(key, entry);
+        } catch (IOException e) {
+            throw new FormatException("cannot write layout cache: "
+                                      + e.getMessage());
+        }
+    }
+
+    /** Append ENTRY with key KEY to the current segment file, starting a
+     *  new one if needed, and then record the new length of the file in
+     *  its header. */
+    private void write(Key key, Entry entry) throws IOException {
+        int len = entry.recordSize();
+        if (HEADER_SIZE + 4 + len > SEGMENT_SIZE) {
+            return;
+        }
+        if (_out == null || _out.remaining() < 4 + len) {
+            newSegment();
+        }
+        int start = _out.position();
+        _out.position(start + 4);
+        _out.putLong(key.hi);
+        _out.putLong(key.lo);
+        _out.putInt(entry.lines.length);
+        _out.putInt(entry.words);
+        for (String line : entry.lines) {
+            _out.putInt(line.length());
+        }
+        CharBuffer text = _out.asCharBuffer();
+        for (String line : entry.lines) {
+            text.put(line);
+        }
+        _out.position(_out.position() + 2 * text.position());
+        _out.putInt(start, len);
+        _out.putInt(USED_OFFSET, _out.position());
+        _index.put(key, (long) (_segments.size() - 1) << 32 | start);
+    }
+
+    /** Stop writing the current segment file, if any, and start a new
+     *  one. */
+    private void newSegment() throws IOException {
+        if (_outChannel != null) {
+            _outChannel.close();
+        }
+        while (true) {
+            File file = new File(_dir, String.format("%s%08d%s",
+                                                     SEGMENT_PREFIX,
+                                                     _segmentNumber,
+                                                     SEGMENT_SUFFIX));
+            _segmentNumber += 1;
+            try {
+                _outChannel = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.CREATE_NEW,
+                                               StandardOpenOption.READ,
+                                               StandardOpenOption.WRITE);
+                break;
+            } catch (FileAlreadyExistsException e) {
+                continue;
+            }
+        }
+        lock(_outChannel);
+        _out = _outChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                               SEGMENT_SIZE);
+        _out.putInt(MAGIC);
+        _out.putInt(VERSION);
+        _out.putInt(HEADER_SIZE);
+        _segments.add(_out.duplicate());
+    }
+
+    /** A 128-bit hash identifying a paragraph and its settings. */
+    static final class Key {
+
+        /** The key whose bits are HI and LO. */
+        Key(long hi, long lo) {
+            this.hi = hi;
+            this.lo = lo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hi == other.hi && lo == other.lo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) lo;
+        }
+
+        /** The bits of the key. */
+        private final long hi, lo;
+    }
+
+    /** The result of formatting a paragraph: its lines, not including
+     *  the paragraph skip before them, and the number of words in
+     *  them. */
+    static final class Entry {
+
+        /** The paragraph whose lines, none of them null, are LINES, and
+         *  contain WORDS words. */
+        Entry(String[] lines, int words) {
+            this.lines = lines;
+            this.words = words;
+        }
+
+        /** Returns the approximate number of bytes of memory used. */
+        long size() {
+            long size = 64 + 4 * lines.length;
+            for (String line : lines) {
+                size += 48 + line.length();
+            }
+            return size;
+        }
+
+        /** Returns the size of my record in a segment file, not counting
+         *  its length. */
+        int recordSize() {
+            long size = KEY_SIZE + 8 + 4 * lines.length;
+            for (String line : lines) {
+                size += 2 * line.length();
+            }
+            return (int) Math.min(size, Integer.MAX_VALUE);
+        }
+
+        /** The lines of the paragraph. */
+        final String[] lines;
+        /** The number of words in LINES. */
+        final int words;
+    }
+
+    /** Multipliers for hashing. */
+    private static final long
+        M1 = 0x87C37B91114253D5L, M2 = 0x4CF5AD432745937FL;
+
+    /** Identifies segment files. */
+    private static final int MAGIC = 0x74363143;
+
+    /** Size of the header of a segment file: MAGIC, VERSION, and, at
+     *  USED_OFFSET, the number of bytes of the file in use. */
+    private static final int HEADER_SIZE = 12, USED_OFFSET = 8;
+
+    /** Size of a key in a segment file. */
+    private static final int KEY_SIZE = 16;
+
+    /** Names of segment files are SEGMENT_PREFIX, a number, and
+     *  SEGMENT_SUFFIX. */
+    private static final String SEGMENT_PREFIX = "layout-",
+        SEGMENT_SUFFIX = ".seg";
+
+    /** Maximum number of bytes of paragraphs kept in memory. */
+    private final long _memoryBytes;
+
+    /** Bytes of paragraphs in memory. */
+    private long _memoryUsed;
+
+    /** Paragraphs in memory, least recently used first. */
+    private final LinkedHashMap<Key, Entry> _memory =
+        new LinkedHashMap<Key, Entry>(1024, 0.75f, true);
+
+    /** Directory of segment files, or null. */
+    private final File _dir;
+
+    /** The number of segment files kept when the cache is opened. */
+    private final int _maxSegments;
+
+    /** The mapped segment files, oldest first. */
+    private final List<ByteBuffer> _segments = new ArrayList<ByteBuffer>();
+
+    /** Locations of paragraphs in _segments: segment number in the upper
+     *  32 bits and offset in the lower. */
+    private final Map<Key, Long> _index = new HashMap<Key, Long>();
+
+    /** Number for the next new segment file. */
+    private int _segmentNumber;
+
+    /** The segment file being written, which this run has locked, or
+     *  null. */
+    private FileChannel _outChannel;
+
+    /** The mapped contents of _outChannel, positioned at the end of its
+     *  last record. */
+    private MappedByteBuffer _out;
+
+    /** Counts of lookups. */
+    private long _hits, _misses, _diskHits;
+
+}
@@ -0,0 +1,139 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of LayoutCaches.
+ *  @author Greg
+ */
+public class LayoutCacheTest {
+
+    private static final int[] SETTINGS = { 72, 0, 3, 1, 1, 1, 1, 0 };
+
+    private LayoutCache.Key key(String text) {
+        char[] chars = ("  " + text).toCharArray();
+        return LayoutCache.key(SETTINGS, chars, 2, chars.length - 2);
+    }
+
+    private LayoutCache.Entry entry(String... lines) {
+        return new LayoutCache.Entry(lines, 2 * lines.length);
+    }
+
+    @Test
+    public void testKeys() {
+        assertEquals(key("some text"), key("some text"));
+        assertFalse(key("some text").equals(key("some test")));
+        int[] other = SETTINGS.clone();
+        other[4] = 0;
+        char[] chars = "some text".toCharArray();
+        assertFalse(key("some text").equals(
+            LayoutCache.key(other, chars, 0, chars.length)));
+    }
+
+    @Test
+    public void testMemory() {
+        LayoutCache cache = new LayoutCache(1000);
+        assertNull(cache.get(key("a")));
+        cache.put(key("a"), entry("line", "a"));
+        LayoutCache.Entry a = cache.get(key("a"));
+        assertArrayEquals(new String[] { "line", "a" }, a.lines);
+        for (int i = 0; i < 100; i += 1) {
+            cache.put(key("x" + i), entry("line " + i));
+        }
+        assertTrue(cache.memoryUsed() <= 1000);
+        assertNull(cache.get(key("a")));
+        assertNotNull(cache.get(key("x99")));
+        assertEquals(2, cache.hits());
+        assertEquals(2, cache.misses());
+    }
+
+    @Test
+    public void testReport() {
+        LayoutCache cache = new LayoutCache(1000);
+        cache.get(key("a"));
+        cache.put(key("a"), entry("a"));
+        cache.get(key("a"));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new FormatStats().report(new PrintStream(bytes, true), cache);
+        assertTrue(bytes.toString().contains(
+            "cache:     1 memory hits, 0 disk hits, 1 misses"));
+        bytes.reset();
+        new FormatStats().report(new PrintStream(bytes, true), null);
+        assertFalse(bytes.toString().contains("cache:"));
+    }
+
+    @Test
+    public void testDisk() throws IOException {
+        File dir = Files.createTempDirectory("layout").toFile();
+        try {
+            LayoutCache cache = new LayoutCache(100, dir);
+            for (int i = 0; i < 50; i += 1) {
+                cache.put(key("p" + i), entry("first " + i, "", "last"));
+            }
+            cache.close();
+
+            cache = new LayoutCache(1 << 20, dir);
+            LayoutCache.Entry p7 = cache.get(key("p7"));
+            assertArrayEquals(new String[] { "first 7", "", "last" },
+                              p7.lines);
+            assertEquals(6, p7.words);
+            assertNull(cache.get(key("q")));
+            assertNotNull(cache.get(key("p7")));
+            assertEquals(2, cache.diskHits());
+            assertEquals(0, cache.memoryUsed());
+            cache.put(key("q"), entry("q"));
+            cache.close();
+
+            cache = new LayoutCache(1 << 20, dir);
+            assertNotNull(cache.get(key("q")));
+            assertNotNull(cache.get(key("p49")));
+            cache.close();
+            assertEquals(1, dir.listFiles().length);
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSegments() throws IOException {
+        File dir = Files.createTempDirectory("layout").toFile();
+        try {
+            LayoutCache cache = new LayoutCache(100, dir);
+            cache.put(key("p"), entry("p"));
+            LayoutCache other = new LayoutCache(100, dir);
+            assertNotNull(other.get(key("p")));
+            other.put(key("q"), entry("q"));
+            other.close();
+            cache.close();
+            assertEquals(2, dir.listFiles().length);
+
+            for (int i = 0; i < 3; i += 1) {
+                new File(dir, "layout-9000000" + i + ".seg").createNewFile();
+            }
+            cache = new LayoutCache(100, dir, 4);
+            assertNotNull(cache.get(key("q")));
+            assertNull(cache.get(key("p")));
+            cache.put(key("r"), entry("r"));
+            cache.close();
+            assertEquals(4, dir.listFiles().length);
+            assertFalse(new File(dir, "layout-00000000.seg").exists());
+        } finally {
+            delete(dir);
+        }
+    }
+
+    /** Delete directory DIR and the files in it. */
+    private void delete(File dir) {
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+}
@@ -1,7 +1,10 @@
 package tex61;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 
 /** An object that receives a sequence of words of text and formats
@@ -10,12 +13,72 @@ import java.util.List;
  */
 class LineAssembler {
 
+    /** Initial size of the buffer of characters in words. */
+    private static final int INITIAL_CHARS = 256;
+
+    /** Initial number of words for which optimal line breaking has
+     *  room. */
+    private static final int INITIAL_WORDS = 32;
+
+    /** Largest buffer of characters in words kept after a reset. */
+    private static final int MAX_RETAINED_CHARS = 1 << 16;
+
+    /** Bits of the flags written by writeState. */
+    private static final int
+        FILL = 1, JUSTIFY = 2, OPTIMAL = 4, NEW_PARAGRAPH = 8,
+        FIRST_LINE = 16;
+
+    /** A supply of blanks for padding lines. */
+    private static final char[] BLANKS = new char[64];
+
+    static {
+        Arrays.fill(BLANKS, ' ');
+    }
+
     /** A new, empty line assembler with default settings of all
      *  parameters, sending finished lines to PAGECOLLECTOR.
      *  ENDNOTE true iff we are in endnote mode. */
     LineAssembler(PageAssembler pagecollector, boolean endnote) {
+        this(pagecollector, endnote, pagecollector.stats());
+    }
+
+    /** A new, empty line assembler, as above, that counts words and
+     *  lines in STATS. */
+    LineAssembler(PageAssembler pagecollector, boolean endnote,
+                  FormatStats stats) {
         _pagecollector = pagecollector;
-        if (endnote) {
+        _endnote = endnote;
+        _stats = stats;
+        init();
+    }
+
+    /** Return to the state of a new LineAssembler, discarding any words
+     *  being accumulated. */
+    void reset() {
+        init();
+    }
+
+    /** Set all fields to their initial values, keeping the buffer of
+     *  characters if it is not too large. */
+    private void init() {
+        if (_chars.length > MAX_RETAINED_CHARS) {
+            _chars = new char[INITIAL_CHARS];
+        }
+        _charsLen = _numWords = 0;
+        _parWords = _parLines = 0;
+        _parEvent = null;
+        _captureKey = null;
+        _captureCache = null;
+        _captured.clear();
+        beginParagraph();
+        _newParagraph = _firstline = true;
+        _fill = _justify = true;
+        _optimal = false;
+        if (_cost.length > MAX_RETAINED_CHARS) {
+            _cost = new long[INITIAL_WORDS];
+            _breaks = new int[INITIAL_WORDS];
+        }
+        if (_endnote) {
             _textWidth = Defaults.ENDNOTE_TEXT_WIDTH;
             _parSkip = Defaults.ENDNOTE_PARAGRAPH_SKIP;
             _parIndentation = Defaults.ENDNOTE_PARAGRAPH_INDENTATION;
@@ -28,24 +91,120 @@ class LineAssembler {
         }
     }
 
+    /** Take the settings of OTHER, which must be between paragraphs, and
+     *  continue as if at least one line had already been formatted (so
+     *  that the next paragraph is preceded by a paragraph skip). */
+    void resume(LineAssembler other) {
+        _fill = other._fill;
+        _justify = other._justify;
+        _optimal = other._optimal;
+        _textWidth = other._textWidth;
+        _indentation = other._indentation;
+        _parIndentation = other._parIndentation;
+        _parSkip = other._parSkip;
+        _hyphenator = other._hyphenator;
+        _newParagraph = true;
+        _firstline = false;
+    }
+
+    /** Number of values stored by getSettings. */
+    static final int NUM_SETTINGS = 8;
+
+    /** Store my settings that affect the formatting of paragraphs in
+     *  SETTINGS[0 .. NUM_SETTINGS - 1]. */
+    void getSettings(int[] settings) {
+        settings[0] = _textWidth;
+        settings[1] = _indentation;
+        settings[2] = _parIndentation;
+        settings[3] = _parSkip;
+        settings[4] = _fill ? 1 : 0;
+        settings[5] = _justify ? 1 : 0;
+        settings[6] = _optimal ? 1 : 0;
+        settings[7] = _hyphenator == null ? 0 : _hyphenator.id();
+    }
+
+    /** Write my settings and my position between paragraphs to OUT, in
+     *  the form read by readState.  Any words being accumulated are not
+     *  included. */
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(_textWidth);
+        out.writeInt(_indentation);
+        out.writeInt(_parIndentation);
+        out.writeInt(_parSkip);
+        out.writeByte((_fill ? FILL : 0) | (_justify ? JUSTIFY : 0)
+                      | (_optimal ? OPTIMAL : 0)
+                      | (_newParagraph ? NEW_PARAGRAPH : 0)
+                      | (_firstline ? FIRST_LINE : 0));
+    }
+
+    /** Take the settings and position written to IN by writeState,
+     *  discarding any words being accumulated. */
+    void readState(DataInput in) throws IOException {
+        init();
+        _textWidth = in.readInt();
+        _indentation = in.readInt();
+        _parIndentation = in.readInt();
+        _parSkip = in.readInt();
+        int flags = in.readByte();
+        _fill = (flags & FILL) != 0;
+        _justify = (flags & JUSTIFY) != 0;
+        _optimal = (flags & OPTIMAL) != 0;
+        _newParagraph = (flags & NEW_PARAGRAPH) != 0;
+        _firstline = (flags & FIRST_LINE) != 0;
+    }
+
+    /** Returns the statistics in which I count words and lines. */
+    FormatStats stats() {
+        return _stats;
+    }
+
     /** Add TEXT to the word currently being built. */
     void addText(String text) {
-        _word = _word + text;
+        int len = text.length();
+        reserve(len);
+        text.getChars(0, len, _chars, _charsLen);
+        _charsLen += len;
+    }
+
+    /** Add the LEN characters starting at BUF[OFF] to the word currently
+     *  being built. */
+    void addText(char[] buf, int off, int len) {
+        reserve(len);
+        System.arraycopy(buf, off, _chars, _charsLen, len);
+        _charsLen += len;
     }
 
     /** Finish the current word, if any, and add to words being accumulated. */
     void finishWord() {
-        if (!_word.equals("")) {
-            addWord(_word);
-            _word = "";
+        if (_charsLen > _starts[_numWords]) {
+            placeWord();
         }
     }
 
     /** Add WORD to the formatted text. */
     void addWord(String word) {
+        addText(word);
+        placeWord();
+    }
+
+    /** Add the current word to the words being accumulated, first
+     *  emitting the current line if the word does not fit on it. */
+    private void placeWord() {
+        int start = _starts[_numWords];
+        int wordLength = DisplayWidth.width(_chars, start, _charsLen - start);
+        if (_optimal && _fill) {
+            pushWord(wordLength);
+            return;
+        }
+        if (_fill && _hyphenator != null) {
+            for (int rest = hyphenate(wordLength); rest >= 0;
+                 rest = hyphenate(wordLength)) {
+                wordLength = rest;
+            }
+        }
         int ind = 0;
-        int spc = _words.size() - 1;
-        int lngth = lineLength(_words);
+        int spc = _numWords - 1;
+        int lngth = _widths[_numWords];
 
         if (_fill) {
             if (_newParagraph) {
@@ -55,33 +214,140 @@ class LineAssembler {
             }
 
             lngth = lngth + ind;
-            if ((_textWidth < lngth + word.length() + 1 + spc)
-                    & _words.size() > 0) {
+            if ((_textWidth < lngth + wordLength + 1 + spc)
+                    & _numWords > 0) {
                 if (_fill & _justify) {
                     spc = Math.min(_textWidth - lngth, 3 * spc);
                 }
 
 
                 emitLine(ind, spc);
-                _words.add(word);
+                pushWord(wordLength);
 
 
-            } else if ((_textWidth < lngth + word.length() + 1 + spc)
-                & _words.size() == 0) {
-                _words.add(word);
+            } else if ((_textWidth < lngth + wordLength + 1 + spc)
+                & _numWords == 0) {
+                pushWord(wordLength);
 
                 emitLine(ind, 0);
 
             } else {
-                _words.add(word);
+                pushWord(wordLength);
             }
         } else {
-            _words.add(word);
+            pushWord(wordLength);
         }
 
 
     }
 
+    /** If the current word, which is WIDTH columns wide, does not fit on
+     *  the current line, but my Hyphenator allows it to be hyphenated at
+     *  a point such that the part before the point, with a hyphen, fits,
+     *  then split it at the last such point, add the first part to the
+     *  accumulated words, emit the line, keep the rest as the current
+     *  word, and return its width.  Otherwise, return -1, doing
+     *  nothing. */
+    private int hyphenate(int width) {
+        int start = _starts[_numWords];
+        int ind = _indentation;
+        if (_newParagraph) {
+            ind += _parIndentation;
+        }
+        int used = ind + _widths[_numWords] + _numWords;
+        if (used + width <= _textWidth) {
+            return -1;
+        }
+        int len = _charsLen - start;
+        int max = _textWidth - used - 1;
+        int point = _hyphenator.lastPoint(_chars, start, len, max);
+        int before = DisplayWidth.width(_chars, start, point);
+        while (point > 0 && before > max) {
+            point = _hyphenator.lastPoint(_chars, start, len, point - 1);
+            before = DisplayWidth.width(_chars, start, point);
+        }
+        if (point == 0) {
+            return -1;
+        }
+        reserve(1);
+        int split = start + point;
+        System.arraycopy(_chars, split, _chars, split + 1,
+                         _charsLen - split);
+        _chars[split] = '-';
+        _charsLen += 1;
+        int end = _charsLen;
+        _charsLen = split + 1;
+        pushWord(before + 1);
+        _charsLen = end;
+
+        int spc = _numWords - 1;
+        if (_justify) {
+            spc = Math.min(_textWidth - ind - _widths[_numWords], 3 * spc);
+        }
+        emitLine(ind, spc);
+        return width - before;
+    }
+
+    /** Make the current word, which is WIDTH columns wide, the last of
+     *  the words being accumulated. */
+    private void pushWord(int width) {
+        _numWords += 1;
+        if (_numWords == _starts.length) {
+            _starts = Arrays.copyOf(_starts, 2 * _starts.length);
+            _widths = Arrays.copyOf(_widths, 2 * _widths.length);
+        }
+        _starts[_numWords] = _charsLen;
+        _widths[_numWords] = _widths[_numWords - 1] + width;
+    }
+
+    /** Make room for N more characters in _chars. */
+    private void reserve(int n) {
+        if (_charsLen + n > _chars.length) {
+            _chars = Arrays.copyOf(_chars,
+                                   Math.max(_charsLen + n, 2 * _chars.length));
+        }
+    }
+
+    /** Returns true iff each paragraph has been broken into lines and
+     *  sent to my PageAssembler by the time the next begins, so that
+     *  the pages of the output are known in order as the text is
+     *  received. */
+    boolean ordered() {
+        return true;
+    }
+
+    /** Returns true iff no words of the current paragraph have been
+     *  received, and it is to be filled with lines broken optimally or
+     *  hyphenated, so that its lines are costly enough to be worth
+     *  keeping in a LayoutCache. */
+    boolean cacheable() {
+        return _charsLen == 0 && _numWords == 0 && _newParagraph && _fill
+            && (_optimal || _hyphenator != null);
+    }
+
+    /** Add the lines of ENTRY, a paragraph formatted earlier with my
+     *  current settings, just as if its words had been received and the
+     *  paragraph then ended.  Only where cacheable() is true. */
+    void addLines(LayoutCache.Entry entry) {
+        long start = _stats.start();
+        beginLines();
+        for (String line : entry.lines) {
+            _pagecollector.addLine(line);
+        }
+        _stats.countLines(entry.lines.length);
+        _stats.countWords(entry.words);
+        _parLines += entry.lines.length;
+        _parWords += entry.words;
+        _stats.stop(FormatStats.Stage.LINES, start);
+    }
+
+    /** Add the lines of the paragraph starting now to CACHE under KEY
+     *  when it ends.  Only where cacheable() is true. */
+    void cacheParagraph(LayoutCache cache, LayoutCache.Key key) {
+        _captureCache = cache;
+        _captureKey = key;
+    }
+
     /** Add LINE to our output, with no preceding paragraph skip.  There must
      *  not be an unfinished line pending. */
     void addLine(String line) {
@@ -90,42 +356,84 @@ class LineAssembler {
 
     /** Set the current indentation to VAL. VAL >= 0. */
     void setIndentation(int val) {
+        settle();
         _indentation = val;
     }
 
     /** Set the current paragraph indentation to VAL. VAL >= 0. */
     void setParIndentation(int val) {
+        settle();
         _parIndentation = val;
     }
 
     /** Set the text width to VAL, where VAL >= 0. */
     void setTextWidth(int val) {
+        settle();
         _textWidth = val;
     }
 
     /** Iff ON, set fill mode. */
     void setFill(boolean on) {
+        settle();
         _fill = on;
     }
 
     /** Iff ON, set justify mode (which is active only when filling is
      *  also on). */
     void setJustify(boolean on) {
+        settle();
         _justify = on;
     }
 
+    /** Iff ON, break filled paragraphs into lines so as to minimize their
+     *  total badness, rather than greedily. */
+    void setOptimalFit(boolean on) {
+        settle();
+        _optimal = on;
+    }
+
+    /** Hyphenate words that do not fit at the ends of lines filled
+     *  greedily with HYPHENATOR, or not at all if HYPHENATOR is null.
+     *  Lines broken optimally are not hyphenated.  Unlike the other
+     *  settings, this one is kept by reset. */
+    void setHyphenator(Hyphenator hyphenator) {
+        _hyphenator = hyphenator;
+    }
+
     /** Set paragraph skip to VAL.  VAL >= 0. */
     void setParSkip(int val) {
+        settle();
         _parSkip = val;
     }
 
+    /** Set the text height of the PageAssembler receiving my lines to VAL,
+     *  taking effect after all lines formatted so far.  VAL > 0. */
+    void setTextHeight(int val) {
+        settle();
+        _pagecollector.setTextHeight(val);
+    }
+
+    /** When breaking lines optimally, emit all but the last of the lines
+     *  of the words accumulated so far, so that they are formatted with
+     *  the current settings, just as they would be if broken greedily. */
+    private void settle() {
+        if (_optimal && _fill && _numWords > 1) {
+            breakOptimally(false);
+        }
+    }
+
+    /** Make sure that all lines formatted so far have been sent to the
+     *  PageAssembler. */
+    void flush() {
+    }
+
     /** Process the end of the current input line.  No effect if
      *  current line accumulator is empty or in fill mode.  Otherwise,
      *  adds a new complete line to the finished line queue and clears
      *  the line accumulator. */
     void newLine() {
-        if (!_fill & _words.size() > 0) {
-            int spaces = _words.size() - 1;
+        if (!_fill & _numWords > 0) {
+            int spaces = _numWords - 1;
             int ind = _indentation;
             if (_newParagraph) {
                 ind += _parIndentation;
@@ -142,13 +450,107 @@ class LineAssembler {
         outputLast();
 
         _newParagraph = true;
+        if (_captureKey != null) {
+            if (!_captured.isEmpty()) {
+                String[] lines = _captured.toArray(new String[0]);
+                _captureCache.put(_captureKey,
+                                  new LayoutCache.Entry(lines, _parWords));
+            }
+            _captureKey = null;
+            _captureCache = null;
+            _captured.clear();
+        }
+        if (_parWords > 0) {
+            recordParagraph();
+        }
+
+    }
+
+    /** Record a ParagraphEvent for the paragraph just ended, if events
+     *  are being recorded, and start timing the next paragraph. */
+    private void recordParagraph() {
+        ParagraphEvent event = _parEvent;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.words = _parWords;
+                event.lines = _parLines;
+                event.width = _textWidth;
+                event.endnote = _endnote;
+                event.commit();
+            }
+            _parEvent = null;
+        }
+        _parWords = _parLines = 0;
+        beginParagraph();
+    }
 
+    /** Start timing a paragraph, if ParagraphEvents are being
+     *  recorded. */
+    private void beginParagraph() {
+        ParagraphEvent event = new ParagraphEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            _parEvent = event;
+        }
     }
 
-    /** Transfer contents of _words to _pageassembler, adding INDENT characters
-     *  of indentation, and a total of SPACES spaces between words, evenly
-     *  distributed.  Assumes _words is not empty.  Clears _words. */
+    /** Transfer the accumulated words to _pageassembler, adding INDENT
+     *  characters of indentation, and a total of SPACES spaces between
+     *  words, evenly distributed.  Assumes there is at least one word.
+     *  Clears the accumulated words, leaving any current word. */
     private void emitLine(int indent, int spaces) {
+        emitWords(0, _numWords, indent, spaces);
+        discardWords(_numWords);
+    }
+
+    /** Transfer accumulated words FIRST through LAST - 1 to
+     *  _pageassembler as a line, adding INDENT characters of indentation,
+     *  and a total of SPACES spaces between words, evenly distributed.
+     *  Assumes FIRST < LAST. */
+    private void emitWords(int first, int last, int indent, int spaces) {
+        long start = _stats.start();
+        beginLines();
+
+        int numWords = last - first;
+
+        StringBuilder line = _line;
+        line.setLength(0);
+        line.ensureCapacity(_textWidth);
+        addSpaces(line, indent);
+        line.append(_chars, _starts[first],
+                    _starts[first + 1] - _starts[first]);
+
+        if (numWords > 1) {
+            long denom = 2L * (numWords - 1);
+            long step = 2L * spaces;
+            long numer = denom / 2;
+            int before = 0;
+            for (int i = first + 1; i < last; i += 1) {
+                numer += step;
+                int after = (int) (numer / denom);
+                addSpaces(line, after - before);
+                before = after;
+                line.append(_chars, _starts[i], _starts[i + 1] - _starts[i]);
+            }
+        }
+
+        String text = line.toString();
+        _pagecollector.addLine(text);
+        if (_captureKey != null) {
+            _captured.add(text);
+        }
+        _stats.countLines(1);
+        _stats.countWords(numWords);
+        _parLines += 1;
+        _parWords += numWords;
+        _stats.stop(FormatStats.Stage.LINES, start);
+    }
+
+    /** Before the first line of a paragraph, add the paragraph skip,
+     *  unless it is the first paragraph, and note that the paragraph has
+     *  begun. */
+    private void beginLines() {
         if (_newParagraph && !_firstline) {
             for (int i = 0; i < _parSkip; i += 1) {
                 addLine(null);
@@ -157,46 +559,114 @@ class LineAssembler {
         }
         _firstline = false;
         _newParagraph = false;
+    }
 
-        int numWords = _words.size();
-
-        String updated = addSpaces(_words.get(0), indent);
-        _words.remove(0);
-        _words.add(0, updated);
-        int sp;
+    /** Remove the first N accumulated words, keeping the rest and any
+     *  current word. */
+    private void discardWords(int n) {
+        int end = _starts[n];
+        int width = _widths[n];
+        System.arraycopy(_chars, end, _chars, 0, _charsLen - end);
+        _charsLen -= end;
+        _numWords -= n;
+        for (int i = 1; i <= _numWords; i += 1) {
+            _starts[i] = _starts[i + n] - end;
+            _widths[i] = _widths[i + n] - width;
+        }
+    }
 
-        for (int i = 1; i < numWords; i += 1) {
-            sp = numBlanks(i, spaces, numWords)
-                - numBlanks(i - 1, spaces, numWords);
-            updated = addSpaces(_words.get(i), sp);
-            _words.remove(i);
-            _words.add(i, updated);
+    /** Break the accumulated words into lines that minimize the total
+     *  badness of all lines but the last, where the badness of a line is
+     *  the square of the number of spaces by which its natural length
+     *  (with one space between words) falls short of the text width.
+     *  A line may exceed the text width only if it has a single word.
+     *  If ALL, emit all of the lines, the last without justification, as
+     *  at the end of a paragraph.  Otherwise, emit all but the last, and
+     *  keep its words.
+     *
+     *  Since a line of K words is at least 2K - 1 characters long, only
+     *  about half the text width of candidate lines end at each word, so
+     *  that the time taken is proportional to the number of words times
+     *  the text width, and the space to the number of words. */
+    private void breakOptimally(boolean all) {
+        int n = _numWords;
+        if (_cost.length <= n) {
+            int size = Math.max(n + 1, 2 * _cost.length);
+            _cost = new long[size];
+            _breaks = new int[size];
+        }
+        long[] cost = _cost;
+        int[] breaks = _breaks;
+        int[] widths = _widths;
+        int width = _textWidth;
+        int firstIndent = _indentation;
+        if (_newParagraph) {
+            firstIndent += _parIndentation;
         }
 
-        String line = "";
-        for (String word : _words) {
-            line += word;
+        int indent = _indentation;
+        cost[0] = 0;
+        for (int b = 1; b <= n; b += 1) {
+            int right = widths[b] + b - 1;
+            long best = Long.MAX_VALUE;
+            int bestStart = b - 1;
+            for (int a = b - 1; a >= 0; a -= 1) {
+                int length = right - widths[a] - a
+                    + (a == 0 ? firstIndent : indent);
+                long c = cost[a];
+                if (length > width) {
+                    if (a < b - 1) {
+                        break;
+                    }
+                } else if (b < n) {
+                    long slack = width - length;
+                    c += slack * slack;
+                }
+                if (c < best) {
+                    best = c;
+                    bestStart = a;
+                }
+            }
+            cost[b] = best;
+            breaks[b] = bestStart;
         }
 
-        _pagecollector.write(line);
-        _words.clear();
+        int end = -1;
+        for (int b = n; b > 0;) {
+            int next = breaks[b];
+            breaks[b] = end;
+            end = b;
+            b = next;
+        }
+        int a = 0;
+        for (int b = end; b != -1 && (all || breaks[b] != -1);
+             b = breaks[b]) {
+            int ind = _newParagraph ? firstIndent : _indentation;
+            int spaces = b - a - 1;
+            if (breaks[b] != -1 && _justify && b - a > 1) {
+                int length = ind + widths[b] - widths[a];
+                spaces = Math.max(spaces, Math.min(width - length,
+                                                   3 * spaces));
+            }
+            emitWords(a, b, ind, spaces);
+            a = b;
+        }
+        discardWords(a);
     }
 
     /** Returns the number of blanks between words 0 and K.
      * B is the total number of blanks, N the number of words. */
     int numBlanks(int k, int b, int n) {
-    	double kk = k;
-    	double bb = b;
-    	double nn = n;
-    	double dbl = .5 + ((kk * bb) / (nn - 1));
-    	return (int) dbl;
+        return (int) ((2L * k * b + n - 1) / (2L * (n - 1)));
     }
 
     /** Outputs the last line of a paragraph. */
     void outputLast() {
-        if (_words.size() > 0) {
+        if (_numWords > 0 && _optimal && _fill) {
+            breakOptimally(true);
+        } else if (_numWords > 0) {
             int ind = 0;
-            int sp = _words.size() - 1;
+            int sp = _numWords - 1;
             ind += _indentation;
 
             if (_newParagraph) {
@@ -207,31 +677,69 @@ class LineAssembler {
         }
     }
 
-
-    /** Returns the number of characters of the Strings in WORDS. */
-    private int lineLength(List<String> words) {
-        int count = 0;
-        for (String word : words) {
-            count += word.length();
-        }
-        return count;
-    }
-
-    /** Returns a string with N spaces added to beginning of STR,
-     * or STR if N < 1. */
-    private String addSpaces(String str, int n) {
+    /** Append N spaces to LINE, or nothing if N < 1. */
+    private static void addSpaces(StringBuilder line, int n) {
         while (n > 0) {
-            str = " " + str;
-            n -= 1;
+            int k = Math.min(n, BLANKS.length);
+            line.append(BLANKS, 0, k);
+            n -= k;
         }
-        return str;
     }
 
     /** Destination given in constructor for formatted lines. */
     private final PageAssembler _pagecollector;
 
-    /** The current word. */
-    private String _word = "";
+    /** Where words and lines are counted. */
+    private final FormatStats _stats;
+
+    /** True iff this assembler formats endnotes. */
+    private final boolean _endnote;
+
+    /** The characters of the words being accumulated, one after the
+     *  other, followed by those of the current word. */
+    private char[] _chars = new char[INITIAL_CHARS];
+
+    /** The number of characters in use in _chars. */
+    private int _charsLen;
+
+    /** Word K of the words being accumulated occupies _chars[_starts[K]
+     *  .. _starts[K + 1] - 1], and the current word starts at
+     *  _starts[_numWords].  In particular, _starts[_numWords] is the
+     *  total number of characters in the accumulated words. */
+    private int[] _starts = new int[32];
+
+    /** _widths[K] is the number of display columns (see DisplayWidth)
+     *  taken by the first K words being accumulated, measured once as
+     *  each word is finished. */
+    private int[] _widths = new int[32];
+
+    /** The number of words being accumulated. */
+    private int _numWords;
+
+    /** The line being emitted.  Reused for each line. */
+    private final StringBuilder _line = new StringBuilder();
+
+    /** The number of words in the lines of the current paragraph. */
+    private int _parWords;
+
+    /** The number of lines of the current paragraph. */
+    private int _parLines;
+
+    /** The event for the current paragraph, or null if events were not
+     *  being recorded when it started. */
+    private ParagraphEvent _parEvent;
+
+    /** Where the lines of the current paragraph are to be cached, or
+     *  null. */
+    private LayoutCache _captureCache;
+
+    /** The key under which the lines of the current paragraph are to be
+     *  cached, or null if they are not. */
+    private LayoutCache.Key _captureKey;
+
+    /** The lines of the current paragraph, when they are to be
+     *  cached. */
+    private final ArrayList<String> _captured = new ArrayList<String>();
 
     /** True iff we are doing the first line of a paragraph. */
     private boolean _newParagraph = true;
@@ -239,15 +747,28 @@ class LineAssembler {
     /** True iff this is the first line of the document. */
     private boolean _firstline = true;
 
-    /** List of words to be compiled to a line. */
-    private List<String> _words = new ArrayList<String>();
-
     /** True iff fill mode is on. */
     private boolean _fill = true;
 
     /** True iff justify mode is on. */
     private boolean _justify = true;
 
+    /** True iff filled paragraphs are broken into lines optimally. */
+    private boolean _optimal;
+
+    /** Hyphenates words that do not fit, or null. */
+    private Hyphenator _hyphenator;
+
+    /** When breaking optimally, _cost[k] is the least total badness of
+     *  lines containing the first k accumulated words. */
+    private long[] _cost = new long[INITIAL_WORDS];
+
+    /** When breaking optimally, the best line containing accumulated word
+     *  k - 1 as its last starts at word _breaks[k].  Afterwards, if a
+     *  line chosen ends at word k, the next ends at word _breaks[k], or
+     *  _breaks[k] is -1 if there is no next line. */
+    private int[] _breaks = new int[INITIAL_WORDS];
+
     /** The current text Width. */
     private int _textWidth = Defaults.TEXT_WIDTH;
 
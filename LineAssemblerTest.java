@@ -1,7 +1,9 @@
 package tex61;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -118,6 +120,18 @@ public class LineAssemblerTest {
         assertEquals(test1, pagecollector.accessPages());
     }
 
+    @Test
+    public void testAddTextSlices() {
+        char[] buf = "xxHubbayhubbazz".toCharArray();
+        lineassembler.addText(buf, 2, 5);
+        lineassembler.finishWord();
+        lineassembler.addText(buf, 8, 5);
+        lineassembler.addText("!");
+        lineassembler.endParagraph();
+
+        assertEquals("   Hubba hubba!", pagecollector.accessPages().get(0));
+    }
+
     @Test
     public void testNumBlanks() {
 
@@ -128,4 +142,115 @@ public class LineAssemblerTest {
         }
 
     }
+
+    @Test
+    public void testNumBlanksRounding() {
+        assertEquals(-1, lineassembler.numBlanks(1, -3, 3));
+        assertEquals(0, lineassembler.numBlanks(1, -2, 3));
+        assertEquals(0, lineassembler.numBlanks(2, -1, 3));
+        for (int n = 2; n < 30; n += 1) {
+            for (int b = -10; b < 100; b += 1) {
+                for (int k = 0; k < n; k += 1) {
+                    assertEquals((int) (.5 + ((double) k * b) / (n - 1)),
+                                 lineassembler.numBlanks(k, b, n));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOptimalFit() {
+        lineassembler.setTextWidth(6);
+        lineassembler.setParIndentation(0);
+        lineassembler.setJustify(false);
+        lineassembler.setOptimalFit(true);
+        for (String word : "aaa bb cc ddddd".split(" ")) {
+            lineassembler.addWord(word);
+        }
+        assertEquals(0, pagecollector.accessPages().size());
+        lineassembler.endParagraph();
+        assertEquals(Arrays.asList("aaa", "bb cc", "ddddd"),
+                     pagecollector.accessPages());
+    }
+
+    @Test
+    public void testOptimalFitRandom() {
+        Random rand = new Random(61);
+        for (int trial = 0; trial < 200; trial += 1) {
+            int width = 10 + rand.nextInt(40);
+            int[] lengths = new int[1 + rand.nextInt(150)];
+            for (int i = 0; i < lengths.length; i += 1) {
+                lengths[i] = 1 + rand.nextInt(trial % 2 == 0 ? 12 : 60);
+            }
+            List<String> ragged = optimalLines(lengths, width, false);
+            List<String> justified = optimalLines(lengths, width, true);
+            assertEquals(ragged.size(), justified.size());
+            int w = 0;
+            long badness = 0;
+            for (int k = 0; k < ragged.size(); k += 1) {
+                String line = ragged.get(k);
+                int ind = k == 0 ? 5 : 2;
+                String[] words = line.trim().split(" +");
+                assertEquals(words.length,
+                             justified.get(k).trim().split(" +").length);
+                for (String word : words) {
+                    assertEquals(lengths[w], word.length());
+                    w += 1;
+                }
+                assertTrue(line.length() <= width || words.length == 1);
+                if (k < ragged.size() - 1 && line.length() < width) {
+                    badness += (width - line.length())
+                        * (width - line.length());
+                }
+                assertEquals(ind, line.length() - line.trim().length());
+            }
+            assertEquals(lengths.length, w);
+            assertEquals(leastBadness(lengths, width), badness);
+        }
+    }
+
+    /** Returns the lines formed from words of the given LENGTHS in a
+     *  paragraph with text width WIDTH, indentation 2, and paragraph
+     *  indentation 3, broken optimally, and justified iff JUSTIFY. */
+    private static List<String> optimalLines(int[] lengths, int width,
+                                             boolean justify) {
+        PageAssembler pages = new PageCollector(new ArrayList<String>());
+        LineAssembler lines = new LineAssembler(pages, false);
+        lines.setTextWidth(width);
+        lines.setIndentation(2);
+        lines.setParIndentation(3);
+        lines.setJustify(justify);
+        lines.setOptimalFit(true);
+        for (int len : lengths) {
+            char[] word = new char[len];
+            Arrays.fill(word, 'x');
+            lines.addWord(new String(word));
+        }
+        lines.endParagraph();
+        return pages.accessPages();
+    }
+
+    /** Returns the least total badness of a paragraph of words of the
+     *  given LENGTHS, laid out as by optimalLines, by trying every
+     *  possible first line of each suffix of the paragraph. */
+    private static long leastBadness(int[] lengths, int width) {
+        int n = lengths.length;
+        long[] best = new long[n + 1];
+        for (int a = n - 1; a >= 0; a -= 1) {
+            best[a] = Long.MAX_VALUE;
+            int length = a == 0 ? 4 : 1;
+            for (int b = a + 1; b <= n; b += 1) {
+                length += lengths[b - 1] + 1;
+                if (length > width && b > a + 1) {
+                    break;
+                }
+                long cost = best[b];
+                if (b < n && length < width) {
+                    cost += (long) (width - length) * (width - length);
+                }
+                best[a] = Math.min(best[a], cost);
+            }
+        }
+        return best[0];
+    }
 }
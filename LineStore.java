@@ -0,0 +1,235 @@
+package tex61;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/** A List of lines kept compactly, without an object for each line.
+ *  The characters of all the lines are appended to one sequence of
+ *  bytes, held outside the Java heap in direct buffers (chunks) of
+ *  CHUNK_SIZE bytes, so that the text of a long document adds nothing
+ *  to the work of the garbage collector.  Each line is recorded only by
+ *  where it ends in that sequence (a long) and two bits: whether it
+ *  starts a page, and whether it is wide.  A line whose characters are
+ *  all Latin-1 takes one byte for each; a wide line takes two.  A line
+ *  may continue from one chunk into the next.
+ *
+ *  As a List, a line that starts a page begins with a form feed, which
+ *  is not stored.  Getting a line as a String creates one; getChars
+ *  copies its characters without allocating anything, and is what a
+ *  PagePrinter uses.  Only add and clear modify the list.
+ *  @author Greg
+ */
+class LineStore extends AbstractList<String> {
+
+    /** The number of bytes in each chunk.  A power of 2. */
+    static final int CHUNK_SIZE = 1 << 16;
+
+    /** Append LINE, which starts a new page iff NEWPAGE. */
+    void add(String line, boolean newPage) {
+        int len = line.length();
+        boolean wide = false;
+        for (int i = 0; i < len && !wide; i += 1) {
+            wide = line.charAt(i) > LATIN1_MAX;
+        }
+        if (_size == _ends.length) {
+            _ends = Arrays.copyOf(_ends, 2 * _size);
+            _breaks = Arrays.copyOf(_breaks, _ends.length / BITS);
+            _wide = Arrays.copyOf(_wide, _ends.length / BITS);
+        }
+        if (wide) {
+            for (int i = 0; i < len; i += 1) {
+                char c = line.charAt(i);
+                put((byte) (c >>> 8));
+                put((byte) c);
+            }
+            _wide[_size / BITS] |= 1L << _size;
+        } else {
+            for (int i = 0; i < len; ) {
+                if (_pos == CHUNK_SIZE) {
+                    newChunk();
+                }
+                ByteBuffer chunk = _chunks[_numChunks - 1];
+                int n = Math.min(len - i, CHUNK_SIZE - _pos);
+                for (int j = 0; j < n; j += 1) {
+                    chunk.put(_pos + j, (byte) line.charAt(i + j));
+                }
+                _pos += n;
+                i += n;
+            }
+        }
+        if (newPage) {
+            _breaks[_size / BITS] |= 1L << _size;
+        }
+        _ends[_size] = (long) (_numChunks - 1) * CHUNK_SIZE + _pos;
+        _size += 1;
+        modCount += 1;
+    }
+
+    @Override
+    public boolean add(String line) {
+        if (line.startsWith("\f")) {
+            add(line.substring(1), true);
+        } else {
+            add(line, false);
+        }
+        return true;
+    }
+
+    @Override
+    public String get(int k) {
+        char[] chars = new char[length(k)];
+        getChars(k, chars);
+        String line = new String(chars);
+        return startsPage(k) ? "\f" + line : line;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    @Override
+    public void clear() {
+        if (_numChunks > 1) {
+            _chunks = new ByteBuffer[] { _chunks[0] };
+        }
+        _numChunks = Math.min(_numChunks, 1);
+        _pos = _numChunks == 0 ? CHUNK_SIZE : 0;
+        _ends = new long[INITIAL_LINES];
+        _breaks = new long[INITIAL_LINES / BITS];
+        _wide = new long[INITIAL_LINES / BITS];
+        _size = 0;
+        modCount += 1;
+    }
+
+    /** Returns true iff line K starts a page. */
+    boolean startsPage(int k) {
+        check(k);
+        return (_breaks[k / BITS] & (1L << k)) != 0;
+    }
+
+    /** Returns the number of characters in line K, not counting the form
+     *  feed of one that starts a page. */
+    int length(int k) {
+        check(k);
+        int len = (int) (_ends[k] - start(k));
+        return isWide(k) ? len / 2 : len;
+    }
+
+    /** Copy the characters of line K, not including the form feed of one
+     *  that starts a page, into CHARS, which must be long enough, and
+     *  return how many there are. */
+    int getChars(int k, char[] chars) {
+        check(k);
+        long pos = start(k);
+        int len = (int) (_ends[k] - pos);
+        int c = (int) (pos / CHUNK_SIZE), off = (int) (pos % CHUNK_SIZE);
+        if (isWide(k)) {
+            for (int i = 0; i < len / 2; i += 1) {
+                if (off == CHUNK_SIZE) {
+                    c += 1;
+                    off = 0;
+                }
+                int hi = _chunks[c].get(off) & LATIN1_MAX;
+                off += 1;
+                if (off == CHUNK_SIZE) {
+                    c += 1;
+                    off = 0;
+                }
+                chars[i] = (char) (hi << 8 | _chunks[c].get(off) & LATIN1_MAX);
+                off += 1;
+            }
+            return len / 2;
+        }
+        for (int i = 0; i < len; ) {
+            if (off == CHUNK_SIZE) {
+                c += 1;
+                off = 0;
+            }
+            ByteBuffer chunk = _chunks[c];
+            int n = Math.min(len - i, CHUNK_SIZE - off);
+            for (int j = 0; j < n; j += 1) {
+                chars[i + j] = (char) (chunk.get(off + j) & LATIN1_MAX);
+            }
+            off += n;
+            i += n;
+        }
+        return len;
+    }
+
+    /** Returns the position of the first byte of line K. */
+    private long start(int k) {
+        return k == 0 ? 0 : _ends[k - 1];
+    }
+
+    /** Returns true iff line K is stored two bytes per character. */
+    private boolean isWide(int k) {
+        return (_wide[k / BITS] & (1L << k)) != 0;
+    }
+
+    /** Check that K is the index of a line. */
+    private void check(int k) {
+        if (k < 0 || k >= _size) {
+            throw new IndexOutOfBoundsException("index: " + k);
+        }
+    }
+
+    /** Append B to the bytes of the lines. */
+    private void put(byte b) {
+        if (_pos == CHUNK_SIZE) {
+            newChunk();
+        }
+        _chunks[_numChunks - 1].put(_pos, b);
+        _pos += 1;
+    }
+
+    /** Start filling a new chunk. */
+    private void newChunk() {
+        if (_numChunks == _chunks.length) {
+            _chunks = Arrays.copyOf(_chunks, 2 * _chunks.length);
+        }
+        if (_chunks[_numChunks] == null) {
+            _chunks[_numChunks] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+        }
+        _numChunks += 1;
+        _pos = 0;
+    }
+
+    /** The largest character stored in one byte. */
+    private static final int LATIN1_MAX = 0xff;
+
+    /** The number of bits in each element of _breaks and _wide. */
+    private static final int BITS = 64;
+
+    /** The number of lines for which there is room initially.  A
+     *  multiple of BITS. */
+    private static final int INITIAL_LINES = 1024;
+
+    /** The chunks holding the bytes of the lines, of which the first
+     *  _numChunks are in use.  Those dropped by clear are freed when
+     *  they are collected. */
+    private ByteBuffer[] _chunks = new ByteBuffer[1];
+
+    /** The number of chunks in use. */
+    private int _numChunks;
+
+    /** The number of bytes used in the last chunk in use (CHUNK_SIZE if
+     *  there is none). */
+    private int _pos = CHUNK_SIZE;
+
+    /** _ends[K] is the position just past the last byte of line K. */
+    private long[] _ends = new long[INITIAL_LINES];
+
+    /** Bit K % BITS of _breaks[K / BITS] is set iff line K starts a
+     *  page. */
+    private long[] _breaks = new long[INITIAL_LINES / BITS];
+
+    /** Bit K % BITS of _wide[K / BITS] is set iff line K is stored two
+     *  bytes per character. */
+    private long[] _wide = new long[INITIAL_LINES / BITS];
+
+    /** The number of lines. */
+    private int _size;
+
+}
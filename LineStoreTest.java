@@ -0,0 +1,73 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of LineStores and PageStores.
+ *  @author Greg
+ */
+public class LineStoreTest {
+
+    @Test
+    public void testLines() {
+        LineStore store = new LineStore();
+        for (int doc = 0; doc < 3; doc += 1) {
+            List<String> lines =
+                SpillListTest.randomLines(doc, 500, 80,
+                                          3 * LineStore.CHUNK_SIZE / 2, true);
+            store.clear();
+            store.addAll(lines);
+            assertEquals(lines, store);
+            char[] chars = new char[2 * LineStore.CHUNK_SIZE];
+            for (int k = 0; k < lines.size(); k += 1) {
+                String line = lines.get(k);
+                boolean newPage = line.startsWith("\f");
+                assertEquals(newPage, store.startsPage(k));
+                int n = store.getChars(k, chars);
+                assertEquals(n, store.length(k));
+                assertEquals(line.substring(newPage ? 1 : 0),
+                             new String(chars, 0, n));
+            }
+        }
+        store.clear();
+        assertEquals(0, store.size());
+        store.add("");
+        store.add("\f");
+        assertEquals("\f", store.get(1));
+        assertEquals(0, store.length(1));
+    }
+
+    @Test
+    public void testPageStore() {
+        List<String> lines = new ArrayList<String>();
+        PageAssembler collector = new PageCollector(lines);
+        PageStore store = new PageStore(new FormatStats());
+        collector.setTextHeight(3);
+        store.setTextHeight(3);
+        for (int i = 0; i < 10; i += 1) {
+            String line = i % 4 == 3 ? null : "Line " + i + " \u00e9\u4e2d";
+            collector.addLine(line);
+            store.addLine(line);
+        }
+        assertEquals(lines, store.accessPages());
+
+        StringWriter expected = new StringWriter();
+        PrintWriter out = new PrintWriter(expected);
+        new PagePrinter(lines, out).writeAll();
+        out.flush();
+        StringWriter output = new StringWriter();
+        out = new PrintWriter(output);
+        PagePrinter printer = new PagePrinter(store.lines(), out);
+        printer.writeAll();
+        out.flush();
+        assertEquals(expected.toString(), output.toString());
+        assertEquals(expected.toString().length(),
+                     printer.stats().outputChars());
+    }
+
+}
@@ -1,65 +1,775 @@
 package tex61;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import static tex61.FormatException.reportError;
-import static tex61.FormatException.getTotalErrors;
 
 /** Simple Text Formatter. Main entry point.
  * @author Paul N. Hilfinger
  */
 public class Main {
 
+    /** Default size of the part of the layout cache kept in memory, in
+     *  megabytes. */
+    private static final int DEFAULT_CACHE_MEMORY = 64;
+
+    /** Default number of requests that may wait for a FormatServer. */
+    private static final int DEFAULT_QUEUE = 64;
+
     /** Format the file ARGS[0], producing output on the standard
      *  output if ARGS.length is 1, and otherwise on ARGS[1].  ARGS must
-     *  have length 1 or 2.  Print a usage message otherwise or if the
-     *  files are unreadable or unwritable, respectively. */
+     *  have length 1 or 2, not counting leading options, which are
+     *  described by usage.  Print a usage message otherwise or if the
+     *  files are unreadable or unwritable, respectively.
+     *
+     *  With --serve=ADDR, runs a FormatServer at ADDR (a loopback port
+     *  number or the path of a Unix-domain socket) instead.  With
+     *  --connect=ADDR, has the server at ADDR format INFILE.  With
+     *  --batch, --manifest=FILE, or --dir=DIR, formats many documents
+     *  instead (see runBatch). */
     public static void main(String[] args) {
-        if (args.length == 0) {
+        boolean streaming = false;
+        int pipeline = 0;
+        boolean mapped = false;
+        boolean nio = false;
+        boolean batch = false;
+        boolean stats = false;
+        String charset = null;
+        String manifest = null;
+        String dir = null;
+        String outdir = null;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = null;
+        String cacheDir = null;
+        int cacheMemory = 0;
+        long endnoteMemory = Controller.DEFAULT_ENDNOTE_MEMORY;
+        String patterns = null;
+        boolean index = false;
+        int[] pages = null;
+        int every = 0;
+        boolean resume = false;
+        String serve = null;
+        String connect = null;
+        int queue = DEFAULT_QUEUE;
+        int first;
+        for (first = 0; first < args.length && args[first].startsWith("--");
+             first += 1) {
+            String opt = args[first];
+            if (opt.equals("--stream")) {
+                streaming = true;
+            } else if (opt.equals("--pipeline")) {
+                pipeline = PipelinedLineAssembler.BATCH_SIZE;
+            } else if (opt.startsWith("--pipeline=")) {
+                pipeline = intOptionValue(opt);
+                if (pipeline < 2) {
+                    reportError("bad option value: %s", opt);
+                    System.exit(1);
+                }
+            } else if (opt.equals("--mmap")) {
+                mapped = true;
+            } else if (opt.equals("--nio")) {
+                nio = true;
+            } else if (opt.startsWith("--charset=")) {
+                charset = optionValue(opt);
+            } else if (opt.equals("--stats")) {
+                stats = true;
+            } else if (opt.equals("--batch")) {
+                batch = true;
+            } else if (opt.startsWith("--manifest=")) {
+                batch = true;
+                manifest = optionValue(opt);
+            } else if (opt.startsWith("--dir=")) {
+                batch = true;
+                dir = optionValue(opt);
+            } else if (opt.startsWith("--outdir=")) {
+                outdir = optionValue(opt);
+            } else if (opt.equals("--parallel")) {
+                pool = ForkJoinPool.commonPool();
+            } else if (opt.startsWith("--parallel=")) {
+                pool = new ForkJoinPool(intOptionValue(opt));
+            } else if (opt.startsWith("--cache=")) {
+                cacheDir = optionValue(opt);
+            } else if (opt.startsWith("--cache-memory=")) {
+                cacheMemory = intOptionValue(opt);
+            } else if (opt.startsWith("--endnote-memory=")) {
+                endnoteMemory = (long) intOptionValue(opt) << 20;
+            } else if (opt.startsWith("--hyphenate=")) {
+                patterns = optionValue(opt);
+            } else if (opt.equals("--index")) {
+                index = true;
+            } else if (opt.startsWith("--pages=")) {
+                pages = pageRange(opt);
+                index = true;
+            } else if (opt.startsWith("--checkpoint=")) {
+                every = intOptionValue(opt);
+            } else if (opt.equals("--resume")) {
+                resume = true;
+            } else if (opt.startsWith("--serve=")) {
+                serve = optionValue(opt);
+            } else if (opt.startsWith("--connect=")) {
+                connect = optionValue(opt);
+            } else if (opt.startsWith("--queue=")) {
+                queue = intOptionValue(opt);
+            } else if (opt.startsWith("--jobs=")) {
+                jobs = intOptionValue(opt);
+            } else {
+                reportError("unknown option: %s", opt);
+                usage();
+                System.exit(1);
+            }
+        }
+
+        Charset cs = null;
+        if (charset != null) {
+            try {
+                cs = Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                reportError("unsupported charset: %s", charset);
+                System.exit(1);
+            }
+        }
+
+        Hyphenator hyphenator = null;
+        if (patterns != null) {
+            try {
+                hyphenator = Hyphenator.load(new File(patterns));
+            } catch (IOException e) {
+                reportError("cannot read hyphenation patterns: %s",
+                            e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        LayoutCache cache = null;
+        if (cacheDir != null) {
+            if (cacheMemory == 0) {
+                cacheMemory = DEFAULT_CACHE_MEMORY;
+            }
+            try {
+                cache = new LayoutCache((long) cacheMemory << 20,
+                                        new File(cacheDir));
+            } catch (IOException e) {
+                reportError("cannot open cache: %s", e.getMessage());
+                System.exit(1);
+            }
+        } else if (cacheMemory > 0) {
+            cache = new LayoutCache((long) cacheMemory << 20);
+        }
+
+        if ((every > 0 || resume)
+            && (batch || pool != null || cache != null || pipeline > 0)) {
+            reportError("--checkpoint and --resume cannot be used with "
+                        + "--batch, --parallel, --cache, or --pipeline");
+            System.exit(1);
+        }
+        if (pipeline > 0
+            && (batch || serve != null || pool != null || cache != null)) {
+            reportError("--pipeline cannot be used with --batch, --serve, "
+                        + "--parallel, or --cache");
+            System.exit(1);
+        }
+
+        if (serve != null) {
+            FormatEngine engine = new FormatEngine(streaming, pool, cache);
+            engine.setTimed(stats);
+            engine.setEndnoteMemory(endnoteMemory);
+            engine.setHyphenator(hyphenator);
+            runServer(new FormatServer(engine, jobs, queue), serve, cache,
+                      stats);
+            return;
+        }
+
+        if (batch) {
+            FormatEngine engine = new FormatEngine(streaming, pool, cache);
+            engine.setTimed(stats);
+            engine.setEndnoteMemory(endnoteMemory);
+            engine.setHyphenator(hyphenator);
+            Batch docs = new Batch(jobs, engine, mapped, cs, nio);
+            runBatch(docs, Arrays.copyOfRange(args, first, args.length),
+                     manifest, dir, outdir, cache, stats);
+            return;
+        }
+
+        if (args.length == first) {
             usage();
             return;
         }
 
-        if (args.length > 2) {
+        if (args.length - first > 2) {
             reportError("too many command-line arguments");
             usage();
             System.exit(1);
         }
 
+        if (index && args.length - first != 2) {
+            reportError("--index and --pages require an output file");
+            System.exit(1);
+        }
+        if (index && !PageIndex.indexable(Charset.defaultCharset())) {
+            reportError("cannot index output in %s",
+                        Charset.defaultCharset());
+            System.exit(1);
+        }
+        if ((every > 0 || resume) && args.length - first != 2) {
+            reportError("--checkpoint and --resume require an output file");
+            System.exit(1);
+        }
+        if (resume && index) {
+            reportError("--resume cannot be used with --index or --pages");
+            System.exit(1);
+        }
+        if (resume && !PageIndex.indexable(Charset.defaultCharset())) {
+            reportError("cannot resume output in %s",
+                        Charset.defaultCharset());
+            System.exit(1);
+        }
+
+        if (connect != null) {
+            runClient(connect, args[first],
+                      args.length - first == 2 ? args[first + 1] : null,
+                      mapped, cs, nio, stats);
+            return;
+        }
+
+        ErrorLog errors = new ErrorLog(System.err);
         try {
-            Reader input;
-            input = new FileReader(new File(args[0]));
+            File inFile = new File(args[first]);
+            File outFile = null;
+            if (args.length - first == 2) {
+                outFile = new File(args[first + 1]);
+            }
 
-            PrintWriter output;
+            String settings = "stream=" + (streaming || pipeline > 0)
+                + " mmap=" + mapped
+                + " charset=" + cs
+                + " output=" + Charset.defaultCharset() + " hyphenate="
+                + (hyphenator == null ? "none" : hyphenator.id());
+            byte[] hash = null;
+            PageIndex pageIndex = null;
+            if (index) {
+                hash = PageIndex.sourceHash(inFile, settings);
+                if (pages != null
+                    && (printPages(outFile, hash, pages)
+                        || printFromCheckpoint(inFile, outFile, mapped, cs,
+                                               nio, settings, hyphenator,
+                                               pages, errors))) {
+                    System.exit(errors.count() == 0 ? 0 : 1);
+                }
+                pageIndex = new PageIndex(Charset.defaultCharset());
+            }
 
-            if (args.length == 2) {
-                output = new PrintWriter(new File(args[1]));
-            } else {
-                output = new PrintWriter(System.out);
+            List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+            int kept = 0;
+            if (resume) {
+                int logEvery = CheckpointLog.read(outFile, settings,
+                                                  checkpoints);
+                if (every == 0) {
+                    every = logEvery;
+                }
+                kept = resumable(checkpoints, inFile, outFile, mapped, cs);
+            }
+            CheckpointLog log = null;
+            if (every > 0) {
+                log = new CheckpointLog(outFile, settings, every,
+                                        checkpoints.subList(0, kept));
+            } else if (outFile != null) {
+                CheckpointLog.logFile(outFile).delete();
             }
 
-            Controller cntrl = new Controller(output);
+            Reader input;
+            input = openInput(inFile, mapped, cs);
+            Writer sink = openOutput(outFile, nio, kept > 0);
+            if (pageIndex != null) {
+                sink = pageIndex.output(sink);
+            }
+            PrintWriter output = new PrintWriter(sink);
+
+            Controller cntrl;
+            if (pipeline > 0) {
+                cntrl = new Controller(output, errors, pipeline);
+            } else {
+                cntrl = new Controller(output, streaming, errors, pool,
+                                       cache);
+            }
+            cntrl.stats().setTimed(stats);
+            cntrl.setEndnoteMemory(endnoteMemory);
+            cntrl.setHyphenator(hyphenator);
+            cntrl.setCheckpoints(log);
             InputParser src = new InputParser(input, cntrl);
+            if (kept > 0) {
+                Checkpoint from = checkpoints.get(kept - 1);
+                if (!src.resume(from.offset(), from.hash())) {
+                    throw new IOException("input changed while resuming");
+                }
+                cntrl.restore(from, CheckpointLog.endnotes(checkpoints,
+                                                           kept));
+            }
             src.process();
+            closeCache(cache);
+            if (log != null) {
+                log.close();
+            }
+            if (stats) {
+                cntrl.stats().report(System.err, cache);
+            }
+            if (errors.failed()) {
+                System.exit(1);
+            }
             output.close();
+            if (pageIndex != null) {
+                if (!pageIndex.write(outFile, hash)) {
+                    reportError("warning: output does not match its pages;"
+                                + " not indexed");
+                    if (pages != null) {
+                        System.exit(1);
+                    }
+                } else if (pages != null) {
+                    printPages(outFile, hash, pages);
+                }
+            }
         } catch (IOException e) {
             reportError(e.getMessage());
             System.exit(1);
             return;
+        } catch (FormatException e) {
+            reportError(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        System.exit(errors.count() == 0 ? 0 : 1);
+    }
+
+    /** Add to DOCS the documents named by FILES, which are pairs of input
+     *  and output file names, by the file MANIFEST (if non-null; see
+     *  Batch.addManifest) and by the files in directory DIR (if non-null),
+     *  which are formatted into directory OUTDIR.  Format them all,
+     *  printing the status of each and a summary on the standard output,
+     *  and exit with status 0 iff there were no errors in any of them.
+     *  CACHE, if not null, is the LayoutCache used by DOCS.  Iff STATS,
+     *  print the statistics of all the documents, and of CACHE, on the
+     *  standard error. */
+    private static void runBatch(Batch docs, String[] files, String manifest,
+                                 String dir, String outdir,
+                                 LayoutCache cache, boolean stats) {
+        if (files.length % 2 != 0) {
+            reportError("input file %s has no output file",
+                        files[files.length - 1]);
+            System.exit(1);
+        }
+        if (dir != null && outdir == null) {
+            reportError("--dir requires --outdir");
+            System.exit(1);
         }
 
-        System.exit(getTotalErrors() == 0 ? 0 : 1);
+        try {
+            for (int i = 0; i < files.length; i += 2) {
+                docs.add(new File(files[i]), new File(files[i + 1]));
+            }
+            if (manifest != null) {
+                docs.addManifest(new File(manifest));
+            }
+            if (dir != null) {
+                docs.addDirectory(new File(dir), new File(outdir));
+            }
+        } catch (IOException e) {
+            reportError(e.getMessage());
+            System.exit(1);
+        } catch (FormatException e) {
+            reportError(e.getMessage());
+            System.exit(1);
+        }
+
+        int errors = docs.run(System.out, System.err);
+        closeCache(cache);
+        if (stats) {
+            docs.stats().report(System.err, cache);
+        }
+        System.out.flush();
+        System.exit(errors == 0 ? 0 : 1);
+    }
+
+    /** Run SERVER at the address named ADDRESS (see
+     *  FormatServer.address) until the process is stopped, printing the
+     *  address on the standard output once it is listening.  When
+     *  stopped, finish writing CACHE (if not null), and iff STATS, print
+     *  the statistics of all documents formatted, and of CACHE, on the
+     *  standard error. */
+    private static void runServer(final FormatServer server, String address,
+                                  final LayoutCache cache,
+                                  final boolean stats) {
+        try {
+            SocketAddress bound = server.bind(FormatServer.address(address));
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        server.close();
+                    } catch (IOException e) {
+                        reportError(e.getMessage());
+                    }
+                    closeCache(cache);
+                    if (stats) {
+                        server.stats().report(System.err, cache);
+                    }
+                }
+            });
+            System.out.printf("listening on %s%n", bound);
+            System.out.flush();
+            server.serve();
+        } catch (IOException e) {
+            reportError("cannot serve: %s", e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Have the FormatServer at the address named ADDRESS format the file
+     *  INFILE (read as directed by MAPPED and CHARSET), writing the output
+     *  to the file OUTFILE, or to the standard output if it is null
+     *  (through a ChannelWriter iff NIO).  Print any errors, and iff
+     *  STATS, the time taken, on the standard error, and exit with status
+     *  0 iff there were no errors. */
+    private static void runClient(String address, String inFile,
+                                  String outFile, boolean mapped,
+                                  Charset charset, boolean nio,
+                                  boolean stats) {
+        FormatClient.Reply reply;
+        long start = System.nanoTime();
+        try {
+            StringBuilder text = new StringBuilder();
+            Reader input = openInput(new File(inFile), mapped, charset);
+            try {
+                char[] buf = new char[1 << 16];
+                for (int n = input.read(buf); n != -1; n = input.read(buf)) {
+                    text.append(buf, 0, n);
+                }
+            } finally {
+                input.close();
+            }
+            FormatClient client =
+                new FormatClient(FormatServer.address(address));
+            Writer output = openOutput(outFile == null ? null
+                                       : new File(outFile), nio);
+            try {
+                reply = client.format(text.toString(), output);
+            } finally {
+                client.close();
+                output.close();
+            }
+        } catch (IOException e) {
+            reportError(e.getMessage());
+            System.exit(1);
+            return;
+        }
+        for (String msg : reply.errors()) {
+            System.err.println(msg);
+        }
+        if (reply.status() == FormatServer.BUSY) {
+            reportError("server is busy");
+        }
+        if (stats) {
+            System.err.printf("waited %.3f ms, formatted in %.3f ms, "
+                              + "%.3f ms in all%n", reply.waited() / 1e6,
+                              reply.nanos() / 1e6,
+                              (System.nanoTime() - start) / 1e6);
+        }
+        System.exit(reply.status() == FormatServer.OK ? 0 : 1);
+    }
+
+    /** Copy pages PAGES[0] through PAGES[1] of OUTPUT to the standard
+     *  output, using its index, and return true, if the index is valid
+     *  for the source hash HASH.  Otherwise, return false. */
+    private static boolean printPages(File output, byte[] hash, int[] pages)
+        throws IOException {
+        System.out.flush();
+        return PageIndex.copyPages(output, hash, pages[0], pages[1],
+                                   new FileOutputStream(FileDescriptor.out)
+                                   .getChannel());
+    }
+
+    /** Print pages PAGES[0] through PAGES[1] of the output of INFILE on
+     *  the standard output (through a ChannelWriter iff NIO), reading it
+     *  as directed by MAPPED and CHARSET, and return true, if OUTFILE has
+     *  a log of checkpoints made with SETTINGS, and the last checkpoint
+     *  before page PAGES[0] in it, if any, is valid for INFILE.  The
+     *  pages are formatted from that checkpoint (or from the start), and
+     *  formatting stops after page PAGES[1], hyphenating with HYPHENATOR
+     *  (if not null).  Errors are reported to ERRORS.  Otherwise, return
+     *  false. */
+    private static boolean printFromCheckpoint(File inFile, File outFile,
+                                               boolean mapped,
+                                               Charset charset, boolean nio,
+                                               String settings,
+                                               Hyphenator hyphenator,
+                                               int[] pages, ErrorLog errors)
+        throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+        if (CheckpointLog.read(outFile, settings, checkpoints) == 0) {
+            return false;
+        }
+        int k;
+        for (k = 0; k < checkpoints.size(); k += 1) {
+            if (checkpoints.get(k).page() >= pages[0]) {
+                break;
+            }
+        }
+
+        Reader input = openInput(inFile, mapped, charset);
+        PrintWriter output = new PrintWriter(openOutput(null, nio));
+        Controller cntrl = new Controller(output, true, errors);
+        cntrl.setHyphenator(hyphenator);
+        InputParser src = new InputParser(input, cntrl);
+        if (k > 0) {
+            Checkpoint from = checkpoints.get(k - 1);
+            if (!src.resume(from.offset(), from.hash())) {
+                input.close();
+                return false;
+            }
+            cntrl.restore(from, CheckpointLog.endnotes(checkpoints, k));
+        }
+        cntrl.setPageRange(pages[0], pages[1]);
+        src.process();
+        if (!errors.failed()) {
+            output.flush();
+            if (cntrl.pages() < pages[0]) {
+                throw FormatException.error("document has only %d pages",
+                                            cntrl.pages());
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of CHECKPOINTS, from the first, through the
+     *  last from which formatting INFILE (read as directed by MAPPED and
+     *  CHARSET) into OUTFILE can resume: the last whose input is a prefix
+     *  of INFILE and whose lines of output are all in OUTFILE.  Truncates
+     *  OUTFILE to the lines before that checkpoint. */
+    private static int resumable(List<Checkpoint> checkpoints, File inFile,
+                                 File outFile, boolean mapped,
+                                 Charset charset) throws IOException {
+        if (checkpoints.isEmpty() || !outFile.isFile()) {
+            return 0;
+        }
+        int k = CheckpointLog.validPrefix(checkpoints,
+                                          openInput(inFile, mapped, charset));
+        long lines = CheckpointLog.lineCount(outFile);
+        while (k > 0 && checkpoints.get(k - 1).lines() > lines) {
+            k -= 1;
+        }
+        if (k > 0) {
+            long offset =
+                CheckpointLog.lineOffset(outFile,
+                                         checkpoints.get(k - 1).lines());
+            try (FileChannel out =
+                 FileChannel.open(outFile.toPath(),
+                                  StandardOpenOption.WRITE)) {
+                out.truncate(offset);
+            }
+        }
+        return k;
+    }
+
+    /** Returns the range of pages given by command-line option OPT, which
+     *  has the form --pages=N-M or --pages=N, as the array {N, M}. */
+    private static int[] pageRange(String opt) {
+        String val = optionValue(opt);
+        int dash = val.indexOf('-');
+        try {
+            int first, last;
+            if (dash == -1) {
+                first = last = Integer.parseInt(val);
+            } else {
+                first = Integer.parseInt(val.substring(0, dash));
+                last = Integer.parseInt(val.substring(dash + 1));
+            }
+            if (0 < first && first <= last) {
+                return new int[] { first, last };
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through to the error below. */
+        }
+        reportError("bad option value: %s", opt);
+        System.exit(1);
+        return null;
+    }
+
+    /** Finish writing CACHE, if it is not null, reporting but otherwise
+     *  ignoring errors. */
+    private static void closeCache(LayoutCache cache) {
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                reportError("cannot write cache: %s", e.getMessage());
+            }
+        }
+    }
+
+    /** Returns the value of command-line option OPT, which has the form
+     *  --NAME=VALUE. */
+    private static String optionValue(String opt) {
+        return opt.substring(opt.indexOf('=') + 1);
+    }
+
+    /** Returns the value of command-line option OPT, which has the form
+     *  --NAME=VALUE, where VALUE must be a positive integer.  Exits
+     *  with an error message otherwise. */
+    private static int intOptionValue(String opt) {
+        try {
+            int val = Integer.parseInt(optionValue(opt));
+            if (val > 0) {
+                return val;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through to the error below. */
+        }
+        reportError("bad option value: %s", opt);
+        System.exit(1);
+        return 0;
+    }
+
+    /** Returns a Reader for the contents of FILE, decoded with CHARSET,
+     *  or with the default if CHARSET is null.  Iff MAPPED, maps FILE
+     *  into memory, and the default is UTF-8.  Otherwise, the default is
+     *  the platform's charset. */
+    static Reader openInput(File file, boolean mapped, Charset charset)
+        throws IOException {
+        if (mapped) {
+            return new MappedFileReader(file, charset == null
+                                        ? StandardCharsets.UTF_8 : charset);
+        } else if (charset != null) {
+            return new InputStreamReader(new FileInputStream(file), charset);
+        } else {
+            return new FileReader(file);
+        }
+    }
+
+    /** Returns a Writer to FILE, or to the standard output if FILE is
+     *  null, that encodes text in the platform's charset.  Iff NIO, it is
+     *  a ChannelWriter, encoding text in parallel. */
+    static Writer openOutput(File file, boolean nio) throws IOException {
+        return openOutput(file, nio, false);
+    }
+
+    /** Returns a Writer to FILE, or to the standard output if FILE is
+     *  null, as above.  Iff APPEND, text is added to the end of FILE
+     *  rather than replacing its contents. */
+    static Writer openOutput(File file, boolean nio, boolean append)
+        throws IOException {
+        if (nio) {
+            FileChannel channel;
+            if (file == null) {
+                channel = new FileOutputStream(FileDescriptor.out)
+                    .getChannel();
+            } else {
+                channel = FileChannel.open(
+                    file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE,
+                    append ? StandardOpenOption.APPEND
+                    : StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            return new ChannelWriter(channel, Charset.defaultCharset(),
+                                     ForkJoinPool.commonPool());
+        } else if (file == null) {
+            return new BufferedWriter(new OutputStreamWriter(System.out));
+        } else {
+            return new BufferedWriter(new FileWriter(file, append));
+        }
     }
 
     /** Print usage message. */
     private static void usage() {
-        System.out.printf("Usage: java format.Main INFILE [OUTFILE]%n"
+        System.out.printf("Usage: java format.Main [OPTIONS] "
+                          + "INFILE [OUTFILE]%n"
+                          + "       java format.Main --batch [OPTIONS] "
+                          + "[INFILE OUTFILE]...%n"
                           + "   Format INFILE, sending output to OUTFILE "
-                          + "(default: standard output).%n");
+                          + "(default: standard output).%n"
+                          + "   --stream: write the main text as it is "
+                          + "formatted.%n"
+                          + "   --pipeline[=N]: as --stream, but parse, "
+                          + "break lines, and write%n"
+                          + "       on separate threads, in batches of N "
+                          + "characters (default 16384).%n"
+                          + "   --mmap: map INFILE into memory rather than "
+                          + "reading it.%n"
+                          + "   --charset=NAME: decode INFILE with charset "
+                          + "NAME (default: UTF-8 with%n"
+                          + "       --mmap, and otherwise the platform's "
+                          + "charset).%n"
+                          + "   --nio: encode output in parallel and write "
+                          + "it to a channel.%n"
+                          + "   --batch: format each INFILE into the "
+                          + "following OUTFILE.%n"
+                          + "   --manifest=FILE: also format the pairs of "
+                          + "files listed in FILE.%n"
+                          + "   --dir=DIR --outdir=OUT: also format each "
+                          + "file in DIR into OUT.%n"
+                          + "   --jobs=N: format up to N documents at once "
+                          + "(default: one per core).%n"
+                          + "   --parallel[=N]: break paragraphs into lines "
+                          + "on N threads%n"
+                          + "       (default: one per core), with the same "
+                          + "output.%n"
+                          + "   --cache=DIR: reuse paragraphs formatted in "
+                          + "earlier runs.%n"
+                          + "   --cache-memory=N: keep up to N megabytes of "
+                          + "paragraphs in memory%n"
+                          + "       (default 64); alone, reuse paragraphs "
+                          + "only within this run.%n"
+                          + "   --endnote-memory=N: keep up to N megabytes "
+                          + "of endnotes in memory%n"
+                          + "       (default 64), and the rest on disk.%n"
+                          + "   --hyphenate=FILE: hyphenate words at the "
+                          + "ends of lines with the%n"
+                          + "       patterns in FILE.%n"
+                          + "   --index: write an index of the pages of "
+                          + "OUTFILE to OUTFILE.pages.%n"
+                          + "   --pages=N-M: print pages N-M of OUTFILE, "
+                          + "formatting INFILE only if%n"
+                          + "       OUTFILE is not already its indexed "
+                          + "output, and then from the%n"
+                          + "       last checkpoint before page N, if "
+                          + "any.%n"
+                          + "   --checkpoint=K: record a checkpoint every K "
+                          + "pages in OUTFILE.ckpt.%n"
+                          + "   --resume: continue formatting into OUTFILE "
+                          + "from its last valid%n"
+                          + "       checkpoint.%n"
+                          + "   --stats: print counts and the time taken "
+                          + "by each stage on the%n"
+                          + "       standard error.%n"
+                          + "       java format.Main --serve=ADDR "
+                          + "[OPTIONS]%n"
+                          + "   Format documents sent to loopback port or "
+                          + "Unix-domain socket ADDR.%n"
+                          + "   --jobs=N: format up to N at once; "
+                          + "--queue=N: let up to N more wait%n"
+                          + "       (default 64).%n"
+                          + "       java format.Main --connect=ADDR "
+                          + "[OPTIONS] INFILE [OUTFILE]%n"
+                          + "   Format INFILE with the server at ADDR.%n");
     }
 
 }
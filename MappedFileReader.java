@@ -0,0 +1,132 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/** A Reader that maps a file into memory, one region at a time, and
+ *  decodes it with a given Charset directly into the arrays passed to
+ *  read.  Malformed or unmappable input is replaced, as for
+ *  InputStreamReader.
+ *  @author Greg
+ */
+class MappedFileReader extends Reader {
+
+    /** Maximum size of each mapped region of the file, in bytes. */
+    static final long REGION_SIZE = 1L << 26;
+
+    /** A new MappedFileReader for FILE, which is encoded in CHARSET. */
+    MappedFileReader(File file, Charset charset) throws IOException {
+        this(file, charset, REGION_SIZE);
+    }
+
+    /** A new MappedFileReader for FILE, which is encoded in CHARSET,
+     *  mapping at most REGIONSIZE bytes at a time. */
+    MappedFileReader(File file, Charset charset, long regionSize)
+        throws IOException {
+        _channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        _size = _channel.size();
+        _regionSize = regionSize;
+        _decoder = charset.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0, regionSize);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (_pending != -1) {
+            cbuf[off] = (char) _pending;
+            _pending = -1;
+            return 1;
+        }
+        if (len == 1) {
+            int n = read(_pair, 0, 2);
+            if (n == 2) {
+                _pending = _pair[1];
+            }
+            if (n > 0) {
+                cbuf[off] = _pair[0];
+                return 1;
+            }
+            return n;
+        }
+
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !_done) {
+            decode(out);
+        }
+        int n = out.position() - off;
+        return n == 0 ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _region = null;
+        _channel.close();
+    }
+
+    /** Decode as much of the current region into OUT as will fit,
+     *  mapping the next region or finishing the input as needed. */
+    private void decode(CharBuffer out) throws IOException {
+        boolean last = _base + _region.limit() == _size;
+        CoderResult result = _decoder.decode(_region, out, last);
+        if (result.isOverflow()) {
+            return;
+        } else if (!last) {
+            int used = _region.position();
+            map(_base + used,
+                used == 0 ? 2 * _region.limit() + 1 : _regionSize);
+        } else if (!_decoder.flush(out).isOverflow()) {
+            _done = true;
+        }
+    }
+
+    /** Map the region of the file starting at byte BASE, with length
+     *  LEN or up to the end of the file. */
+    private void map(long base, long len) throws IOException {
+        _base = base;
+        _region = _channel.map(FileChannel.MapMode.READ_ONLY, base,
+                               Math.min(len, _size - base));
+    }
+
+    /** The file being read. */
+    private final FileChannel _channel;
+
+    /** The length of the file, in bytes. */
+    private final long _size;
+
+    /** Maximum length of _region. */
+    private final long _regionSize;
+
+    /** Decoder for the file's contents. */
+    private final CharsetDecoder _decoder;
+
+    /** The currently mapped region of the file. Its position is that of
+     *  the next byte to decode. */
+    private ByteBuffer _region;
+
+    /** The position in the file of the start of _region. */
+    private long _base;
+
+    /** True iff all of the input has been decoded. */
+    private boolean _done;
+
+    /** Characters decoded when the caller asked for only one. */
+    private final char[] _pair = new char[2];
+
+    /** A character decoded but not yet returned, or -1. */
+    private int _pending = -1;
+
+}
@@ -0,0 +1,73 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of MappedFileReaders.
+ *  @author Greg
+ */
+public class MappedFileReaderTest {
+
+    private File makeFile(String contents, Charset charset)
+        throws IOException {
+        File file = File.createTempFile("tex61", ".txt");
+        file.deleteOnExit();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(contents.getBytes(charset));
+        out.close();
+        return file;
+    }
+
+    private String readAll(Reader reader, int chunk) throws IOException {
+        StringBuilder result = new StringBuilder();
+        char[] buf = new char[chunk];
+        for (int n = reader.read(buf); n != -1; n = reader.read(buf)) {
+            result.append(buf, 0, n);
+        }
+        reader.close();
+        return result.toString();
+    }
+
+    @Test
+    public void testRegions() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 20; i += 1) {
+            text.append("na\u00efve \u4e2d\u6587 \ud83d\ude00 \\endnote{x} ");
+        }
+        String contents = text.toString();
+        File file = makeFile(contents, StandardCharsets.UTF_8);
+        for (int region = 1; region < 9; region += 1) {
+            for (int chunk = 1; chunk < 4; chunk += 1) {
+                assertEquals(contents, readAll(new MappedFileReader(
+                    file, StandardCharsets.UTF_8, region), chunk));
+            }
+        }
+        assertEquals(contents, readAll(new MappedFileReader(
+            file, StandardCharsets.UTF_8), 8192));
+    }
+
+    @Test
+    public void testCharset() throws IOException {
+        String contents = "caf\u00e9 cr\u00e8me";
+        File file = makeFile(contents, StandardCharsets.ISO_8859_1);
+        assertEquals(contents, readAll(new MappedFileReader(
+            file, StandardCharsets.ISO_8859_1), 100));
+        assertEquals("caf\ufffd cr\ufffdme", readAll(new MappedFileReader(
+            file, StandardCharsets.UTF_8), 100));
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        File file = makeFile("", StandardCharsets.UTF_8);
+        assertEquals("", readAll(new MappedFileReader(
+            file, StandardCharsets.UTF_8), 100));
+    }
+
+}
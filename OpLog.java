@@ -0,0 +1,206 @@
+package tex61;
+
+import java.util.Arrays;
+
+/** A record of calls on a LineAssembler, to be made later, possibly on
+ *  another thread, on another LineAssembler (see replay).  The calls are
+ *  kept as operation codes, each followed by its operand, if any, in
+ *  OPS; the characters of their text, in order, in CHARS; and any other
+ *  operands in an array of objects (see addObject).  Both
+ *  ParallelLineAssembler and PipelinedLineAssembler record their text
+ *  and settings in OpLogs.  The arrays grow as needed, but an owner that
+ *  wants a fixed size may check for room itself before each operation.
+ *  @author Greg
+ */
+class OpLog {
+
+    /** Operation codes.  TEXT and WORD are followed by the number of
+     *  their characters, the SET operations by a value, and REPLAY and
+     *  CACHE by the index of their operand among my objects. */
+    static final int
+        TEXT = 0, WORD = 1, END_WORD = 2, NEWLINE = 3, END_PARAGRAPH = 4,
+        SET_INDENTATION = 5, SET_PAR_INDENTATION = 6, SET_TEXT_WIDTH = 7,
+        SET_FILL = 8, SET_JUSTIFY = 9, SET_PAR_SKIP = 10,
+        SET_TEXT_HEIGHT = 11, SET_OPTIMAL_FIT = 12, REPLAY = 13,
+        CACHE = 14;
+
+    /** An empty log with room for NUMOPS elements of OPS and NUMCHARS
+     *  characters. */
+    OpLog(int numOps, int numChars) {
+        ops = new int[numOps];
+        chars = new char[numChars];
+    }
+
+    /** Make me empty. */
+    void clear() {
+        numOps = numChars = 0;
+        _last = -1;
+        if (_objects != null) {
+            Arrays.fill(_objects, 0, _numObjects, null);
+        }
+        _numObjects = 0;
+        cache = null;
+    }
+
+    /** Returns the code of the last operation recorded, or -1 if
+     *  none. */
+    int lastOp() {
+        return _last == -1 ? -1 : ops[_last];
+    }
+
+    /** Record operation OP. */
+    void add(int op) {
+        reserveOps(1);
+        _last = numOps;
+        ops[numOps] = op;
+        numOps += 1;
+    }
+
+    /** Record operation OP with operand VAL. */
+    void add(int op, int val) {
+        reserveOps(2);
+        _last = numOps;
+        ops[numOps] = op;
+        ops[numOps + 1] = val;
+        numOps += 2;
+    }
+
+    /** Returns CHARS, with room for LEN more characters after the first
+     *  NUMCHARS. */
+    char[] reserve(int len) {
+        if (numChars + len > chars.length) {
+            chars = Arrays.copyOf(chars,
+                                  Math.max(numChars + len,
+                                           2 * chars.length));
+        }
+        return chars;
+    }
+
+    /** Record the operation OP (TEXT or WORD) on the LEN characters just
+     *  placed in CHARS after the first NUMCHARS.  Text following text is
+     *  added to it. */
+    void addText(int op, int len) {
+        numChars += len;
+        if (op == TEXT && lastOp() == TEXT) {
+            ops[_last + 1] += len;
+        } else {
+            add(op, len);
+        }
+    }
+
+    /** Add OBJ to my objects, and return its index there. */
+    int addObject(Object obj) {
+        if (_objects == null) {
+            _objects = new Object[4];
+        } else if (_numObjects == _objects.length) {
+            _objects = Arrays.copyOf(_objects, 2 * _numObjects);
+        }
+        _objects[_numObjects] = obj;
+        _numObjects += 1;
+        return _numObjects - 1;
+    }
+
+    /** Make the calls I record on OUT, in order. */
+    void replay(LineAssembler out) {
+        int t = 0;
+        for (int i = 0; i < numOps; i += 1) {
+            switch (ops[i]) {
+            case TEXT:
+                i += 1;
+                out.addText(chars, t, ops[i]);
+                t += ops[i];
+                break;
+            case WORD:
+                i += 1;
+                out.addWord(new String(chars, t, ops[i]));
+                t += ops[i];
+                break;
+            case END_WORD:
+                out.finishWord();
+                break;
+            case NEWLINE:
+                out.newLine();
+                break;
+            case END_PARAGRAPH:
+                out.endParagraph();
+                break;
+            case REPLAY:
+                i += 1;
+                out.addLines((LayoutCache.Entry) _objects[ops[i]]);
+                break;
+            case CACHE:
+                i += 1;
+                out.cacheParagraph(cache,
+                                   (LayoutCache.Key) _objects[ops[i]]);
+                break;
+            case SET_INDENTATION:
+                i += 1;
+                out.setIndentation(ops[i]);
+                break;
+            case SET_PAR_INDENTATION:
+                i += 1;
+                out.setParIndentation(ops[i]);
+                break;
+            case SET_TEXT_WIDTH:
+                i += 1;
+                out.setTextWidth(ops[i]);
+                break;
+            case SET_FILL:
+                i += 1;
+                out.setFill(ops[i] != 0);
+                break;
+            case SET_JUSTIFY:
+                i += 1;
+                out.setJustify(ops[i] != 0);
+                break;
+            case SET_PAR_SKIP:
+                i += 1;
+                out.setParSkip(ops[i]);
+                break;
+            case SET_OPTIMAL_FIT:
+                i += 1;
+                out.setOptimalFit(ops[i] != 0);
+                break;
+            case SET_TEXT_HEIGHT:
+                i += 1;
+                out.setTextHeight(ops[i]);
+                break;
+            default:
+                throw new IllegalStateException("bad operation");
+            }
+        }
+    }
+
+    /** Make room for N more elements of OPS. */
+    private void reserveOps(int n) {
+        if (numOps + n > ops.length) {
+            ops = Arrays.copyOf(ops, Math.max(numOps + n, 2 * ops.length));
+        }
+    }
+
+    /** The recorded operations, with their operands. */
+    int[] ops;
+
+    /** The number of elements of OPS in use. */
+    int numOps;
+
+    /** The text of the TEXT and WORD operations, in order. */
+    char[] chars;
+
+    /** The number of characters in CHARS. */
+    int numChars;
+
+    /** The cache to which paragraphs are added by CACHE operations. */
+    LayoutCache cache;
+
+    /** The index in OPS of the last operation, or -1 if none. */
+    private int _last = -1;
+
+    /** The operands of REPLAY and CACHE operations: cached paragraphs
+     *  and their keys.  Null if there have been none. */
+    private Object[] _objects;
+
+    /** The number of elements of _objects in use. */
+    private int _numObjects;
+
+}
@@ -1,5 +1,9 @@
 package tex61;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 
 /** A PageAssembler accepts complete lines of text (minus any
@@ -12,30 +16,147 @@ import java.util.List;
  */
 abstract class PageAssembler {
 
+    /** Largest number of lines that an ArrayList of pages may have held
+     *  and still keep its room for them after a reset. */
+    static final int MAX_RETAINED_LINES = 1 << 12;
+
     /** Create a new PageAssembler that sends its output to OUT.
      *  Initially, its text height is unlimited. It prepends a form
      *  feed character to the first line of each page except the first.
      *  PAGES is the list of lines. */
     PageAssembler(List<String> pages) {
+        this(pages, new FormatStats());
+    }
+
+    /** Create a new PageAssembler that sends its output to PAGES, as
+     *  above, and counts pages in STATS. */
+    PageAssembler(List<String> pages, FormatStats stats) {
         _pages = pages;
+        _stats = stats;
     }
 
     /** Add LINE to the current page, starting a new page with it if
      *  the previous page is full. A null LINE indicates a skipped line,
      *  and has no effect at the top of a page. */
     void addLine(String line) {
+        long start = _stats.start();
+        if (_blank) {
+            _blank = false;
+            startPage();
+        }
         if (line != null && !line.isEmpty()) {
             if (_textHeight == -1 || _numLines < _textHeight) {
-                _pages.add(line);
+                output(line, false);
                 _numLines += 1;
             } else {
-                _pages.add("\f" + line);
+                finishPage();
+                startPage();
+                output(line, true);
                 _numLines = 1;
             }
         } else if (_numLines != _textHeight) {
-            _pages.add("");
+            output("", false);
             _numLines += 1;
         }
+        _stats.stop(FormatStats.Stage.PAGES, start);
+    }
+
+    /** Record the completion of the last page, if any.  No more lines
+     *  may be added until a reset. */
+    void finish() {
+        if (!_blank) {
+            finishPage();
+        }
+    }
+
+    /** Count the start of a new page, and start timing it if PageEvents
+     *  are being recorded. */
+    private void startPage() {
+        _stats.countPage();
+        _page += 1;
+        PageEvent event = new PageEvent();
+        if (event.isEnabled()) {
+            event.begin();
+            _pageEvent = event;
+        }
+    }
+
+    /** Record a PageEvent for the current page, which is complete, if
+     *  one was started. */
+    private void finishPage() {
+        PageEvent event = _pageEvent;
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.page = _page;
+                event.lines = _numLines;
+                event.commit();
+            }
+            _pageEvent = null;
+        }
+    }
+
+    /** Emit LINE, starting a new page iff NEWPAGE, and count it. */
+    private void output(String line, boolean newPage) {
+        emit(line, newPage);
+        _emitted += 1;
+    }
+
+    /** Dispose of LINE, the next line of paginated output, which starts
+     *  a new page iff NEWPAGE.  By default, LINE is appended to _pages,
+     *  prefixed with a form feed if it starts a new page. */
+    void emit(String line, boolean newPage) {
+        if (newPage) {
+            _pages.add("\f" + line);
+        } else {
+            _pages.add(line);
+        }
+    }
+
+    /** Return to the initial state: unlimited text height, at the top of
+     *  the first page, with no lines in _pages. */
+    void reset() {
+        clearPages();
+        _numLines = 0;
+        _textHeight = -1;
+        _blank = true;
+        _page = 0;
+        _pageEvent = null;
+        _emitted = 0;
+    }
+
+    /** Write my position in the document and my text height to OUT, in
+     *  the form read by readState. */
+    void writeState(DataOutput out) throws IOException {
+        out.writeInt(_page);
+        out.writeInt(_numLines);
+        out.writeInt(_textHeight);
+        out.writeBoolean(_blank);
+        out.writeLong(_emitted);
+    }
+
+    /** Continue from the position and text height written to IN by
+     *  writeState, as if all the lines before it had been added, but
+     *  without them in _pages. */
+    void readState(DataInput in) throws IOException {
+        clearPages();
+        _pageEvent = null;
+        _page = in.readInt();
+        _numLines = in.readInt();
+        _textHeight = in.readInt();
+        _blank = in.readBoolean();
+        _emitted = in.readLong();
+    }
+
+    /** Returns the number of the current page, numbering from 1, or 0 if
+     *  no line has been added. */
+    int page() {
+        return _page;
+    }
+
+    /** Returns the number of lines emitted since the last reset. */
+    long emitted() {
+        return _emitted;
     }
 
     /** Set text height to VAL, where VAL > 0. */
@@ -43,6 +164,21 @@ abstract class PageAssembler {
         _textHeight = val;
     }
 
+    /** Remove all lines from _pages, giving up the room of an ArrayList
+     *  that held more than MAX_RETAINED_LINES of them. */
+    private void clearPages() {
+        int size = _pages.size();
+        _pages.clear();
+        if (size > MAX_RETAINED_LINES && _pages instanceof ArrayList) {
+            ((ArrayList<String>) _pages).trimToSize();
+        }
+    }
+
+    /** Returns the statistics in which I count pages. */
+    FormatStats stats() {
+        return _stats;
+    }
+
     /** Returns _pages. */
     List<String> accessPages() {
         return _pages;
@@ -60,4 +196,20 @@ abstract class PageAssembler {
 
     /** The current text Height. */
     private int _textHeight = -1;
+
+    /** True iff no line has been added since the last reset. */
+    private boolean _blank = true;
+
+    /** The number of the current page. */
+    private int _page;
+
+    /** The number of lines emitted since the last reset. */
+    private long _emitted;
+
+    /** The event for the current page, or null if events were not being
+     *  recorded when it started. */
+    private PageEvent _pageEvent;
+
+    /** Where pages (and, in subtypes, other things) are counted. */
+    private final FormatStats _stats;
 }
@@ -65,6 +65,30 @@ public class PageAssemblerTest {
         assertEquals("wrong contents: collector", testLines, outList);
     }
 
+    @Test
+    public void testStreamingPrinter() {
+        makeTestLines(20);
+        setupCollector();
+        pages = new PageCollector(outList);
+        pages.setTextHeight(7);
+        writeTestLines();
+        setupWriter();
+        pages = new PagePrinter(writer);
+        pages.setTextHeight(7);
+        for (String L : testLines) {
+            pages.addLine(L);
+        }
+        writer.close();
+        StringBuilder S = new StringBuilder();
+        for (String L : outList) {
+            S.append(L);
+            S.append(NL);
+        }
+        assertEquals("wrong contents: streaming printer", S.toString(),
+                     output.toString());
+        assertTrue(pages.accessPages().isEmpty());
+    }
+
     /** Collects output to a PrintWriter. */
     private StringWriter output;
     /** Collects output from a PageAssembler. */
@@ -12,6 +12,12 @@ class PageCollector extends PageAssembler {
         super(pages);
     }
 
+    /** A new PageCollector that stores lines in PAGES and counts pages in
+     *  STATS. */
+    PageCollector(List<String> pages, FormatStats stats) {
+        super(pages, stats);
+    }
+
     /** Add LINE to my List. */
     @Override
     void write(String line) {
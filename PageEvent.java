@@ -0,0 +1,29 @@
+package tex61;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JDK Flight Recorder event for one page completed by a
+ *  PageAssembler, lasting from its first line to its last.
+ *  @author Greg
+ */
+@Name("tex61.PageCompleted")
+@Label("Page Completed")
+@Category({ "tex61", "Formatting" })
+@Description("A page of output completed by a PageAssembler")
+@StackTrace(false)
+final class PageEvent extends Event {
+
+    /** Number of the page, starting at 1. */
+    @Label("Page")
+    int page;
+
+    /** Number of lines on the page, including blank lines. */
+    @Label("Lines")
+    int lines;
+
+}
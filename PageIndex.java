@@ -0,0 +1,374 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/** The pages of a formatted document, found as it is written, and an
+ *  index file of them kept beside the output file.  The index holds a
+ *  hash of the document's source and settings, the length of the
+ *  output, and the byte offset and number of lines of each page, so
+ *  that a range of pages can be copied from the output without
+ *  formatting the document again.  The document passes through a Writer
+ *  that I provide (see output), which counts the lengths of its lines
+ *  encoded in the output's charset.  That charset must encode newlines
+ *  and form feeds as single ASCII bytes and no other characters with
+ *  those bytes.  A page starts at the beginning of the output and at
+ *  each later line that begins with a form feed, as the PagePrinter
+ *  writes them, so the index describes the text actually written, even
+ *  when it is not what was assembled into pages.
+ *  <p>
+ *  An index file holds MAGIC, VERSION, the hash (HASH_SIZE bytes), the
+ *  length of the output, and the number of pages, followed by an offset
+ *  (8 bytes) and line count (4 bytes) for each page, all big-endian.
+ *  @author Greg
+ */
+class PageIndex {
+
+    /** Changed whenever the format of index files or the formatting of
+     *  documents changes, so as to invalidate existing indices. */
+    static final int VERSION = 2;
+
+    /** Suffix added to the name of an output file to get that of its
+     *  index. */
+    static final String SUFFIX = ".pages";
+
+    /** Number of bytes in a source hash. */
+    static final int HASH_SIZE = 32;
+
+    /** Returns the index file of OUTPUT. */
+    static File indexFile(File output) {
+        return new File(output.getPath() + SUFFIX);
+    }
+
+    /** Returns true iff the offsets of output in CHARSET can be
+     *  indexed. */
+    static boolean indexable(Charset charset) {
+        return Arrays.equals("\n\f".getBytes(charset),
+                             new byte[] { '\n', '\f' });
+    }
+
+    /** A new, empty PageIndex of output written in CHARSET, which must
+     *  be indexable. */
+    PageIndex(Charset charset) {
+        _utf8 = charset.equals(StandardCharsets.UTF_8);
+        _encoder = charset.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = ByteBuffer.allocate(ENCODE_SIZE);
+    }
+
+    /** Returns the hash of the contents of the file INPUT and of
+     *  SETTINGS, which describe anything else affecting its output. */
+    static byte[] sourceHash(File input, String settings)
+        throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        digest.update(settings.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        try (FileChannel in = FileChannel.open(input.toPath(),
+                                               StandardOpenOption.READ)) {
+            long size = in.size();
+            for (long pos = 0; pos < size; pos += REGION_SIZE) {
+                digest.update(in.map(FileChannel.MapMode.READ_ONLY, pos,
+                                     Math.min(REGION_SIZE, size - pos)));
+            }
+        }
+        return digest.digest();
+    }
+
+    /** Returns a Writer that writes to OUT, encoding as my output does,
+     *  and counts what it writes for me.  The formatted document must be
+     *  written through it, and nothing else. */
+    Writer output(Writer out) {
+        return new Output(out);
+    }
+
+    /** Returns the number of pages written through output. */
+    int pages() {
+        return _length == 0 ? 0 : _numMarks + 1;
+    }
+
+    /** Write the index of OUTPUT, the formatted document written through
+     *  output, with source hash HASH, and return true.  If OUTPUT is not
+     *  as long as what was written, remove any index of it instead, and
+     *  return false. */
+    boolean write(File output, byte[] hash) throws IOException {
+        if (output.length() != _length) {
+            indexFile(output).delete();
+            return false;
+        }
+        int pages = pages();
+        long lines = _written + (_partial ? 1 : 0);
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE
+                                             + ENTRY_SIZE * pages);
+        buf.putInt(MAGIC).putInt(VERSION).put(hash).putLong(_length);
+        buf.putInt(pages);
+        long start = 0;
+        for (int p = 0; p < pages; p += 1) {
+            long next = p < _numMarks ? _marks[2 * p] : lines;
+            buf.putLong(p == 0 ? 0 : _marks[2 * p - 1]);
+            buf.putInt((int) (next - start));
+            start = next;
+        }
+        buf.flip();
+        try (FileChannel out =
+             FileChannel.open(indexFile(output).toPath(),
+                              StandardOpenOption.WRITE,
+                              StandardOpenOption.CREATE,
+                              StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+        }
+        return true;
+    }
+
+    /** Copy pages FIRST through LAST (numbering from 1) of OUTPUT to OUT,
+     *  without the form feed that starts page FIRST, using OUTPUT's
+     *  index, and return true.  Pages after the last are ignored.  If
+     *  there is no valid index for OUTPUT with source hash HASH, return
+     *  false instead.  If there is no page FIRST, throws FormatException.
+     *  Other errors cause an IOException. */
+    static boolean copyPages(File output, byte[] hash, int first, int last,
+                             WritableByteChannel out) throws IOException {
+        File index = indexFile(output);
+        if (!index.isFile() || !output.isFile()) {
+            return false;
+        }
+        long start, end;
+        try (FileChannel in = FileChannel.open(index.toPath(),
+                                               StandardOpenOption.READ)) {
+            ByteBuffer header = read(in, 0, HEADER_SIZE);
+            byte[] stored = new byte[HASH_SIZE];
+            if (header == null || header.getInt() != MAGIC
+                || header.getInt() != VERSION) {
+                return false;
+            }
+            header.get(stored);
+            long length = header.getLong();
+            int pages = header.getInt();
+            if (!Arrays.equals(stored, hash) || length != output.length()
+                || in.size() != HEADER_SIZE + (long) ENTRY_SIZE * pages) {
+                return false;
+            }
+            if (first > pages) {
+                throw FormatException.error("document has only %d pages",
+                                            pages);
+            }
+            start = read(in, entry(first), ENTRY_SIZE).getLong();
+            if (last >= pages) {
+                end = length;
+            } else {
+                end = read(in, entry(last + 1), ENTRY_SIZE).getLong();
+            }
+        }
+        if (first > 1) {
+            start += 1;
+        }
+
+        try (FileChannel in = FileChannel.open(output.toPath(),
+                                               StandardOpenOption.READ)) {
+            if (in.size() < end) {
+                throw new IOException("output file is truncated");
+            }
+            while (start < end) {
+                start += in.transferTo(start, end - start, out);
+            }
+        }
+        return true;
+    }
+
+    /** Returns the number of bytes in the first LEN characters of CHARS
+     *  encoded as by my output. */
+    private long encodedLength(char[] chars, int len) {
+        if (_utf8) {
+            long n = len;
+            for (int i = 0; i < len; i += 1) {
+                char c = chars[i];
+                if (c < 0x80) {
+                    continue;
+                } else if (c < 0x800) {
+                    n += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len
+                           && Character.isLowSurrogate(chars[i + 1])) {
+                    n += 2;
+                    i += 1;
+                } else if (!Character.isSurrogate(c)) {
+                    n += 2;
+                }
+            }
+            return n;
+        }
+        CharBuffer in = CharBuffer.wrap(chars, 0, len);
+        long n = 0;
+        _encoder.reset();
+        while (true) {
+            _bytes.clear();
+            CoderResult result = _encoder.encode(in, _bytes, true);
+            n += _bytes.position();
+            if (result.isUnderflow()) {
+                break;
+            }
+        }
+        while (true) {
+            _bytes.clear();
+            CoderResult result = _encoder.flush(_bytes);
+            n += _bytes.position();
+            if (result.isUnderflow()) {
+                return n;
+            }
+        }
+    }
+
+    /** Count the output line of which the first LEN characters of CHARS
+     *  are all but the newline, noting where it starts if it starts a
+     *  page. */
+    private void countLine(char[] chars, int len) {
+        if (len > 0 && chars[0] == '\f' && _written > 0) {
+            if (2 * _numMarks == _marks.length) {
+                _marks = Arrays.copyOf(_marks, 2 * _marks.length);
+            }
+            _marks[2 * _numMarks] = _written;
+            _marks[2 * _numMarks + 1] = _length;
+            _numMarks += 1;
+        }
+        _length += encodedLength(chars, len) + 1;
+        _written += 1;
+    }
+
+    /** A Writer that passes text on to another, and counts its lines for
+     *  my PageIndex. */
+    private class Output extends Writer {
+
+        /** An Output to OUT. */
+        Output(Writer out) {
+            _out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            _out.write(cbuf, off, len);
+            for (int i = off; i < off + len; i += 1) {
+                char c = cbuf[i];
+                if (c == '\n') {
+                    countLine(_line, _lineLen);
+                    _lineLen = 0;
+                } else {
+                    if (_lineLen == _line.length) {
+                        _line = Arrays.copyOf(_line, 2 * _lineLen);
+                    }
+                    _line[_lineLen] = c;
+                    _lineLen += 1;
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            _out.flush();
+        }
+
+        /** Close the other Writer, counting the last line of text, if it
+         *  has no newline. */
+        @Override
+        public void close() throws IOException {
+            if (_lineLen > 0) {
+                _length += encodedLength(_line, _lineLen);
+                _partial = true;
+                _lineLen = 0;
+            }
+            _out.close();
+        }
+
+        /** Where text is written. */
+        private final Writer _out;
+
+        /** The characters of the line being written. */
+        private char[] _line = new char[Defaults.TEXT_WIDTH];
+
+        /** The number of characters in _line. */
+        private int _lineLen;
+    }
+
+    /** Returns the position in an index file of the entry for page
+     *  PAGE. */
+    private static long entry(int page) {
+        return HEADER_SIZE + (long) ENTRY_SIZE * (page - 1);
+    }
+
+    /** Returns a buffer holding the LEN bytes of IN at position POS, or
+     *  null if IN ends first. */
+    private static ByteBuffer read(FileChannel in, long pos, int len)
+        throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) {
+                return null;
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /** Identifies index files. */
+    private static final int MAGIC = 0x74363149;
+
+    /** Size of the header of an index file. */
+    private static final int HEADER_SIZE = 4 + 4 + HASH_SIZE + 8 + 4;
+
+    /** Size of the entry for each page in an index file. */
+    private static final int ENTRY_SIZE = 8 + 4;
+
+    /** Size of the buffer into which lines are encoded to count their
+     *  bytes. */
+    private static final int ENCODE_SIZE = 1 << 12;
+
+    /** Size of each region of a file mapped at once. */
+    private static final long REGION_SIZE = 1L << 26;
+
+    /** The number of bytes written through output. */
+    private long _length;
+
+    /** The number of complete lines written through output. */
+    private long _written;
+
+    /** True iff the output ended with a line that has no newline. */
+    private boolean _partial;
+
+    /** Pairs of the number of each line after the first written through
+     *  output that begins with a form feed and the byte offset of its
+     *  start, in _marks[0 .. 2 * _numMarks - 1]. */
+    private long[] _marks = new long[32];
+
+    /** The number of pairs in _marks. */
+    private int _numMarks;
+
+    /** True iff the output is in UTF-8, whose lengths are computed
+     *  directly. */
+    private final boolean _utf8;
+
+    /** Encodes lines as my output does, to count their bytes. */
+    private final CharsetEncoder _encoder;
+
+    /** Receives the bytes counted by _encoder. */
+    private final ByteBuffer _bytes;
+
+}
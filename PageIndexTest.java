@@ -0,0 +1,113 @@
+package tex61;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of PageIndexes.
+ *  @author Greg
+ */
+public class PageIndexTest {
+
+    private static final byte[] HASH = new byte[PageIndex.HASH_SIZE];
+
+    /** Format DOC into a temporary file in CHARSET, streaming iff
+     *  STREAMING, and index it with source hash HASH.  Returns the
+     *  file. */
+    private File format(String doc, boolean streaming, Charset charset)
+        throws IOException {
+        File output = File.createTempFile("tex61", ".out");
+        output.deleteOnExit();
+        PageIndex.indexFile(output).deleteOnExit();
+        PageIndex index = new PageIndex(charset);
+        PrintWriter out =
+            new PrintWriter(index.output(new OutputStreamWriter(
+                new FileOutputStream(output), charset)));
+        Controller controller = new Controller(out, streaming);
+        new InputParser(new StringReader(doc), controller).process();
+        out.close();
+        assertTrue(index.write(output, HASH));
+        return output;
+    }
+
+    /** Returns pages FIRST through LAST of OUTPUT, from its index, or null
+     *  if the index is not valid for HASH. */
+    private String pages(File output, byte[] hash, int first, int last,
+                         Charset charset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (!PageIndex.copyPages(output, hash, first, last,
+                                 Channels.newChannel(bytes))) {
+            return null;
+        }
+        return bytes.toString(charset.name());
+    }
+
+    @Test
+    public void testPages() throws IOException {
+        StringBuilder doc = new StringBuilder("\\textheight{4}\\textwidth{16}");
+        for (int i = 0; i < 25; i += 1) {
+            doc.append("Caf\u00e9 number ").append(i)
+                .append(" is \u4e2d open \ud83d\ude00.\\endnote{Note ")
+                .append(i).append(".}\n\n");
+        }
+        for (String name : new String[] { "UTF-8", "ISO-8859-1" }) {
+            Charset charset = Charset.forName(name);
+            for (boolean streaming : new boolean[] { false, true }) {
+                checkPages(format(doc.toString(), streaming, charset),
+                           charset);
+            }
+        }
+    }
+
+    @Test
+    public void testNestedEndnotes() throws IOException {
+        Charset utf8 = Charset.forName("UTF-8");
+        String doc = "\\textheight{2}a\\endnote{b \\endnote{c} d} e\n";
+        for (boolean streaming : new boolean[] { false, true }) {
+            File output = format(doc, streaming, utf8);
+            String text = new String(Files.readAllBytes(output.toPath()),
+                                     utf8);
+            assertEquals(text, pages(output, HASH, 1, 100, utf8));
+            int second = text.indexOf('\f');
+            assertTrue(second > 0);
+            assertEquals(text.substring(0, second),
+                         pages(output, HASH, 1, 1, utf8));
+        }
+    }
+
+    /** Check the pages copied from OUTPUT, in CHARSET, using its
+     *  index. */
+    private void checkPages(File output, Charset charset)
+        throws IOException {
+        String text = new String(Files.readAllBytes(output.toPath()),
+                                 charset);
+        String[] pages = text.split("\f");
+        assertTrue(pages.length > 10);
+        assertEquals(pages[0], pages(output, HASH, 1, 1, charset));
+        assertEquals(pages[2] + "\f" + pages[3],
+                     pages(output, HASH, 3, 4, charset));
+        assertEquals(pages[pages.length - 1],
+                     pages(output, HASH, pages.length, pages.length + 5,
+                           charset));
+        assertEquals(text, pages(output, HASH, 1, pages.length, charset));
+
+        byte[] other = HASH.clone();
+        other[0] = 1;
+        assertNull(pages(output, other, 1, 1, charset));
+        Files.write(output.toPath(), new byte[] { 'x' },
+                    StandardOpenOption.APPEND);
+        assertNull(pages(output, HASH, 1, 1, charset));
+    }
+
+}
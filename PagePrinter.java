@@ -1,6 +1,7 @@
 package tex61;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 /** A PageAssembler that sends lines immediately to a PrintWriter, with
@@ -11,23 +12,106 @@ class PagePrinter extends PageAssembler {
 
     /** A new PagePrinter that sends lines to PAGES and OUT. */
     PagePrinter(List<String> pages, PrintWriter out) {
-        super(pages);
+        this(pages, out, new FormatStats());
+    }
+
+    /** A new PagePrinter that sends lines to PAGES and OUT, counting pages
+     *  and output in STATS. */
+    PagePrinter(List<String> pages, PrintWriter out, FormatStats stats) {
+        super(pages, stats);
         _out = out;
     }
 
+    /** A new PagePrinter that paginates lines passed to addLine and sends
+     *  them straight to OUT, without retaining them. */
+    PagePrinter(PrintWriter out) {
+        this(new ArrayList<String>(), out);
+    }
+
+    /** A new PagePrinter that paginates lines passed to addLine and sends
+     *  them straight to OUT, without retaining them, counting pages and
+     *  output in STATS. */
+    PagePrinter(PrintWriter out, FormatStats stats) {
+        this(new ArrayList<String>(), out, stats);
+    }
+
+    /** Print only the lines of pages FIRST through LAST (numbering from
+     *  1) from now on, without the form feed that starts page FIRST. */
+    void setPages(int first, int last) {
+        _first = first;
+        _last = last;
+    }
+
+    /** Print LINE to my output, preceded by a form feed iff NEWPAGE,
+     *  if it is on one of the pages being printed. */
+    @Override
+    void emit(String line, boolean newPage) {
+        int page = page();
+        if (page < _first || page > _last) {
+            return;
+        }
+        FormatStats stats = stats();
+        long start = stats.start();
+        if (newPage && page != _first) {
+            _out.write('\f');
+            stats.countOutput(1);
+        }
+        _out.write(line);
+        _out.write('\n');
+        stats.countOutput(line.length() + 1);
+        stats.stop(FormatStats.Stage.WRITE, start);
+    }
+
     /** Print LINE to my output. */
     @Override
     void write(String line) {
-        _out.write(line + "\n");
+        _out.write(line);
+        _out.write('\n');
+        stats().countOutput(line.length() + 1);
     }
 
     /** Writes all of the lines to _out. */
     void writeAll() {
-        for (String line : _pages) {
-            write(line);
+        FormatStats stats = stats();
+        long start = stats.start();
+        if (_pages instanceof LineStore) {
+            writeAll((LineStore) _pages);
+        } else {
+            for (String line : _pages) {
+                write(line);
+            }
+        }
+        stats.stop(FormatStats.Stage.WRITE, start);
+    }
+
+    /** Writes all of LINES to _out, copying the characters of each in
+     *  turn into _chars rather than making Strings of them. */
+    private void writeAll(LineStore lines) {
+        for (int k = 0; k < lines.size(); k += 1) {
+            if (lines.length(k) > _chars.length) {
+                _chars = new char[Math.max(lines.length(k),
+                                           2 * _chars.length)];
+            }
+            int len = lines.getChars(k, _chars);
+            if (lines.startsPage(k)) {
+                _out.write('\f');
+                stats().countOutput(1);
+            }
+            _out.write(_chars, 0, len);
+            _out.write('\n');
+            stats().countOutput(len + 1);
         }
     }
 
     /** This PagePrinter's PrintWriter. */
     private PrintWriter _out;
+
+    /** The first page printed. */
+    private int _first = 1;
+
+    /** The last page printed. */
+    private int _last = Integer.MAX_VALUE;
+
+    /** Holds the characters of each line written from a LineStore. */
+    private char[] _chars = new char[Defaults.TEXT_WIDTH];
 }
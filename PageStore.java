@@ -0,0 +1,34 @@
+package tex61;
+
+/** A PageAssembler that collects its lines compactly into a LineStore,
+ *  recording the start of each page as a bit rather than adding a
+ *  form feed to its first line.
+ *  @author Greg
+ */
+class PageStore extends PageAssembler {
+
+    /** A new PageStore, with its lines in a new LineStore, that counts
+     *  pages in STATS. */
+    PageStore(FormatStats stats) {
+        super(new LineStore(), stats);
+    }
+
+    /** Returns my lines. */
+    LineStore lines() {
+        return (LineStore) _pages;
+    }
+
+    /** Add LINE to my LineStore, starting a new page with it iff
+     *  NEWPAGE. */
+    @Override
+    void emit(String line, boolean newPage) {
+        lines().add(line, newPage);
+    }
+
+    /** Add LINE to my LineStore. */
+    @Override
+    void write(String line) {
+        addLine(line);
+    }
+
+}
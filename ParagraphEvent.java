@@ -0,0 +1,38 @@
+package tex61;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/** A JDK Flight Recorder event for one paragraph laid out by a
+ *  LineAssembler, lasting from the end of the previous paragraph to the
+ *  end of this one.  Paragraphs with no words are not recorded.
+ *  @author Greg
+ */
+@Name("tex61.ParagraphLayout")
+@Label("Paragraph Layout")
+@Category({ "tex61", "Formatting" })
+@Description("A paragraph broken into lines by a LineAssembler")
+@StackTrace(false)
+final class ParagraphEvent extends Event {
+
+    /** Number of words in the paragraph. */
+    @Label("Words")
+    int words;
+
+    /** Number of lines in the paragraph. */
+    @Label("Lines")
+    int lines;
+
+    /** Text width at the end of the paragraph. */
+    @Label("Text Width")
+    int width;
+
+    /** True iff the paragraph is in an endnote. */
+    @Label("Endnote")
+    boolean endnote;
+
+}
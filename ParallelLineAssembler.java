@@ -0,0 +1,348 @@
+package tex61;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** A LineAssembler that breaks paragraphs into lines in parallel.  It records
+ *  the text and settings it receives, divides them into batches of whole
+ *  paragraphs, and formats each batch on a ForkJoinPool (or, without
+ *  one, at once) with a new LineAssembler that starts with the settings
+ *  in effect at the end of the previous batch.  The resulting lines are
+ *  sent to the PageAssembler in order, on the thread that supplies the
+ *  text, so that pagination and paragraph skips are just as for an
+ *  ordinary LineAssembler, and so is the output.  Each batch is recorded
+ *  in an OpLog and replayed to format it.  Each paragraph is held
+ *  in memory until it ends.  Lines taken from a LayoutCache (see
+ *  addLines) are recorded in the same way, and paragraphs to be added to
+ *  one are captured by the LineAssembler that formats them.
+ *  @author Greg
+ */
+class ParallelLineAssembler extends LineAssembler {
+
+    /** Default number of characters of text in a batch, after which the
+     *  batch ends at the next end of paragraph. */
+    static final int BATCH_SIZE = 1 << 14;
+
+    /** Initial room for operations and their operands in a batch. */
+    private static final int INITIAL_OPS = 256;
+
+    /** A new, empty line assembler with default settings of all
+     *  parameters for the main text, which formats paragraphs on POOL and
+     *  sends finished lines to PAGECOLLECTOR. */
+    ParallelLineAssembler(PageAssembler pagecollector, ForkJoinPool pool) {
+        this(pagecollector, pool, BATCH_SIZE);
+    }
+
+    /** A new, empty line assembler with default settings of all
+     *  parameters for the main text, which formats batches of paragraphs
+     *  containing about BATCHSIZE characters on POOL (or at once, if POOL
+     *  is null), and sends finished lines to PAGECOLLECTOR. */
+    ParallelLineAssembler(PageAssembler pagecollector, ForkJoinPool pool,
+                          int batchSize) {
+        super(pagecollector, false);
+        _pagecollector = pagecollector;
+        _pool = pool;
+        _batchSize = batchSize;
+        _maxPending = pool == null ? 0 : 2 * pool.getParallelism() + 2;
+        newLayout();
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        for (Layout layout : _pending) {
+            layout.cancel(false);
+        }
+        _pending.clear();
+        _started = _parText = false;
+        newLayout();
+    }
+
+    @Override
+    void addText(String text) {
+        int len = text.length();
+        text.getChars(0, len, _log.reserve(len), _log.numChars);
+        _log.addText(OpLog.TEXT, len);
+        _parText = true;
+    }
+
+    @Override
+    void addText(char[] buf, int off, int len) {
+        System.arraycopy(buf, off, _log.reserve(len), _log.numChars, len);
+        _log.addText(OpLog.TEXT, len);
+        _parText = true;
+    }
+
+    @Override
+    void finishWord() {
+        if (_log.lastOp() != OpLog.END_WORD) {
+            _log.add(OpLog.END_WORD);
+        }
+    }
+
+    @Override
+    void addWord(String word) {
+        int len = word.length();
+        word.getChars(0, len, _log.reserve(len), _log.numChars);
+        _log.addText(OpLog.WORD, len);
+        _parText = true;
+    }
+
+    @Override
+    void newLine() {
+        _log.add(OpLog.NEWLINE);
+    }
+
+    @Override
+    void endParagraph() {
+        _log.add(OpLog.END_PARAGRAPH);
+        if (_log.numChars >= _batchSize || _log.numOps >= _batchSize) {
+            submit();
+        }
+        _parText = false;
+    }
+
+    @Override
+    boolean ordered() {
+        return false;
+    }
+
+    @Override
+    boolean cacheable() {
+        return !_parText && super.cacheable();
+    }
+
+    @Override
+    void addLines(LayoutCache.Entry entry) {
+        _log.add(OpLog.REPLAY, _log.addObject(entry));
+        _parText = true;
+    }
+
+    @Override
+    void cacheParagraph(LayoutCache cache, LayoutCache.Key key) {
+        _log.cache = cache;
+        _log.add(OpLog.CACHE, _log.addObject(key));
+    }
+
+    @Override
+    void setIndentation(int val) {
+        super.setIndentation(val);
+        _log.add(OpLog.SET_INDENTATION, val);
+    }
+
+    @Override
+    void setParIndentation(int val) {
+        super.setParIndentation(val);
+        _log.add(OpLog.SET_PAR_INDENTATION, val);
+    }
+
+    @Override
+    void setTextWidth(int val) {
+        super.setTextWidth(val);
+        _log.add(OpLog.SET_TEXT_WIDTH, val);
+    }
+
+    @Override
+    void setFill(boolean on) {
+        super.setFill(on);
+        _log.add(OpLog.SET_FILL, on ? 1 : 0);
+    }
+
+    @Override
+    void setJustify(boolean on) {
+        super.setJustify(on);
+        _log.add(OpLog.SET_JUSTIFY, on ? 1 : 0);
+    }
+
+    @Override
+    void setOptimalFit(boolean on) {
+        super.setOptimalFit(on);
+        _log.add(OpLog.SET_OPTIMAL_FIT, on ? 1 : 0);
+    }
+
+    /** Hyphenate as for LineAssembler.  Must be called before any text
+     *  is received. */
+    @Override
+    void setHyphenator(Hyphenator hyphenator) {
+        super.setHyphenator(hyphenator);
+        _layout.assembler.setHyphenator(hyphenator);
+    }
+
+    @Override
+    void setParSkip(int val) {
+        super.setParSkip(val);
+        _log.add(OpLog.SET_PAR_SKIP, val);
+    }
+
+    @Override
+    void setTextHeight(int val) {
+        _log.add(OpLog.SET_TEXT_HEIGHT, val);
+    }
+
+    /** Format all paragraphs received so far and send their lines to the
+     *  PageAssembler.  Must be called between paragraphs. */
+    @Override
+    void flush() {
+        submit();
+        while (!_pending.isEmpty()) {
+            paginate(_pending.remove());
+        }
+    }
+
+    /** Start formatting the current batch, if it is not empty, and begin
+     *  a new one.  Send the lines of any batches that are finished to
+     *  the PageAssembler, waiting for the oldest if too many are
+     *  unfinished. */
+    private void submit() {
+        if (_log.numOps > 0) {
+            _layout.lines.stats().setTimed(stats().timed());
+            if (_pool == null) {
+                _layout.invoke();
+            } else {
+                _pool.execute(_layout);
+            }
+            _pending.add(_layout);
+            newLayout();
+        }
+        while (!_pending.isEmpty()
+               && (_pending.size() > _maxPending
+                   || _pending.peek().isDone())) {
+            paginate(_pending.remove());
+        }
+    }
+
+    /** Start recording a new batch. */
+    private void newLayout() {
+        _layout = new Layout(this);
+        _log = _layout.log;
+    }
+
+    /** Wait for LAYOUT to finish, and send its lines and changes of text
+     *  height to the PageAssembler.  Drops paragraph skips preceding the
+     *  first line of the document.  Adds the batch's statistics to
+     *  mine. */
+    private void paginate(Layout layout) {
+        layout.join();
+        stats().add(layout.lines.stats());
+        List<String> lines = layout.lines.accessPages();
+        int[] heights = layout.lines.heights;
+        int h = 0;
+        for (int i = 0; i < lines.size(); i += 1) {
+            for (; h < layout.lines.numHeights && heights[2 * h] == i;
+                 h += 1) {
+                _pagecollector.setTextHeight(heights[2 * h + 1]);
+            }
+            String line = lines.get(i);
+            if (line != null) {
+                _started = true;
+            } else if (!_started) {
+                continue;
+            }
+            _pagecollector.addLine(line);
+        }
+        for (; h < layout.lines.numHeights; h += 1) {
+            _pagecollector.setTextHeight(heights[2 * h + 1]);
+        }
+    }
+
+    /** The formatting of one batch of paragraphs. */
+    private static class Layout extends RecursiveAction {
+
+        /** Layouts are never serialized. */
+        private static final long serialVersionUID = 1L;
+
+        /** A new, empty batch continuing the text received by SOURCE,
+         *  with its current settings. */
+        Layout(LineAssembler source) {
+            assembler = new LineAssembler(lines, false);
+            assembler.resume(source);
+        }
+
+        @Override
+        protected void compute() {
+            log.replay(assembler);
+            log = null;
+        }
+
+        /** Formats the batch. */
+        private final LineAssembler assembler;
+
+        /** The lines of the batch. */
+        private final LineList lines = new LineList();
+
+        /** The text and settings of the batch, until it is
+         *  formatted. */
+        private OpLog log = new OpLog(INITIAL_OPS, BATCH_SIZE);
+    }
+
+    /** A PageAssembler that collects lines, including skipped lines, and
+     *  changes of text height, without paginating them. */
+    private static class LineList extends PageAssembler {
+
+        /** A new, empty LineList. */
+        LineList() {
+            super(new ArrayList<String>());
+        }
+
+        @Override
+        void addLine(String line) {
+            _pages.add(line);
+        }
+
+        @Override
+        void setTextHeight(int val) {
+            if (2 * numHeights == heights.length) {
+                heights = Arrays.copyOf(heights, 2 * heights.length);
+            }
+            heights[2 * numHeights] = _pages.size();
+            heights[2 * numHeights + 1] = val;
+            numHeights += 1;
+        }
+
+        @Override
+        void write(String line) {
+            addLine(line);
+        }
+
+        /** Pairs of line numbers and text heights: text height
+         *  HEIGHTS[2k+1] takes effect before line HEIGHTS[2k]. */
+        private int[] heights = new int[2];
+
+        /** The number of changes of text height. */
+        private int numHeights;
+    }
+
+    /** Destination given in constructor for formatted lines. */
+    private final PageAssembler _pagecollector;
+
+    /** Formats batches of paragraphs, or null to format them at once. */
+    private final ForkJoinPool _pool;
+
+    /** Number of characters after which a batch ends at the next end of
+     *  paragraph. */
+    private final int _batchSize;
+
+    /** Maximum number of batches being formatted at once. */
+    private final int _maxPending;
+
+    /** Batches whose lines have not yet been sent to _pagecollector, in
+     *  order. */
+    private final ArrayDeque<Layout> _pending = new ArrayDeque<Layout>();
+
+    /** The batch currently being recorded. */
+    private Layout _layout;
+
+    /** The operations of _layout. */
+    private OpLog _log;
+
+    /** True iff a line of text has been sent to _pagecollector. */
+    private boolean _started;
+
+    /** True iff the current paragraph has text. */
+    private boolean _parText;
+
+}
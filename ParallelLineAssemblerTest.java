@@ -0,0 +1,139 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of ParallelLineAssemblers.
+ *  @author Greg
+ */
+public class ParallelLineAssemblerTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    /** Send the same random sequence of text, ends of line and paragraph,
+     *  and settings, chosen with SEED, to SERIAL and PARALLEL. */
+    private void feed(long seed, LineAssembler serial,
+                      LineAssembler parallel) {
+        Random r = new Random(seed);
+        for (int i = 0; i < 2000; i += 1) {
+            int k = r.nextInt(100);
+            for (LineAssembler out : new LineAssembler[] { serial,
+                                                           parallel }) {
+                Random op = new Random(seed + i);
+                if (k < 60) {
+                    out.addText("abcdefghijklmnopq".substring(0,
+                                                  1 + op.nextInt(17)));
+                } else if (k < 75) {
+                    out.finishWord();
+                } else if (k < 82) {
+                    out.newLine();
+                } else if (k < 89) {
+                    out.endParagraph();
+                } else if (k < 90) {
+                    out.setFill(op.nextBoolean());
+                } else if (k < 91) {
+                    out.setOptimalFit(op.nextBoolean());
+                } else if (k < 93) {
+                    out.setJustify(op.nextBoolean());
+                } else if (k < 95) {
+                    out.setTextWidth(10 + op.nextInt(40));
+                } else if (k < 96) {
+                    out.setIndentation(op.nextInt(5));
+                } else if (k < 97) {
+                    out.setParIndentation(op.nextInt(5));
+                } else if (k < 98) {
+                    out.setParSkip(op.nextInt(3));
+                } else {
+                    out.setTextHeight(1 + op.nextInt(10));
+                }
+            }
+        }
+        serial.endParagraph();
+        parallel.endParagraph();
+        parallel.flush();
+    }
+
+    @Test
+    public void testSameAsSerial() {
+        for (int batch = 1; batch < 200; batch *= 3) {
+            for (long seed = 0; seed < 10; seed += 1) {
+                PageAssembler expected =
+                    new PageCollector(new ArrayList<String>());
+                PageAssembler actual =
+                    new PageCollector(new ArrayList<String>());
+                ParallelLineAssembler parallel =
+                    new ParallelLineAssembler(actual, POOL, batch);
+                feed(seed, new LineAssembler(expected, false), parallel);
+                assertEquals(expected.accessPages(), actual.accessPages());
+            }
+        }
+    }
+
+    /** Returns the output of formatting DOC, with paragraphs broken
+     *  into lines on POOL, if not null, and reused from CACHE, if not
+     *  null. */
+    private String format(String doc, ForkJoinPool pool,
+                          LayoutCache cache) {
+        StringWriter out = new StringWriter();
+        Controller cntrl = new Controller(new PrintWriter(out), false,
+                                          new ErrorLog(null), pool, cache);
+        new InputParser(new StringReader(doc), cntrl).process();
+        return out.toString();
+    }
+
+    @Test
+    public void testCache() {
+        Random r = new Random(5);
+        StringBuilder doc = new StringBuilder("\\optimalfit\n");
+        for (int i = 0; i < 300; i += 1) {
+            int k = r.nextInt(20);
+            if (k == 0) {
+                doc.append("\\textwidth{").append(20 + r.nextInt(40))
+                    .append("}");
+            } else if (k == 1) {
+                doc.append("\\nooptimalfit ");
+            } else if (k == 2) {
+                doc.append("\\optimalfit ");
+            } else if (k == 3) {
+                doc.append("\\endnote{a note} ");
+            }
+            int words = 1 + r.nextInt(40);
+            for (int w = 0; w < words; w += 1) {
+                doc.append("abcdefghij", 0, 1 + r.nextInt(10))
+                    .append(r.nextInt(8) == 0 ? "\n" : " ");
+            }
+            doc.append(r.nextBoolean() ? "\n\n" : "  \r\n \n\n");
+        }
+        String expected = format(doc.toString(), null, null);
+        LayoutCache cache = new LayoutCache(1 << 20);
+        for (ForkJoinPool pool : new ForkJoinPool[] { null, POOL }) {
+            for (int run = 0; run < 2; run += 1) {
+                assertEquals(expected, format(doc.toString(), pool, cache));
+            }
+        }
+        assertTrue(cache.misses() > 50);
+        assertTrue(cache.hits() >= 3 * cache.misses());
+    }
+
+    @Test
+    public void testReset() {
+        PageAssembler expected = new PageCollector(new ArrayList<String>());
+        PageAssembler actual = new PageCollector(new ArrayList<String>());
+        ParallelLineAssembler parallel =
+            new ParallelLineAssembler(actual, POOL, 1);
+        feed(1, new LineAssembler(expected, false), parallel);
+        expected.reset();
+        actual.reset();
+        parallel.reset();
+        feed(2, new LineAssembler(expected, false), parallel);
+        assertEquals(expected.accessPages(), actual.accessPages());
+    }
+
+}
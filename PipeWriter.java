@@ -0,0 +1,158 @@
+package tex61;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/** A Writer that passes its text to a thread of its own, which writes
+ *  it to another Writer, so that text is encoded and written while more
+ *  is being produced.  Text is collected into chunks of a fixed number
+ *  of characters, which are passed on through a BatchRing as they fill;
+ *  all of the chunks are allocated at the start, and a writer that gets
+ *  ahead of the output waits for a chunk to be free.  The first error
+ *  writing to the other Writer stops all further output, and is thrown
+ *  by the next write, flush, or close.  Only one thread may use a
+ *  PipeWriter at a time.
+ *  @author Greg
+ */
+class PipeWriter extends Writer {
+
+    /** The number of chunks. */
+    static final int NUM_CHUNKS = 4;
+
+    /** A new PipeWriter that writes to OUT in chunks of CHUNKSIZE
+     *  characters. */
+    PipeWriter(Writer out, int chunkSize) {
+        _out = out;
+        Chunk[] chunks = new Chunk[NUM_CHUNKS];
+        for (int i = 0; i < NUM_CHUNKS; i += 1) {
+            chunks[i] = new Chunk(chunkSize);
+        }
+        _ring = new BatchRing<Chunk>(chunks, "tex61-writer") {
+            @Override
+            void consume(Chunk chunk) {
+                if (_error == null) {
+                    try {
+                        _out.write(chunk.chars, 0, chunk.len);
+                    } catch (IOException e) {
+                        _error = e;
+                    }
+                }
+            }
+        };
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        checkError();
+        while (len > 0) {
+            int n = Math.min(len, reserve());
+            System.arraycopy(cbuf, off, _chunk.chars, _chunk.len, n);
+            _chunk.len += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        checkError();
+        while (len > 0) {
+            int n = Math.min(len, reserve());
+            str.getChars(off, off + n, _chunk.chars, _chunk.len);
+            _chunk.len += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        checkError();
+        reserve();
+        _chunk.chars[_chunk.len] = (char) c;
+        _chunk.len += 1;
+    }
+
+    /** Write all text so far to the other Writer, and flush it. */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        checkError();
+        _out.flush();
+    }
+
+    /** Write all text so far to the other Writer, and close it. */
+    @Override
+    public void close() throws IOException {
+        drain();
+        checkError();
+        _out.close();
+    }
+
+    /** Wait until all text so far has been written to the other Writer,
+     *  without flushing it, and stop my thread until more text is
+     *  written. */
+    void drain() {
+        if (_chunk != null) {
+            _ring.publish();
+            _chunk = null;
+        }
+        _ring.finish();
+    }
+
+    /** Discard any text not yet written, and any error. */
+    void reset() {
+        _ring.cancel();
+        _chunk = null;
+        _error = null;
+    }
+
+    /** Returns the number of characters for which there is room in the
+     *  current chunk, at least 1, passing it on to be written and
+     *  claiming another if it is full. */
+    private int reserve() {
+        if (_chunk != null && _chunk.len == _chunk.chars.length) {
+            _ring.publish();
+            _chunk = null;
+        }
+        if (_chunk == null) {
+            _chunk = _ring.claim();
+            _chunk.len = 0;
+        }
+        return _chunk.chars.length - _chunk.len;
+    }
+
+    /** Throw the error writing to the other Writer, if there was one. */
+    private void checkError() throws IOException {
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /** A chunk of text. */
+    private static class Chunk {
+
+        /** An empty chunk with room for SIZE characters. */
+        Chunk(int size) {
+            chars = new char[size];
+        }
+
+        /** The text. */
+        final char[] chars;
+        /** The number of characters of text in CHARS. */
+        int len;
+    }
+
+    /** Where text is written. */
+    private final Writer _out;
+
+    /** Passes chunks to my thread. */
+    private final BatchRing<Chunk> _ring;
+
+    /** The chunk being filled, or null if none has been claimed. */
+    private Chunk _chunk;
+
+    /** The first error writing to _out, or null. */
+    private volatile IOException _error;
+
+}
@@ -0,0 +1,163 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of PipelinedLineAssemblers and of Controllers that use
+ *  them.
+ *  @author Greg
+ */
+public class PipelineTest {
+
+    private static final int[] BATCH_SIZES = { 2, 7, 4096 };
+
+    /** Send the same random sequence of text, words, ends of line and
+     *  paragraph, and settings, chosen with SEED, to SERIAL and
+     *  PIPELINED. */
+    private void feed(long seed, LineAssembler serial,
+                      LineAssembler pipelined) {
+        Random r = new Random(seed);
+        for (int i = 0; i < 2000; i += 1) {
+            int k = r.nextInt(100);
+            for (LineAssembler out : new LineAssembler[] { serial,
+                                                           pipelined }) {
+                Random op = new Random(seed + i);
+                if (k < 55) {
+                    out.addText("abcdefghijklmnopq".substring(0,
+                                                  1 + op.nextInt(17)));
+                } else if (k < 60) {
+                    out.addWord("[" + op.nextInt(1000) + "]");
+                } else if (k < 75) {
+                    out.finishWord();
+                } else if (k < 82) {
+                    out.newLine();
+                } else if (k < 89) {
+                    out.endParagraph();
+                } else if (k < 90) {
+                    out.setFill(op.nextBoolean());
+                } else if (k < 91) {
+                    out.setOptimalFit(op.nextBoolean());
+                } else if (k < 93) {
+                    out.setJustify(op.nextBoolean());
+                } else if (k < 95) {
+                    out.setTextWidth(10 + op.nextInt(40));
+                } else if (k < 96) {
+                    out.setIndentation(op.nextInt(5));
+                } else if (k < 97) {
+                    out.setParIndentation(op.nextInt(5));
+                } else if (k < 98) {
+                    out.setParSkip(op.nextInt(3));
+                } else {
+                    out.setTextHeight(1 + op.nextInt(10));
+                }
+            }
+        }
+        serial.endParagraph();
+        pipelined.endParagraph();
+        pipelined.flush();
+    }
+
+    @Test
+    public void testSameAsSerial() {
+        for (int batch : BATCH_SIZES) {
+            for (long seed = 0; seed < 5; seed += 1) {
+                PageAssembler expected =
+                    new PageCollector(new ArrayList<String>());
+                PageAssembler actual =
+                    new PageCollector(new ArrayList<String>());
+                PipelinedLineAssembler pipelined =
+                    new PipelinedLineAssembler(actual, new FormatStats(),
+                                               batch);
+                feed(seed, new LineAssembler(expected, false), pipelined);
+                assertEquals(expected.accessPages(), actual.accessPages());
+            }
+        }
+    }
+
+    /** Returns a random document chosen with SEED, with endnotes, changes
+     *  of settings, and words too long for a line. */
+    private String randomDocument(long seed) {
+        Random r = new Random(seed);
+        StringBuilder doc = new StringBuilder("\\textheight{7}\n");
+        for (int i = 0; i < 300; i += 1) {
+            int k = r.nextInt(100);
+            if (k < 70) {
+                doc.append("word").append(i).append(' ');
+            } else if (k < 75) {
+                doc.append("averyveryverylongwordindeed ");
+            } else if (k < 80) {
+                doc.append("\\endnote{Note ").append(i).append(".}");
+            } else if (k < 90) {
+                doc.append("\n\n");
+            } else if (k < 93) {
+                doc.append("\\textwidth{").append(15 + r.nextInt(40))
+                    .append("}");
+            } else if (k < 96) {
+                doc.append(r.nextBoolean() ? "\\justify " : "\\nojustify ");
+            } else {
+                doc.append(r.nextBoolean() ? "\\fill " : "\\nofill ");
+            }
+        }
+        return doc.append('\n').toString();
+    }
+
+    /** Format DOC with CNTRL, which writes to OUT, returning the
+     *  output. */
+    private String format(String doc, Controller cntrl, StringWriter out) {
+        cntrl.reset();
+        out.getBuffer().setLength(0);
+        new InputParser(new StringReader(doc), cntrl).process();
+        return out.toString();
+    }
+
+    @Test
+    public void testController() {
+        StringWriter expected = new StringWriter();
+        Controller streaming = new Controller(new PrintWriter(expected), true,
+                                              new ErrorLog(null));
+        for (int batch : BATCH_SIZES) {
+            StringWriter actual = new StringWriter();
+            Controller pipelined = new Controller(new PrintWriter(actual),
+                                                  new ErrorLog(null), batch);
+            for (long seed = 0; seed < 4; seed += 1) {
+                String doc = randomDocument(seed);
+                assertEquals(format(doc, streaming, expected),
+                             format(doc, pipelined, actual));
+                assertEquals(streaming.stats().outputChars(),
+                             pipelined.stats().outputChars());
+                assertEquals(streaming.stats().lines(),
+                             pipelined.stats().lines());
+                assertEquals(0, pipelined.errors().count());
+            }
+        }
+    }
+
+    @Test
+    public void testFailure() {
+        String doc = randomDocument(7) + "\\bogus more text\\endnote{x}\n\n"
+            + randomDocument(8) + "Badly } formed\n" + randomDocument(9);
+        StringWriter expected = new StringWriter();
+        Controller streaming = new Controller(new PrintWriter(expected), true,
+                                              new ErrorLog(null));
+        String output = format(doc, streaming, expected);
+        assertTrue(streaming.errors().failed());
+        assertTrue(output.length() > 0);
+        for (int batch : BATCH_SIZES) {
+            StringWriter actual = new StringWriter();
+            Controller pipelined = new Controller(new PrintWriter(actual),
+                                                  new ErrorLog(null), batch);
+            assertEquals(output, format(doc, pipelined, actual));
+            assertTrue(pipelined.errors().failed());
+            assertEquals(streaming.errors().messages(),
+                         pipelined.errors().messages());
+            assertEquals(output, format(doc, pipelined, actual));
+        }
+    }
+
+}
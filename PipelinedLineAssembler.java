@@ -0,0 +1,232 @@
+package tex61;
+
+/** A LineAssembler for the main text that breaks paragraphs into lines
+ *  and pages on a thread of its own, while the thread that supplies the
+ *  text goes on parsing.  It records the text and settings it receives
+ *  in OpLogs of a fixed size (batches), and passes each full batch
+ *  through a BatchRing to its layout thread.
+ *  There, the calls are replayed on an ordinary LineAssembler that
+ *  sends its lines to the same PageAssembler, so that the output is
+ *  just as it would be from that LineAssembler alone.  All of the
+ *  batches are allocated at the start, and the supplier waits when all
+ *  are full.
+ *
+ *  The PageAssembler (and the statistics it keeps) belongs to the layout
+ *  thread until flush, and from then until more text is received may be
+ *  used by the supplier.
+ *  @author Greg
+ */
+class PipelinedLineAssembler extends LineAssembler {
+
+    /** Default number of characters of text (and of operations) in a
+     *  batch. */
+    static final int BATCH_SIZE = 1 << 14;
+
+    /** The number of batches. */
+    static final int NUM_BATCHES = 4;
+
+    /** A new, empty line assembler with default settings of all
+     *  parameters for the main text, which sends finished lines to
+     *  PAGECOLLECTOR from its layout thread, in batches of BATCHSIZE
+     *  (at least 2) characters and operations.  STATS are those of the
+     *  document, whose timing (on or off) PAGECOLLECTOR's statistics
+     *  follow. */
+    PipelinedLineAssembler(PageAssembler pagecollector, FormatStats stats,
+                           int batchSize) {
+        super(pagecollector, false, stats);
+        _pages = pagecollector;
+        _layout = new LineAssembler(pagecollector, false);
+        OpLog[] batches = new OpLog[NUM_BATCHES];
+        for (int i = 0; i < NUM_BATCHES; i += 1) {
+            batches[i] = new OpLog(batchSize, batchSize);
+        }
+        _ring = new BatchRing<OpLog>(batches, "tex61-layout") {
+            @Override
+            void consume(OpLog batch) {
+                batch.replay(_layout);
+            }
+        };
+    }
+
+    @Override
+    void reset() {
+        super.reset();
+        _ring.cancel();
+        _layout.reset();
+        _batch = null;
+        _started = false;
+    }
+
+    @Override
+    void addText(String text) {
+        int len = text.length();
+        for (int off = 0; off < len; ) {
+            int n = reserve(2, len - off);
+            text.getChars(off, off + n, _batch.chars, _batch.numChars);
+            _batch.addText(OpLog.TEXT, n);
+            off += n;
+        }
+    }
+
+    @Override
+    void addText(char[] buf, int off, int len) {
+        for (int end = off + len; off < end; ) {
+            int n = reserve(2, end - off);
+            System.arraycopy(buf, off, _batch.chars, _batch.numChars, n);
+            _batch.addText(OpLog.TEXT, n);
+            off += n;
+        }
+    }
+
+    @Override
+    void addWord(String word) {
+        int len = word.length();
+        int off = 0;
+        while (true) {
+            int n = reserve(2, len - off);
+            word.getChars(off, off + n, _batch.chars, _batch.numChars);
+            off += n;
+            if (off == len) {
+                _batch.addText(OpLog.WORD, n);
+                break;
+            }
+            _batch.addText(OpLog.TEXT, n);
+        }
+    }
+
+    @Override
+    void finishWord() {
+        reserve(1, 0);
+        if (_batch.lastOp() != OpLog.END_WORD) {
+            _batch.add(OpLog.END_WORD);
+        }
+    }
+
+    @Override
+    void newLine() {
+        add(OpLog.NEWLINE);
+    }
+
+    @Override
+    void endParagraph() {
+        add(OpLog.END_PARAGRAPH);
+    }
+
+    @Override
+    boolean ordered() {
+        return false;
+    }
+
+    @Override
+    void setIndentation(int val) {
+        add(OpLog.SET_INDENTATION, val);
+    }
+
+    @Override
+    void setParIndentation(int val) {
+        add(OpLog.SET_PAR_INDENTATION, val);
+    }
+
+    @Override
+    void setTextWidth(int val) {
+        add(OpLog.SET_TEXT_WIDTH, val);
+    }
+
+    @Override
+    void setFill(boolean on) {
+        add(OpLog.SET_FILL, on ? 1 : 0);
+    }
+
+    @Override
+    void setJustify(boolean on) {
+        add(OpLog.SET_JUSTIFY, on ? 1 : 0);
+    }
+
+    @Override
+    void setOptimalFit(boolean on) {
+        add(OpLog.SET_OPTIMAL_FIT, on ? 1 : 0);
+    }
+
+    /** Hyphenate as for LineAssembler.  Must be called before any text
+     *  is received. */
+    @Override
+    void setHyphenator(Hyphenator hyphenator) {
+        super.setHyphenator(hyphenator);
+        _layout.setHyphenator(hyphenator);
+    }
+
+    @Override
+    void setParSkip(int val) {
+        add(OpLog.SET_PAR_SKIP, val);
+    }
+
+    @Override
+    void setTextHeight(int val) {
+        add(OpLog.SET_TEXT_HEIGHT, val);
+    }
+
+    /** Wait until all paragraphs received so far have been formatted and
+     *  their lines sent to the PageAssembler, and stop the layout thread
+     *  until more text is received. */
+    @Override
+    void flush() {
+        if (_batch != null) {
+            _ring.publish();
+            _batch = null;
+        }
+        _ring.finish();
+        _started = false;
+    }
+
+    /** Record the operation OP. */
+    private void add(int op) {
+        reserve(1, 0);
+        _batch.add(op);
+    }
+
+    /** Record the operation OP with argument VAL. */
+    private void add(int op, int val) {
+        reserve(2, 0);
+        _batch.add(op, val);
+    }
+
+    /** Make room in the current batch for OPS more operations and at
+     *  least one of CHARS more characters (if CHARS > 0), passing it to
+     *  the layout thread and claiming another if it is full.  Returns the
+     *  number of characters for which there is room, at most CHARS. */
+    private int reserve(int ops, int chars) {
+        if (_batch != null
+            && (_batch.numOps + ops > _batch.ops.length
+                || (chars > 0
+                    && _batch.numChars == _batch.chars.length))) {
+            _ring.publish();
+            _batch = null;
+        }
+        if (_batch == null) {
+            if (!_started) {
+                _pages.stats().setTimed(stats().timed());
+                _started = true;
+            }
+            _batch = _ring.claim();
+            _batch.clear();
+        }
+        return Math.min(chars, _batch.chars.length - _batch.numChars);
+    }
+
+    /** Where my lines go, from _layout. */
+    private final PageAssembler _pages;
+
+    /** Breaks paragraphs into lines, on the layout thread. */
+    private final LineAssembler _layout;
+
+    /** Passes batches to the layout thread. */
+    private final BatchRing<OpLog> _ring;
+
+    /** The batch being recorded, or null if none has been claimed. */
+    private OpLog _batch;
+
+    /** True iff a batch has been claimed since the last reset or
+     *  flush. */
+    private boolean _started;
+
+}
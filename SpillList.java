@@ -0,0 +1,284 @@
+package tex61;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+
+/** A List of lines that keeps at most a given number of bytes of them
+ *  in memory, by an estimate of the size of each String.  Lines added
+ *  after that limit is reached are written instead to a temporary file,
+ *  which is mapped into memory one region at a time, and read back from
+ *  it when needed.  Only add and clear modify the list.  Getting the
+ *  lines in order, as an iterator does, takes constant time per line;
+ *  getting a line before the last one gotten from the file rereads the
+ *  file from its start.
+ *
+ *  The file is created when first needed and removed from its directory
+ *  at once, where the system allows (otherwise, when the program exits),
+ *  so that nothing is left of it once it is closed.  Clear closes it,
+ *  and a later spill starts a new one, so that an idle SpillList holds
+ *  no file open; its space is freed once any regions of it still mapped
+ *  are collected.  Each line is stored as its length followed by its
+ *  characters, one byte each if all are Latin-1, and otherwise two.
+ *  @author Greg
+ */
+class SpillList extends AbstractList<String> {
+
+    /** Default maximum size of each mapped region of the file, in
+     *  bytes. */
+    static final long REGION_SIZE = 1L << 24;
+
+    /** A new, empty SpillList that keeps at most LIMIT bytes of lines
+     *  in memory. */
+    SpillList(long limit) {
+        this(limit, REGION_SIZE);
+    }
+
+    /** A new, empty SpillList that keeps at most LIMIT bytes of lines
+     *  in memory, and maps regions of REGIONSIZE bytes of its file
+     *  (or more, for longer lines). */
+    SpillList(long limit, long regionSize) {
+        _limit = limit;
+        _regionSize = regionSize;
+    }
+
+    /** Keep at most LIMIT bytes of lines added from now on in
+     *  memory. */
+    void setLimit(long limit) {
+        _limit = limit;
+    }
+
+    /** Returns the number of lines held in the file. */
+    int spilled() {
+        return _spilled;
+    }
+
+    @Override
+    public boolean add(String line) {
+        long size = _spilled == 0 ? size(line) : 0;
+        if (_spilled == 0 && _held + size <= _limit) {
+            _lines.add(line);
+            _held += size;
+        } else {
+            write(line);
+            _spilled += 1;
+        }
+        modCount += 1;
+        return true;
+    }
+
+    @Override
+    public String get(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IndexOutOfBoundsException("index: " + k);
+        }
+        if (k < _lines.size()) {
+            return _lines.get(k);
+        }
+        k -= _lines.size();
+        if (k < _next) {
+            _next = 0;
+            _readPos = 0;
+        }
+        while (_next < k) {
+            _readPos += 4 + recordLength(readInt(_readPos));
+            _next += 1;
+        }
+        return read();
+    }
+
+    @Override
+    public int size() {
+        return _lines.size() + _spilled;
+    }
+
+    /** Remove all lines, closing the file, and giving up the room of an
+     *  in-memory list that held more than PageAssembler.MAX_RETAINED_LINES
+     *  of them. */
+    @Override
+    public void clear() {
+        int size = _lines.size();
+        _lines.clear();
+        if (size > PageAssembler.MAX_RETAINED_LINES) {
+            _lines.trimToSize();
+        }
+        _held = 0;
+        if (_spilled > 0) {
+            _spilled = 0;
+            _out = _in = null;
+            _end = _next = 0;
+            _readPos = 0;
+        }
+        if (_channel != null) {
+            try {
+                _channel.close();
+            } catch (IOException e) {
+                /* Ignore: the file has nothing more to give. */
+            }
+            _channel = null;
+        }
+        modCount += 1;
+    }
+
+    /** Returns the approximate number of bytes of memory used by LINE
+     *  in _lines: those of the String and its array, with one byte per
+     *  character if all are Latin-1, and otherwise two. */
+    private static long size(String line) {
+        int len = line.length();
+        for (int i = 0; i < len; i += 1) {
+            if (line.charAt(i) > LATIN1_MAX) {
+                return LINE_OVERHEAD + 2L * len;
+            }
+        }
+        return LINE_OVERHEAD + len;
+    }
+
+    /** Append LINE to the file, creating it if necessary. */
+    private void write(String line) {
+        int len = line.length();
+        boolean wide = false;
+        for (int i = 0; i < len && !wide; i += 1) {
+            wide = line.charAt(i) > LATIN1_MAX;
+        }
+        int header = wide ? ~len : len;
+        long size = 4 + recordLength(header);
+        if (_out == null || _out.remaining() < size) {
+            _out = map(FileChannel.MapMode.READ_WRITE, _end,
+                       Math.max(size, _regionSize));
+        }
+        _out.putInt(header);
+        if (wide) {
+            for (int i = 0; i < len; i += 1) {
+                _out.putChar(line.charAt(i));
+            }
+        } else {
+            for (int i = 0; i < len; i += 1) {
+                _out.put((byte) line.charAt(i));
+            }
+        }
+        _end += size;
+    }
+
+    /** Returns the line stored at _readPos, and advances past it. */
+    private String read() {
+        int header = readInt(_readPos);
+        int len = header < 0 ? ~header : header;
+        long size = 4 + recordLength(header);
+        ensureMapped(_readPos, size);
+        if (_chars.length < len) {
+            _chars = new char[Math.max(len, 2 * _chars.length)];
+        }
+        _in.position((int) (_readPos - _inBase) + 4);
+        if (header < 0) {
+            for (int i = 0; i < len; i += 1) {
+                _chars[i] = _in.getChar();
+            }
+        } else {
+            for (int i = 0; i < len; i += 1) {
+                _chars[i] = (char) (_in.get() & LATIN1_MAX);
+            }
+        }
+        _readPos += size;
+        _next += 1;
+        return new String(_chars, 0, len);
+    }
+
+    /** Returns the int stored at position POS of the file. */
+    private int readInt(long pos) {
+        ensureMapped(pos, 4);
+        return _in.getInt((int) (pos - _inBase));
+    }
+
+    /** Make sure that the SIZE bytes of the file starting at POS are in
+     *  _in, mapping a new region if they are not. */
+    private void ensureMapped(long pos, long size) {
+        if (_in == null || pos < _inBase
+            || pos + size > _inBase + _in.limit()) {
+            _inBase = pos;
+            _in = map(FileChannel.MapMode.READ_ONLY, pos,
+                      Math.min(Math.max(size, _regionSize), _end - pos));
+        }
+    }
+
+    /** Returns the number of bytes of characters in a line stored with
+     *  header HEADER. */
+    private static long recordLength(int header) {
+        return header < 0 ? 2L * ~header : header;
+    }
+
+    /** Map the LEN bytes of the file starting at POS in mode MODE,
+     *  creating and opening the file if necessary.  Errors cause a
+     *  FormatException. */
+    private MappedByteBuffer map(FileChannel.MapMode mode, long pos,
+                                 long len) {
+        try {
+            if (_channel == null) {
+                File file = File.createTempFile("tex61", ".lines");
+                _channel = FileChannel.open(file.toPath(),
+                                            StandardOpenOption.READ,
+                                            StandardOpenOption.WRITE);
+                if (!file.delete()) {
+                    file.deleteOnExit();
+                }
+            }
+            return _channel.map(mode, pos, len);
+        } catch (IOException e) {
+            throw new FormatException(e.getMessage());
+        }
+    }
+
+    /** The largest character stored in one byte. */
+    private static final int LATIN1_MAX = 0xff;
+
+    /** Approximate number of bytes used by a String in _lines, apart
+     *  from its characters: its header and fields, the header of its
+     *  array, and the reference to it. */
+    private static final int LINE_OVERHEAD = 48;
+
+    /** The most bytes of lines kept in _lines. */
+    private long _limit;
+
+    /** Maximum length of a mapped region, unless a line needs more. */
+    private final long _regionSize;
+
+    /** The first lines, held in memory. */
+    private final ArrayList<String> _lines = new ArrayList<String>();
+
+    /** The approximate number of bytes used by _lines. */
+    private long _held;
+
+    /** The number of lines in the file. */
+    private int _spilled;
+
+    /** The file holding lines after those in _lines, or null if none is
+     *  open. */
+    private FileChannel _channel;
+
+    /** The mapped region of the file to which lines are written, ending
+     *  at or after _end, or null. Its position is at _end. */
+    private MappedByteBuffer _out;
+
+    /** The length of the lines in the file, in bytes. */
+    private long _end;
+
+    /** The mapped region of the file from which lines are read, or
+     *  null. */
+    private MappedByteBuffer _in;
+
+    /** The position in the file of the start of _in. */
+    private long _inBase;
+
+    /** The position in the file of the next line to be read. */
+    private long _readPos;
+
+    /** The index among the lines in the file of the one at _readPos. */
+    private int _next;
+
+    /** Characters of the line being read. */
+    private char[] _chars = new char[LATIN1_MAX + 1];
+
+}
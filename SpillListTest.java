@@ -0,0 +1,96 @@
+package tex61;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/** Unit tests of SpillLists.
+ *  @author Greg
+ */
+public class SpillListTest {
+
+    /** Returns N random lines made with a Random seeded with SEED, mixing
+     *  ASCII, Latin-1, and (in a quarter of them) wide characters,
+     *  including surrogate pairs.  One line in ten has LONGLEN characters,
+     *  and the rest fewer than SHORTLEN.  If PAGES, one line in eight starts
+     *  with a form feed.  Also used by LineStoreTest. */
+    static List<String> randomLines(long seed, int n, int shortLen,
+                                    int longLen, boolean pages) {
+        Random rand = new Random(seed);
+        String chars = "ab \u00e9\u00ff\u4e2d\ud83d\ude00";
+        List<String> lines = new ArrayList<String>();
+        for (int i = 0; i < n; i += 1) {
+            StringBuilder line = new StringBuilder();
+            if (pages && rand.nextInt(8) == 0) {
+                line.append('\f');
+            }
+            int len = rand.nextInt(10) == 0 ? longLen : rand.nextInt(shortLen);
+            boolean wide = rand.nextInt(4) == 0;
+            for (int k = 0; k < len; k += 1) {
+                line.append(chars.charAt(rand.nextInt(wide ? 8 : 5)));
+            }
+            lines.add(line.toString());
+        }
+        return lines;
+    }
+
+    @Test
+    public void testSpill() {
+        for (int limit : new int[] { 0, 1, 50, 1000000 }) {
+            for (int region : new int[] { 1, 37, 4096 }) {
+                SpillList spill = new SpillList(limit, region);
+                for (int doc = 0; doc < 2; doc += 1) {
+                    List<String> lines = randomLines(doc, 300, 12, 100, false);
+                    spill.clear();
+                    spill.addAll(lines);
+                    assertEquals(lines, spill);
+                    assertEquals(lines, new ArrayList<String>(spill));
+                    assertEquals(lines.get(5), spill.get(5));
+                    assertEquals(lines.get(299), spill.get(299));
+                    assertEquals(lines.get(100), spill.get(100));
+                    assertEquals(limit < 1000000, spill.spilled() > 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLimit() {
+        SpillList spill = new SpillList(1000);
+        for (int i = 0; i < 100; i += 1) {
+            spill.add("0123456789");
+        }
+        assertTrue(spill.spilled() > 80);
+        spill.clear();
+        spill.setLimit(1 << 20);
+        for (int i = 0; i < 100; i += 1) {
+            spill.add("\u4e2d\u6587");
+        }
+        assertEquals(0, spill.spilled());
+        assertEquals(100, spill.size());
+    }
+
+    @Test
+    public void testEndnotes() {
+        StringBuilder doc = new StringBuilder("\\textwidth{30}\n");
+        for (int i = 0; i < 200; i += 1) {
+            doc.append("Word").append(i).append("\\endnote{Note ")
+                .append(i).append(" has \u00e9 and \u4e2d in it.}\n");
+        }
+        String text = doc.toString();
+        FormatEngine engine = new FormatEngine(true);
+        StringWriter expected = new StringWriter();
+        assertTrue(engine.format(text, expected).succeeded());
+        for (long limit : new long[] { 0, 100 }) {
+            engine.setEndnoteMemory(limit);
+            StringWriter out = new StringWriter();
+            assertTrue(engine.format(text, out).succeeded());
+            assertEquals(expected.toString(), out.toString());
+        }
+    }
+
+}
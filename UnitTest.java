@@ -11,6 +11,20 @@ public class UnitTest {
     public static void main(String[] ignored) {
         textui.runClasses(tex61.PageAssemblerTest.class);
         textui.runClasses(tex61.LineAssemblerTest.class);
+        textui.runClasses(tex61.InputParserTest.class);
+        textui.runClasses(tex61.MappedFileReaderTest.class);
+        textui.runClasses(tex61.FormatEngineTest.class);
+        textui.runClasses(tex61.ParallelLineAssemblerTest.class);
+        textui.runClasses(tex61.LayoutCacheTest.class);
+        textui.runClasses(tex61.SpillListTest.class);
+        textui.runClasses(tex61.ChannelWriterTest.class);
+        textui.runClasses(tex61.PageIndexTest.class);
+        textui.runClasses(tex61.CheckpointTest.class);
+        textui.runClasses(tex61.FormatServerTest.class);
+        textui.runClasses(tex61.HyphenatorTest.class);
+        textui.runClasses(tex61.LineStoreTest.class);
+        textui.runClasses(tex61.PipelineTest.class);
+        textui.runClasses(tex61.DisplayWidthTest.class);
     }
 
 }
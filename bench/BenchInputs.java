@@ -0,0 +1,132 @@
+package tex61;
+
+import java.util.Random;
+
+/** Synthetic documents for the benchmarks.  The same KIND and SIZE
+ *  always give the same document.
+ *  @author Greg
+ */
+class BenchInputs {
+
+    /** Kinds of document: mostly text, text with frequent formatting
+     *  commands, and text with frequent endnotes. */
+    static final String TEXT = "text", COMMANDS = "commands",
+        ENDNOTES = "endnotes";
+
+    /** Lowercase letters, with some repeated to give a rough English
+     *  frequency. */
+    private static final String LETTERS =
+        "eeeeeeettttaaaaoooiiinnnssshhhrrrddlllcumwfgypbvkjxqz";
+
+    /** Returns a document of KIND with about SIZE characters. */
+    static String document(String kind, int size) {
+        Random rand = new Random(size ^ kind.hashCode());
+        StringBuilder doc = new StringBuilder(size + 100);
+        int lineStart = 0;
+        int linesLeft = paragraphLines(rand);
+        while (doc.length() < size) {
+            switch (kind) {
+            case COMMANDS:
+                if (rand.nextInt(6) == 0) {
+                    command(rand, doc);
+                }
+                break;
+            case ENDNOTES:
+                if (rand.nextInt(12) == 0) {
+                    endnote(rand, doc);
+                }
+                break;
+            default:
+                break;
+            }
+            word(rand, doc);
+            if (doc.length() - lineStart > 70) {
+                doc.append('\n');
+                linesLeft -= 1;
+                if (linesLeft == 0) {
+                    doc.append('\n');
+                    linesLeft = paragraphLines(rand);
+                }
+                lineStart = doc.length();
+            } else {
+                doc.append(' ');
+            }
+        }
+        doc.append('\n');
+        return doc.toString();
+    }
+
+    /** Returns an array of N words for LineAssembler.addWord. */
+    static String[] words(int n) {
+        Random rand = new Random(n);
+        String[] words = new String[n];
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < n; i += 1) {
+            word.setLength(0);
+            word(rand, word);
+            words[i] = word.toString();
+        }
+        return words;
+    }
+
+    /** Returns a number of lines for a paragraph, chosen with RAND. */
+    private static int paragraphLines(Random rand) {
+        return 3 + rand.nextInt(10);
+    }
+
+    /** Append a word chosen with RAND to DOC. */
+    private static void word(Random rand, StringBuilder doc) {
+        int len = 1 + rand.nextInt(5) + rand.nextInt(5);
+        for (int i = 0; i < len; i += 1) {
+            doc.append(LETTERS.charAt(rand.nextInt(LETTERS.length())));
+        }
+        if (rand.nextInt(8) == 0) {
+            doc.append(rand.nextBoolean() ? ',' : '.');
+        }
+    }
+
+    /** Append a formatting command chosen with RAND to DOC, followed by
+     *  a blank. */
+    private static void command(Random rand, StringBuilder doc) {
+        switch (rand.nextInt(9)) {
+        case 0:
+            doc.append("\\indent{").append(rand.nextInt(8)).append('}');
+            break;
+        case 1:
+            doc.append("\\parindent{").append(rand.nextInt(6)).append('}');
+            break;
+        case 2:
+            doc.append("\\parskip{").append(rand.nextInt(3)).append('}');
+            break;
+        case 3:
+            doc.append("\\textwidth{").append(40 + rand.nextInt(40))
+                .append('}');
+            break;
+        case 4:
+            doc.append("\\textheight{").append(20 + rand.nextInt(40))
+                .append('}');
+            break;
+        case 5:
+            doc.append(rand.nextInt(4) == 0 ? "\\nofill" : "\\fill");
+            break;
+        default:
+            doc.append(rand.nextBoolean() ? "\\justify" : "\\nojustify");
+            break;
+        }
+        doc.append(' ');
+    }
+
+    /** Append an endnote of a few words chosen with RAND to DOC. */
+    private static void endnote(Random rand, StringBuilder doc) {
+        doc.append("\\endnote{");
+        int n = 3 + rand.nextInt(15);
+        for (int i = 0; i < n; i += 1) {
+            if (i > 0) {
+                doc.append(' ');
+            }
+            word(rand, doc);
+        }
+        doc.append('}');
+    }
+
+}
@@ -0,0 +1,30 @@
+package tex61;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/** Runs the benchmarks with the GC profiler, so that each reports its
+ *  allocation rate as well as its throughput.
+ *  @author Greg
+ */
+public class Benchmarks {
+
+    /** Run the benchmarks selected by ARGS, which are JMH's command-line
+     *  arguments (for example, a regular expression such as "Parser" to
+     *  run only ParserBenchmark, or -p kind=text to fix a parameter).
+     *  By default, runs all of them. */
+    public static void main(String[] args)
+        throws CommandLineOptionException, RunnerException {
+        Options options = new OptionsBuilder()
+            .parent(new CommandLineOptions(args))
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+
+}
@@ -0,0 +1,509 @@
+package tex61;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.SplittableRandom;
+
+import static tex61.FormatException.reportError;
+
+/** A generator of synthetic, well-formed input documents of any size,
+ *  for load and stress testing.  Output is determined entirely by the
+ *  seed and settings, and is written as it is generated, so that the
+ *  memory used does not depend on the size of the document.  Documents
+ *  contain only ASCII characters.
+ *  @author Greg
+ */
+class CorpusGenerator {
+
+    /** Kinds of document.  TEXT is ordinary text.  The others are
+     *  ordinary text in which each paragraph also contains a huge word,
+     *  a huge run of blanks, tabs, and empty lines, or an endnote with a
+     *  huge argument full of nested endnotes and escaped braces. */
+    static final String TEXT = "text", HUGE_WORD = "hugeword",
+        BLANKS = "blanks", BRACES = "braces";
+
+    /** Commands that take a numeric argument, with the least and greatest
+     *  values generated for each. */
+    private static final String[] NUMERIC_COMMANDS = {
+        "indent", "parindent", "parskip", "textwidth", "textheight"
+    };
+    /** Least generated values of NUMERIC_COMMANDS. */
+    private static final int[] MIN_VALUES = { 0, 0, 0, 30, 10 };
+    /** Greatest generated values of NUMERIC_COMMANDS. */
+    private static final int[] MAX_VALUES = { 8, 8, 2, 100, 60 };
+
+    /** Commands without arguments. */
+    private static final String[] PLAIN_COMMANDS = {
+        "fill", "nofill", "justify", "nojustify"
+    };
+
+    /** The escaped characters. */
+    private static final String[] ESCAPES = {
+        "\\{", "\\}", "\\\\", "\\ ", "\\\t"
+    };
+
+    /** 64 lowercase letters, with some repeated to give a rough English
+     *  frequency. */
+    private static final String LETTERS =
+        "eeeeeeeetttttaaaaaoooooiiiinnnnsssshhhrrrdddlllccuumwfgypbvkjxqz";
+
+    /** Size of the output buffer, in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Length at which input lines are broken. */
+    private static final int LINE_LENGTH = 72;
+
+    /** A new generator with default settings, whose output is determined
+     *  by SEED. */
+    CorpusGenerator(long seed) {
+        _rand = new SplittableRandom(seed);
+    }
+
+    /** Set the distribution of the number of words in a paragraph to
+     *  DIST (see Distribution). */
+    void setParagraphLength(String dist) {
+        _paragraphLength = new Distribution(dist);
+    }
+
+    /** Set the distribution of the lengths of words to DIST. */
+    void setWordLength(String dist) {
+        _wordLength = new Distribution(dist);
+    }
+
+    /** Set the probability that a word is preceded by a command other
+     *  than \endnote to P. */
+    void setCommandDensity(double p) {
+        _commands = p;
+    }
+
+    /** Set the probability that a word is followed by an endnote to P. */
+    void setEndnoteFrequency(double p) {
+        _endnotes = p;
+    }
+
+    /** Set the distribution of the number of words in an endnote to
+     *  DIST. */
+    void setEndnoteLength(String dist) {
+        _endnoteLength = new Distribution(dist);
+    }
+
+    /** Set the probability that a word contains an escaped character
+     *  to P. */
+    void setEscapeDensity(double p) {
+        _escapes = p;
+    }
+
+    /** Set the kind of document to SHAPE, one of TEXT, HUGE_WORD, BLANKS
+     *  or BRACES, where the huge parts have HUGE characters. */
+    void setShape(String shape, long huge) {
+        switch (shape) {
+        case TEXT: case HUGE_WORD: case BLANKS: case BRACES:
+            break;
+        default:
+            throw new IllegalArgumentException("unknown shape: " + shape);
+        }
+        _shape = shape;
+        _huge = huge;
+    }
+
+    /** Write a document of at least SIZE characters to OUT, in ASCII,
+     *  ending at the first paragraph end after SIZE characters.  Does not
+     *  close OUT. */
+    void generate(OutputStream out, long size) throws IOException {
+        _out = out;
+        _written = 0;
+        _column = 0;
+        while (_written + _len < size) {
+            paragraph();
+        }
+        flush();
+        _out.flush();
+        _out = null;
+    }
+
+    /** Write one paragraph, followed by an empty line. */
+    private void paragraph() throws IOException {
+        long n = _paragraphLength.next(_rand);
+        long special = _shape.equals(TEXT) ? -1 : _rand.nextLong(n);
+        for (long i = 0; i < n; i += 1) {
+            if (_rand.nextDouble() < _commands) {
+                command();
+            }
+            if (i == special) {
+                switch (_shape) {
+                case HUGE_WORD:
+                    hugeWord();
+                    break;
+                case BLANKS:
+                    hugeBlanks();
+                    break;
+                default:
+                    hugeEndnote();
+                    break;
+                }
+            }
+            word();
+            if (_rand.nextDouble() < _endnotes) {
+                endnote();
+            }
+            separator();
+        }
+        newline();
+        newline();
+    }
+
+    /** Write a word, which may contain an escaped character. */
+    private void word() throws IOException {
+        long len = _wordLength.next(_rand);
+        long escape =
+            _rand.nextDouble() < _escapes ? _rand.nextLong(len) : -1;
+        for (long i = 0; i < len; i += 1) {
+            if (i == escape) {
+                write(ESCAPES[_rand.nextInt(ESCAPES.length)]);
+            } else {
+                write(letter());
+            }
+        }
+    }
+
+    /** Returns a random letter, using six of the bits in _bits. */
+    private char letter() {
+        if (_numBits < 6) {
+            _bits = _rand.nextLong();
+            _numBits = 64;
+        }
+        char c = LETTERS.charAt((int) _bits & 63);
+        _bits >>>= 6;
+        _numBits -= 6;
+        return c;
+    }
+
+    /** Write a blank between words, or an end of line if the current line
+     *  is long enough. */
+    private void separator() throws IOException {
+        if (_column >= LINE_LENGTH) {
+            newline();
+        } else {
+            write(' ');
+        }
+    }
+
+    /** Write an end of line. */
+    private void newline() throws IOException {
+        write('\n');
+        _column = 0;
+    }
+
+    /** Write a command other than \endnote, with a valid argument. */
+    private void command() throws IOException {
+        int k = _rand.nextInt(NUMERIC_COMMANDS.length
+                              + PLAIN_COMMANDS.length);
+        write('\\');
+        if (k < NUMERIC_COMMANDS.length) {
+            write(NUMERIC_COMMANDS[k]);
+            write('{');
+            write(Integer.toString(_rand.nextInt(MIN_VALUES[k],
+                                                 MAX_VALUES[k] + 1)));
+            write('}');
+        } else {
+            write(PLAIN_COMMANDS[k - NUMERIC_COMMANDS.length]);
+        }
+        write(' ');
+    }
+
+    /** Write an endnote.  Its argument is on one input line. */
+    private void endnote() throws IOException {
+        write("\\endnote{");
+        long n = _endnoteLength.next(_rand);
+        for (long i = 0; i < n; i += 1) {
+            if (i > 0) {
+                write(' ');
+            }
+            word();
+        }
+        write('}');
+    }
+
+    /** Write a word of _huge letters. */
+    private void hugeWord() throws IOException {
+        for (long i = 0; i < _huge; i += 1) {
+            write(letter());
+        }
+        separator();
+    }
+
+    /** Write a run of _huge blanks, tabs, and ends of line. */
+    private void hugeBlanks() throws IOException {
+        for (long i = 0; i < _huge; i += 1) {
+            int k = _rand.nextInt(16);
+            if (k == 0) {
+                newline();
+            } else {
+                write(k < 12 ? ' ' : '\t');
+            }
+        }
+        newline();
+    }
+
+    /** Write an endnote whose argument has about _huge characters,
+     *  consisting of words, escaped braces, and endnotes nested within it
+     *  (the deepest nesting of braces that the input allows). */
+    private void hugeEndnote() throws IOException {
+        write("\\endnote{");
+        long start = _written + _len;
+        while (_written + _len - start < _huge) {
+            switch (_rand.nextInt(4)) {
+            case 0:
+                write("\\{");
+                word();
+                write("\\}");
+                break;
+            case 1:
+                write("\\endnote{");
+                word();
+                write(" \\} ");
+                word();
+                write('}');
+                break;
+            default:
+                word();
+                break;
+            }
+            write(' ');
+        }
+        write("} ");
+    }
+
+    /** Write C. */
+    private void write(char c) throws IOException {
+        if (_len == _buf.length) {
+            flush();
+        }
+        _buf[_len] = (byte) c;
+        _len += 1;
+        _column += 1;
+    }
+
+    /** Write S. */
+    private void write(String s) throws IOException {
+        for (int i = 0; i < s.length(); i += 1) {
+            write(s.charAt(i));
+        }
+    }
+
+    /** Write out the buffered characters. */
+    private void flush() throws IOException {
+        _out.write(_buf, 0, _len);
+        _written += _len;
+        _len = 0;
+    }
+
+    /** A distribution of positive integers, given by a string of the form
+     *  N (always N), A-B (uniform between A and B inclusive), or geo:M
+     *  (geometric, with mean M). */
+    static class Distribution {
+
+        /** The distribution described by SPEC. */
+        Distribution(String spec) {
+            try {
+                if (spec.startsWith("geo:")) {
+                    double mean = Double.parseDouble(spec.substring(4));
+                    if (!(mean > 1)) {
+                        throw new IllegalArgumentException(
+                            "mean must be greater than 1: " + spec);
+                    }
+                    _logQ = Math.log(1.0 - 1.0 / mean);
+                } else {
+                    int dash = spec.indexOf('-');
+                    if (dash == -1) {
+                        _min = _max = Long.parseLong(spec);
+                    } else {
+                        _min = Long.parseLong(spec.substring(0, dash));
+                        _max = Long.parseLong(spec.substring(dash + 1));
+                    }
+                    if (_min < 1 || _max < _min) {
+                        throw new IllegalArgumentException(
+                            "bad range: " + spec);
+                    }
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("bad distribution: "
+                                                   + spec);
+            }
+        }
+
+        /** Returns a value chosen with RAND. */
+        long next(SplittableRandom rand) {
+            if (_logQ < 0) {
+                return 1 + (long) (Math.log(1.0 - rand.nextDouble()) / _logQ);
+            } else if (_min == _max) {
+                return _min;
+            } else {
+                return rand.nextLong(_min, _max + 1);
+            }
+        }
+
+        /** For a geometric distribution with mean M, log(1 - 1/M);
+         *  otherwise 0. */
+        private double _logQ;
+        /** Bounds of a uniform distribution. */
+        private long _min, _max;
+    }
+
+    /** Write a document to the file ARGS[0], or to the standard output if
+     *  there is none, as directed by the options that precede it:
+     *  --seed=N, --size=N (with an optional suffix K, M, or G),
+     *  --paragraph=DIST and --word=DIST (words per paragraph and letters
+     *  per word), --commands=P (probability of a command before each
+     *  word), --endnotes=P (probability of an endnote after each word),
+     *  --endnote-words=DIST, --escapes=P (probability of an escape in
+     *  each word), and --shape=SHAPE with --huge=N (see setShape).  DIST
+     *  is as for Distribution. */
+    public static void main(String[] args) {
+        long seed = 61;
+        long size = 1 << 20;
+        String shape = TEXT;
+        long huge = 1 << 20;
+        String paragraph, word, endnoteWords;
+        paragraph = word = endnoteWords = null;
+        double commands, endnotes, escapes;
+        commands = endnotes = escapes = -1;
+        CorpusGenerator gen;
+        int first;
+        try {
+            for (first = 0; first < args.length
+                     && args[first].startsWith("--"); first += 1) {
+                String opt = args[first];
+                String val = opt.substring(opt.indexOf('=') + 1);
+                if (opt.startsWith("--seed=")) {
+                    seed = Long.parseLong(val);
+                } else if (opt.startsWith("--size=")) {
+                    size = parseSize(val);
+                } else if (opt.startsWith("--paragraph=")) {
+                    paragraph = val;
+                } else if (opt.startsWith("--word=")) {
+                    word = val;
+                } else if (opt.startsWith("--commands=")) {
+                    commands = Double.parseDouble(val);
+                } else if (opt.startsWith("--endnotes=")) {
+                    endnotes = Double.parseDouble(val);
+                } else if (opt.startsWith("--endnote-words=")) {
+                    endnoteWords = val;
+                } else if (opt.startsWith("--escapes=")) {
+                    escapes = Double.parseDouble(val);
+                } else if (opt.startsWith("--shape=")) {
+                    shape = val;
+                } else if (opt.startsWith("--huge=")) {
+                    huge = parseSize(val);
+                } else {
+                    throw new IllegalArgumentException("unknown option: "
+                                                       + opt);
+                }
+            }
+            gen = new CorpusGenerator(seed);
+            if (paragraph != null) {
+                gen.setParagraphLength(paragraph);
+            }
+            if (word != null) {
+                gen.setWordLength(word);
+            }
+            if (endnoteWords != null) {
+                gen.setEndnoteLength(endnoteWords);
+            }
+            if (commands >= 0) {
+                gen.setCommandDensity(commands);
+            }
+            if (endnotes >= 0) {
+                gen.setEndnoteFrequency(endnotes);
+            }
+            if (escapes >= 0) {
+                gen.setEscapeDensity(escapes);
+            }
+            gen.setShape(shape, huge);
+        } catch (IllegalArgumentException e) {
+            reportError(e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        try {
+            OutputStream out = first < args.length
+                ? new FileOutputStream(args[first]) : System.out;
+            gen.generate(out, size);
+            out.close();
+        } catch (IOException e) {
+            reportError(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Returns the value of SIZE, a number with an optional suffix K, M
+     *  or G. */
+    private static long parseSize(String size) {
+        long unit = 1;
+        switch (size.isEmpty() ? ' ' : size.charAt(size.length() - 1)) {
+        case 'K': case 'k':
+            unit = 1L << 10;
+            break;
+        case 'M': case 'm':
+            unit = 1L << 20;
+            break;
+        case 'G': case 'g':
+            unit = 1L << 30;
+            break;
+        default:
+            return Long.parseLong(size);
+        }
+        return unit * Long.parseLong(size.substring(0, size.length() - 1));
+    }
+
+    /** Source of random choices. */
+    private final SplittableRandom _rand;
+
+    /** Distribution of the number of words in a paragraph. */
+    private Distribution _paragraphLength = new Distribution("geo:60");
+
+    /** Distribution of the length of a word. */
+    private Distribution _wordLength = new Distribution("geo:5");
+
+    /** Distribution of the number of words in an endnote. */
+    private Distribution _endnoteLength = new Distribution("3-20");
+
+    /** Probability of a command before a word. */
+    private double _commands = 0.005;
+
+    /** Probability of an endnote after a word. */
+    private double _endnotes = 0.002;
+
+    /** Probability of an escaped character in a word. */
+    private double _escapes = 0.001;
+
+    /** The kind of document. */
+    private String _shape = TEXT;
+
+    /** Size of the huge parts of pathological documents. */
+    private long _huge;
+
+    /** Random bits not yet used by letter. */
+    private long _bits;
+
+    /** The number of bits in _bits. */
+    private int _numBits;
+
+    /** Where output goes while generating. */
+    private OutputStream _out;
+
+    /** Buffered output. */
+    private final byte[] _buf = new byte[BUFFER_SIZE];
+
+    /** Number of characters in _buf. */
+    private int _len;
+
+    /** Number of characters written to _out. */
+    private long _written;
+
+    /** Number of characters on the current input line. */
+    private int _column;
+
+}
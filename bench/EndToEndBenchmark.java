@@ -0,0 +1,95 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of formatting a document file into an output file, as
+ *  Main does, with each of Main's input and output modes.
+ *  @author Greg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    /** The kind of document (see BenchInputs). */
+    @Param({ BenchInputs.TEXT, BenchInputs.ENDNOTES })
+    public String kind;
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "4000000" })
+    public int size;
+
+    /** Main's options: "" (none), "stream", or "mmap". */
+    @Param({ "", "stream", "mmap" })
+    public String options;
+
+    /** Write the document to a temporary file. */
+    @Setup
+    public void setup() throws IOException {
+        _input = File.createTempFile("tex61", ".in");
+        _output = File.createTempFile("tex61", ".out");
+        Writer doc = new FileWriter(_input, StandardCharsets.UTF_8);
+        try {
+            doc.write(BenchInputs.document(kind, size));
+        } finally {
+            doc.close();
+        }
+    }
+
+    /** Remove the temporary files. */
+    @TearDown
+    public void tearDown() {
+        _input.delete();
+        _output.delete();
+    }
+
+    /** Format the input file into the output file.  Returns the number
+     *  of errors. */
+    @Benchmark
+    public int format() throws IOException {
+        ErrorLog errors = new ErrorLog(null);
+        Reader input = Main.openInput(_input, options.equals("mmap"),
+                                      StandardCharsets.UTF_8);
+        PrintWriter output = new PrintWriter(_output);
+        try {
+            Controller cntrl = new Controller(output,
+                                              options.equals("stream"),
+                                              errors);
+            new InputParser(input, cntrl).process();
+        } finally {
+            output.close();
+            input.close();
+        }
+        return errors.count();
+    }
+
+    /** The document. */
+    private File _input;
+
+    /** Where the formatted document goes. */
+    private File _output;
+
+}
@@ -0,0 +1,102 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of LineAssembler.addWord and the emission of lines, with
+ *  filling and justification, filling only, no filling, and filling and
+ *  justification with optimal line breaking (\optimalfit).  Each
+ *  operation formats WORDS words in paragraphs of 100 words; without
+ *  filling, each input line has 10 words.
+ *  @author Greg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LineAssemblerBenchmark {
+
+    /** The formatting mode. */
+    @Param({ "fill+justify", "fill", "nofill", "optimal" })
+    public String mode;
+
+    /** Number of words formatted per operation. */
+    @Param({ "100000" })
+    public int words;
+
+    /** Create the words and a LineAssembler. */
+    @Setup
+    public void setup() {
+        _words = BenchInputs.words(words);
+        _pages = new LineCounter();
+        _assembler = new LineAssembler(_pages, false);
+    }
+
+    /** Format the words.  Returns the number of lines formatted. */
+    @Benchmark
+    public int addWords() {
+        LineAssembler assembler = _assembler;
+        assembler.reset();
+        assembler.setFill(!mode.equals("nofill"));
+        assembler.setJustify(!mode.equals("fill"));
+        assembler.setOptimalFit(mode.equals("optimal"));
+        _pages.lines = 0;
+        for (int i = 0; i < _words.length; i += 1) {
+            assembler.addWord(_words[i]);
+            if (i % 10 == 9) {
+                assembler.newLine();
+            }
+            if (i % 100 == 99) {
+                assembler.endParagraph();
+            }
+        }
+        assembler.endParagraph();
+        return _pages.lines;
+    }
+
+    /** A PageAssembler that counts and discards its lines. */
+    static class LineCounter extends PageAssembler {
+
+        /** A new LineCounter. */
+        LineCounter() {
+            super(new ArrayList<String>());
+        }
+
+        @Override
+        void addLine(String line) {
+            lines += 1;
+        }
+
+        @Override
+        void write(String line) {
+            addLine(line);
+        }
+
+        /** The number of lines received. */
+        int lines;
+    }
+
+    /** The words. */
+    private String[] _words;
+
+    /** Receives the lines. */
+    private LineCounter _pages;
+
+    /** Formats the words. */
+    private LineAssembler _assembler;
+
+}
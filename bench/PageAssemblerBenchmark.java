@@ -0,0 +1,70 @@
+package tex61;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of PageAssembler.addLine for a range of text heights,
+ *  where 0 means unlimited.  Each operation paginates LINES lines, one
+ *  in eight of which is a skipped line, into a PageCollector.
+ *  @author Greg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageAssemblerBenchmark {
+
+    /** The text height. */
+    @Param({ "0", "1", "5", "40", "1000" })
+    public int textHeight;
+
+    /** Number of lines paginated per operation. */
+    @Param({ "100000" })
+    public int lines;
+
+    /** Create the lines and the PageCollector. */
+    @Setup
+    public void setup() {
+        _lines = new String[lines];
+        String[] words = BenchInputs.words(lines);
+        for (int i = 0; i < lines; i += 1) {
+            _lines[i] = i % 8 == 7 ? null : "    " + words[i];
+        }
+        _pages = new PageCollector(new ArrayList<String>(lines));
+    }
+
+    /** Paginate the lines.  Returns the number of lines output. */
+    @Benchmark
+    public int addLines() {
+        PageAssembler pages = _pages;
+        pages.reset();
+        if (textHeight > 0) {
+            pages.setTextHeight(textHeight);
+        }
+        for (String line : _lines) {
+            pages.addLine(line);
+        }
+        return pages.accessPages().size();
+    }
+
+    /** The lines, including skipped (null) lines. */
+    private String[] _lines;
+
+    /** Paginates the lines. */
+    private PageAssembler _pages;
+
+}
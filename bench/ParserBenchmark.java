@@ -0,0 +1,68 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of InputParser.process, with a Controller formatting the
+ *  tokens, on documents that are mostly text, have frequent commands, or
+ *  have frequent endnotes.  Output is discarded.
+ *  @author Greg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    /** The kind of document (see BenchInputs). */
+    @Param({ BenchInputs.TEXT, BenchInputs.COMMANDS, BenchInputs.ENDNOTES })
+    public String kind;
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "1000000" })
+    public int size;
+
+    /** Create the document and a parser and Controller to format it. */
+    @Setup
+    public void setup() {
+        _document = BenchInputs.document(kind, size);
+        _controller = new Controller(new PrintWriter(Writer.nullWriter()),
+                                     false, new ErrorLog(null));
+        _parser = new InputParser((Reader) null, _controller);
+    }
+
+    /** Format the document.  Returns the number of errors. */
+    @Benchmark
+    public int process() {
+        _controller.reset();
+        _parser.reset(_document);
+        _parser.process();
+        return _controller.errors().count();
+    }
+
+    /** The document. */
+    private String _document;
+
+    /** Formats the document. */
+    private Controller _controller;
+
+    /** Parses the document. */
+    private InputParser _parser;
+
+}
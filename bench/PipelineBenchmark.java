@@ -0,0 +1,98 @@
+package tex61;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of formatting a document held in memory into an output
+ *  file with --stream, or with --pipeline and batches of BATCH
+ *  characters.  The pipeline parses on the benchmark's thread, breaks
+ *  lines on a second, and writes on a third, so run on a machine with at
+ *  least three cores to see how much it gains; on one core, it measures
+ *  only the cost of the handoffs.  The "optimal" kind, whose paragraphs
+ *  are broken with \optimalfit, does the most layout per character.
+ *  @author Greg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipelineBenchmark {
+
+    /** The kind of document (see BenchInputs), or "optimal" for text
+     *  broken into lines optimally. */
+    @Param({ BenchInputs.TEXT, "optimal" })
+    public String kind;
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "4000000" })
+    public int size;
+
+    /** The size of a batch of the pipeline, or 0 for --stream. */
+    @Param({ "0", "1024", "16384", "262144" })
+    public int batch;
+
+    /** Create the document and the output file. */
+    @Setup
+    public void setup() throws IOException {
+        if (kind.equals("optimal")) {
+            _doc = "\\optimalfit\n"
+                + BenchInputs.document(BenchInputs.TEXT, size);
+        } else {
+            _doc = BenchInputs.document(kind, size);
+        }
+        _output = File.createTempFile("tex61", ".out");
+    }
+
+    /** Remove the output file. */
+    @TearDown
+    public void tearDown() {
+        _output.delete();
+    }
+
+    /** Format the document.  Returns the number of errors. */
+    @Benchmark
+    public int format() throws IOException {
+        ErrorLog errors = new ErrorLog(null);
+        PrintWriter output =
+            new PrintWriter(new FileWriter(_output, StandardCharsets.UTF_8));
+        try {
+            Controller cntrl;
+            if (batch == 0) {
+                cntrl = new Controller(output, true, errors);
+            } else {
+                cntrl = new Controller(output, errors, batch);
+            }
+            new InputParser(new StringReader(_doc), cntrl).process();
+        } finally {
+            output.close();
+        }
+        return errors.count();
+    }
+
+    /** The document. */
+    private String _doc;
+
+    /** Where the formatted document goes. */
+    private File _output;
+
+}
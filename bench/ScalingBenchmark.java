@@ -0,0 +1,103 @@
+package tex61;
+
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Throughput of formatting a document held in memory with paragraphs
+ *  broken into lines on a pool of THREADS threads (--parallel=THREADS),
+ *  or serially if THREADS is 0, discarding the output.  Run on a
+ *  machine with at least as many cores as the largest THREADS to see
+ *  how --parallel scales; the "optimal" kind, whose paragraphs are
+ *  broken with \optimalfit, does the most layout per character.
+ *  @author Greg
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScalingBenchmark {
+
+    /** The kind of document (see BenchInputs), or "optimal" for text
+     *  broken into lines optimally. */
+    @Param({ BenchInputs.TEXT, "optimal" })
+    public String kind;
+
+    /** Approximate size of the document, in characters. */
+    @Param({ "4000000" })
+    public int size;
+
+    /** The number of layout threads, or 0 to format serially. */
+    @Param({ "0", "1", "2", "4", "8", "16" })
+    public int threads;
+
+    /** Create the document and the pool. */
+    @Setup
+    public void setup() {
+        if (kind.equals("optimal")) {
+            _doc = "\\optimalfit\n"
+                + BenchInputs.document(BenchInputs.TEXT, size);
+        } else {
+            _doc = BenchInputs.document(kind, size);
+        }
+        _pool = threads == 0 ? null : new ForkJoinPool(threads);
+    }
+
+    /** Shut down the pool. */
+    @TearDown
+    public void tearDown() {
+        if (_pool != null) {
+            _pool.shutdown();
+        }
+    }
+
+    /** Format the document.  Returns the number of errors. */
+    @Benchmark
+    public int format() {
+        ErrorLog errors = new ErrorLog(null);
+        Controller cntrl = new Controller(new PrintWriter(new Discard()),
+                                          false, errors, _pool);
+        new InputParser(new StringReader(_doc), cntrl).process();
+        return errors.count();
+    }
+
+    /** A Writer that discards its output. */
+    static class Discard extends Writer {
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** The document. */
+    private String _doc;
+
+    /** The layout threads, or null. */
+    private ForkJoinPool _pool;
+
+}